@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.bench;
+
+import be.seeseemelk.mockbukkit.MockBukkit;
+import be.seeseemelk.mockbukkit.MockPlugin;
+import be.seeseemelk.mockbukkit.ServerMock;
+import be.seeseemelk.mockbukkit.entity.PlayerMock;
+import com.github.alexqp.biginv.data.YmlInventory;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Starts and stops the mock server the benchmarks run on. Only one can run at a time.
+ */
+public final class BenchServer {
+
+    private final ServerMock server;
+    private final MockPlugin plugin;
+
+    private BenchServer() {
+        this.server = MockBukkit.mock();
+        this.plugin = MockBukkit.createMockPlugin();
+        ConfigurationSerialization.registerClass(YmlInventory.class, "YmlInventory");
+    }
+
+    @NotNull
+    public static BenchServer start() {
+        return new BenchServer();
+    }
+
+    @NotNull
+    public MockPlugin getPlugin() {
+        return plugin;
+    }
+
+    /**
+     * @param slots 9 to 54 slots in steps of 9 or a multiple of 45 for more pages
+     * @return the permission which grants a BigInv of the given size
+     */
+    @NotNull
+    public static String getSizePermission(int slots) {
+        return slots > 54 ? "biginv.pages." + slots / 45 : "biginv.size." + slots / 9;
+    }
+
+    /**
+     * @param permissions the permissions of the player (e.g. biginv.size.6)
+     * @return a new online player
+     */
+    @NotNull
+    public PlayerMock addPlayer(@NotNull String... permissions) {
+        PlayerMock player = server.addPlayer();
+        for (String permission : permissions) {
+            player.addAttachment(plugin, permission, true);
+        }
+        return player;
+    }
+
+    public void stop() {
+        MockBukkit.unmock();
+    }
+}
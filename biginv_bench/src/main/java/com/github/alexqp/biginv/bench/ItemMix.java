@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.bench;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.enchantments.Enchantment;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.Damageable;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * The item mixes the benchmarks run with. Needs a running (mock) server to create item metas.
+ */
+public enum ItemMix {
+
+    /**
+     * Only empty slots.
+     */
+    EMPTY,
+    /**
+     * Full and partial stacks of common blocks and materials without any meta.
+     */
+    SIMPLE,
+    /**
+     * Named gear with lore, damage, plugin data and many enchantments. No two items are equal.
+     */
+    ENCHANTED,
+    /**
+     * Shulker boxes which are full of simple stacks and enchanted gear.
+     */
+    SHULKERS;
+
+    private static final Material[] simpleMaterials = {Material.STONE, Material.COBBLESTONE, Material.DIRT, Material.OAK_LOG, Material.OAK_PLANKS,
+            Material.IRON_INGOT, Material.GOLD_INGOT, Material.DIAMOND, Material.REDSTONE, Material.COAL, Material.TORCH, Material.BREAD, Material.ARROW, Material.GLASS};
+    private static final Material[] gearMaterials = {Material.NETHERITE_SWORD, Material.NETHERITE_PICKAXE, Material.NETHERITE_AXE, Material.NETHERITE_HELMET,
+            Material.NETHERITE_CHESTPLATE, Material.NETHERITE_LEGGINGS, Material.NETHERITE_BOOTS, Material.BOW, Material.TRIDENT};
+    private static final Enchantment[] enchantments = {Enchantment.SHARPNESS, Enchantment.UNBREAKING, Enchantment.MENDING, Enchantment.LOOTING, Enchantment.FIRE_ASPECT,
+            Enchantment.SWEEPING_EDGE, Enchantment.EFFICIENCY, Enchantment.FORTUNE, Enchantment.PROTECTION, Enchantment.THORNS};
+    private static final NamespacedKey idKey = NamespacedKey.fromString("biginvbench:id");
+    private static final int shulkerSize = 27;
+
+    /**
+     * @param size the amount of slots
+     * @return new items of this mix (null for empty slots)
+     */
+    @NotNull
+    public ItemStack[] create(int size) {
+        ItemStack[] items = new ItemStack[size];
+        for (int slot = 0; slot < size; slot++) {
+            switch (this) {
+                case SIMPLE:
+                    items[slot] = createSimple(slot);
+                    break;
+                case ENCHANTED:
+                    items[slot] = createEnchanted(slot);
+                    break;
+                case SHULKERS:
+                    items[slot] = createShulker(slot);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return items;
+    }
+
+    private static ItemStack createSimple(int slot) {
+        // every fifth stack is a partial one, like in a real inventory.
+        return new ItemStack(simpleMaterials[slot % simpleMaterials.length], slot % 5 == 4 ? slot % 63 + 1 : 64);
+    }
+
+    private static ItemStack createEnchanted(int slot) {
+        ItemStack item = new ItemStack(gearMaterials[slot % gearMaterials.length]);
+        ItemMeta meta = item.getItemMeta();
+        assert meta != null;
+        meta.setDisplayName(ChatColor.GOLD + "Legendary item #" + slot);
+        meta.setLore(Arrays.asList(ChatColor.GRAY + "Forged in the benchmark", ChatColor.GRAY + "Owner: Notch", ChatColor.DARK_GRAY + "id " + slot));
+        for (int i = 0; i < 7; i++) {
+            meta.addEnchant(enchantments[(slot + i) % enchantments.length], 1 + (slot + i) % 5, true);
+        }
+        if (meta instanceof Damageable)
+            ((Damageable) meta).setDamage(slot % 200);
+        if (idKey != null)
+            meta.getPersistentDataContainer().set(idKey, PersistentDataType.STRING, "item-" + slot);
+        item.setItemMeta(meta);
+        return item;
+    }
+
+    private static ItemStack createShulker(int slot) {
+        ItemStack item = new ItemStack(Material.SHULKER_BOX);
+        BlockStateMeta meta = (BlockStateMeta) item.getItemMeta();
+        assert meta != null;
+        ShulkerBox box = (ShulkerBox) meta.getBlockState();
+        ItemStack[] contents = new ItemStack[shulkerSize];
+        for (int i = 0; i < shulkerSize; i++) {
+            int id = slot * shulkerSize + i;
+            contents[i] = i % 3 == 0 ? createEnchanted(id) : createSimple(id);
+        }
+        box.getInventory().setContents(contents);
+        meta.setBlockState(box);
+        item.setItemMeta(meta);
+        return item;
+    }
+}
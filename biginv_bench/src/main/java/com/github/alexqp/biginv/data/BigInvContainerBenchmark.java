@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import com.github.alexqp.biginv.listeners.BigInvHandler;
+import com.github.alexqp.commons.dataHandler.LoadSaveException;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a stored BigInv through the BigInvContainer with the file store, like a login, and unloading it again like a quit.
+ * Saving is synchronous, so the file gets written within the measured call. History, autosave and the search index are disabled.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BigInvContainerBenchmark {
+
+    @Param({"EMPTY", "SIMPLE", "ENCHANTED", "SHULKERS"})
+    public ItemMix mix;
+
+    @Param({"54", "450"})
+    public int slots;
+
+    @Param({"BINARY", "YAML"})
+    public String format;
+
+    private BenchServer server;
+    private BigInvContainer container;
+    private Player owner;
+
+    @Setup
+    public void setup() throws LoadSaveException, IOException {
+        server = BenchServer.start();
+        owner = server.addPlayer(BenchServer.getSizePermission(slots), "biginv.see");
+
+        MemoryConfiguration config = new MemoryConfiguration();
+        ConfigurationSection storageSection = config.createSection("storage");
+        storageSection.set("backend", "FILE");
+        storageSection.set("format", format);
+        storageSection.set("delta_saving", false);
+        config.createSection("history").set("enable", false);
+        config.createSection("autosave").set("enable", false);
+        config.createSection("search_index").set("enable", false);
+        config.createSection("stats").set("log_interval", 0);
+
+        BigInvStats stats = new BigInvStats(server.getPlugin(), config.getConfigurationSection("stats"));
+        new BigInvFileStore(server.getPlugin(), storageSection, stats).write(owner.getUniqueId(), new YmlInventory(mix.create(slots)), new YmlInventory());
+
+        container = new BigInvContainer(server.getPlugin(), false, 0, storageSection, null, null, config.getConfigurationSection("history"),
+                config.getConfigurationSection("autosave"), config.getConfigurationSection("search_index"), null, config.getConfigurationSection("stats"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        container.saveInventories();
+        container.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Reads and applies the stored BigInv. Nothing changed, so unloading does not write anything.
+     */
+    @Benchmark
+    public BigInvHandler.BigInvHandlerReturnType loadAndUnload() {
+        container.loadInventory(owner);
+        return container.saveInventory(owner);
+    }
+
+    /**
+     * Reads the stored BigInv, opens it (which decodes the first page) and writes the whole BigInv on unloading.
+     */
+    @Benchmark
+    public BigInvHandler.BigInvHandlerReturnType roundTrip() {
+        container.loadInventory(owner);
+        container.openInventory(owner, owner);
+        BigInvHolder holder = (BigInvHolder) Objects.requireNonNull(owner.getOpenInventory().getTopInventory().getHolder());
+        holder.setChanged(true);
+        return container.saveInventory(owner);
+    }
+}
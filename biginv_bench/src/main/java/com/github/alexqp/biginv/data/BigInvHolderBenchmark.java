@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling a new holder like a load does: with decoded contents or with still encoded contents as read from BINARY data.
+ * With overflow, the contents are larger than the holder, so the rest gets merged into the backup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BigInvHolderBenchmark {
+
+    private static final int overflowSlots = 54;
+
+    @Param({"EMPTY", "SIMPLE", "ENCHANTED", "SHULKERS"})
+    public ItemMix mix;
+
+    @Param({"54", "450"})
+    public int slots;
+
+    @Param({"false", "true"})
+    public boolean overflow;
+
+    private BenchServer server;
+    private Player owner;
+    private YmlInventory decoded;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws IOException {
+        server = BenchServer.start();
+        owner = server.addPlayer(BenchServer.getSizePermission(slots));
+        ItemStack[] contents = mix.create(overflow ? slots + overflowSlots : slots);
+        decoded = new YmlInventory(contents);
+        encoded = BinaryInventoryCodec.encode(Collections.singletonMap(BigInvFileStore.activeInvName, decoded), true, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public YmlInventory setDecodedContents(Blackhole blackhole) {
+        BigInvHolder holder = Objects.requireNonNull(BigInvHolder.get(owner));
+        blackhole.consume(holder);
+        return holder.setContents(decoded);
+    }
+
+    /**
+     * Includes reading the records of the encoded data, as the contents would be decoded by the first overflowing call otherwise.
+     */
+    @Benchmark
+    public YmlInventory setEncodedContents(Blackhole blackhole) throws IOException {
+        YmlInventory ymlInventory = BinaryInventoryCodec.decodeLazily(encoded).get(BigInvFileStore.activeInvName);
+        BigInvHolder holder = Objects.requireNonNull(BigInvHolder.get(owner));
+        blackhole.consume(holder);
+        return holder.setContents(ymlInventory);
+    }
+}
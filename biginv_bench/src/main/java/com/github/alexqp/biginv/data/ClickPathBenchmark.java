@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The part of a click or drag in a BigInv which the click listener runs for every event: the cached permission check,
+ * the navigation check and marking the slot as changed. Once warmed up, it must not allocate.
+ * Run {@link #main(String[])} to check that with the GC profiler, or the jar with {@code -prof gc} to see gc.alloc.rate.norm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClickPathBenchmark {
+
+    private static final double maxAllocatedBytes = 1; // per operation, JMH itself accounts for a fraction of a byte.
+
+    /**
+     * OWNER clicks in their own BigInv, STAFF in the BigInv of someone else (which checks the other permission as well).
+     */
+    @Param({"OWNER", "STAFF"})
+    public String viewer;
+
+    private BenchServer server;
+    private Player clicker;
+    private BigInvHolder holder;
+    private Inventory inventory;
+    private int slot;
+
+    @Setup
+    public void setup() {
+        server = BenchServer.start();
+        Player owner = server.addPlayer(BenchServer.getSizePermission(450), "biginv.see", "biginv.change");
+        clicker = "OWNER".equals(viewer) ? owner : server.addPlayer("biginv.see", "biginv.see.other", "biginv.change", "biginv.change.other");
+        holder = Objects.requireNonNull(BigInvHolder.get(owner));
+        inventory = holder.getInventory();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public boolean getCanChange() {
+        return holder.getCanChange(clicker);
+    }
+
+    @Benchmark
+    public boolean clickSlot() {
+        slot = (slot + 1) % inventory.getSize();
+        if (!holder.getCanChange(clicker) || holder.isNavigationSlot(inventory, slot))
+            return false;
+        holder.setSlotChanged(inventory, slot);
+        return true;
+    }
+
+    /**
+     * Runs this benchmark with the GC profiler and exits with 1 if an operation allocated.
+     */
+    public static void main(String[] args) throws RunnerException {
+        Collection<RunResult> results = new Runner(new OptionsBuilder()
+                .include(ClickPathBenchmark.class.getName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+
+        boolean allocated = false;
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            Result<?> allocation = result.getSecondaryResults().get("gc.alloc.rate.norm");
+            double bytes = allocation != null ? allocation.getScore() : Double.NaN;
+            boolean failed = !(bytes < maxAllocatedBytes);
+            allocated |= failed;
+            System.out.println((failed ? "FAILED " : "OK ") + params.getBenchmark() + " (viewer=" + params.getParam("viewer") + "): " + bytes + " B/op");
+        }
+        System.exit(allocated ? 1 : 0);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing and deserializing one inventory: the raw {@link YmlInventory#serialize()} and {@link YmlInventory#deserialize(Map)},
+ * the whole YAML text as written by the YAML storage format and the BINARY codec for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class YmlInventoryBenchmark {
+
+    @Param({"EMPTY", "SIMPLE", "ENCHANTED", "SHULKERS"})
+    public ItemMix mix;
+
+    @Param({"54", "450"})
+    public int slots;
+
+    private BenchServer server;
+    private YmlInventory ymlInventory;
+    private Map<String, Object> serialized;
+    private String yaml;
+    private byte[] binary;
+
+    @Setup
+    public void setup() throws IOException {
+        server = BenchServer.start();
+        ymlInventory = new YmlInventory(mix.create(slots));
+
+        // deserialize gets lists, as they are read from YAML.
+        serialized = new HashMap<>(ymlInventory.serialize());
+        serialized.replaceAll((key, value) -> value instanceof ItemStack[] ? Arrays.asList((ItemStack[]) value) : value);
+        yaml = this.serializeYaml();
+        binary = this.serializeBinary();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public Map<String, Object> serialize() {
+        return ymlInventory.serialize();
+    }
+
+    @Benchmark
+    public YmlInventory deserialize() {
+        return YmlInventory.deserialize(serialized);
+    }
+
+    @Benchmark
+    public String serializeYaml() {
+        YamlConfiguration ymlFile = new YamlConfiguration();
+        ymlFile.set(BigInvFileStore.activeInvName, ymlInventory);
+        return ymlFile.saveToString();
+    }
+
+    @Benchmark
+    public ItemStack[] deserializeYaml() throws InvalidConfigurationException {
+        YamlConfiguration ymlFile = new YamlConfiguration();
+        ymlFile.loadFromString(yaml);
+        return Objects.requireNonNull((YmlInventory) ymlFile.get(BigInvFileStore.activeInvName)).getContentsClone();
+    }
+
+    @Benchmark
+    public byte[] serializeBinary() throws IOException {
+        return BinaryInventoryCodec.encode(Collections.singletonMap(BigInvFileStore.activeInvName, ymlInventory), true, true);
+    }
+
+    @Benchmark
+    public ItemStack[] deserializeBinary() throws IOException {
+        return BinaryInventoryCodec.decode(binary).get(BigInvFileStore.activeInvName).getContentsClone();
+    }
+}
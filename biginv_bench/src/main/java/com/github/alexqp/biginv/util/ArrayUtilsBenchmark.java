@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.util;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging a BigInv with a backup, as done on login. System.arraycopy is the lower bound to compare with.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArrayUtilsBenchmark {
+
+    @Param({"54", "450"})
+    public int slots;
+
+    private BenchServer server;
+    private ItemStack[] contents;
+    private ItemStack[] backup;
+
+    @Setup
+    public void setup() {
+        server = BenchServer.start();
+        contents = ItemMix.SIMPLE.create(slots);
+        backup = ItemMix.SIMPLE.create(slots / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public ItemStack[] addAll() {
+        return ArrayUtils.addAll(contents, backup);
+    }
+
+    @Benchmark
+    public ItemStack[] arraycopy() {
+        ItemStack[] result = Arrays.copyOf(contents, contents.length + backup.length);
+        System.arraycopy(backup, 0, result, contents.length, backup.length);
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import com.github.alexqp.commons.dataHandler.LoadSaveException;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recovery of BINARY files with delta logs: which records get applied, which get cut off and when a log gets discarded.
+ * Every test uses an owner of its own, so the tests share the playerdata directory of the mock plugin.
+ */
+class BigInvFileStoreTest {
+
+    private static final int size = 54;
+
+    private static BenchServer server;
+    private static BigInvStats stats;
+
+    @BeforeAll
+    static void setup() {
+        server = BenchServer.start();
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.createSection("stats").set("log_interval", 0);
+        stats = new BigInvStats(server.getPlugin(), config.getConfigurationSection("stats"));
+    }
+
+    @AfterAll
+    static void tearDown() {
+        server.stop();
+    }
+
+    private static BigInvFileStore createStore(int compactAfter) throws LoadSaveException {
+        ConfigurationSection section = new MemoryConfiguration().createSection("storage");
+        section.set("format", "BINARY");
+        section.set("delta_saving", true);
+        section.set("compact_after", compactAfter);
+        return new BigInvFileStore(server.getPlugin(), section, stats);
+    }
+
+    private static File getFile(UUID ownerUUID, String extension) {
+        String name = ownerUUID.toString();
+        return new File(server.getPlugin().getDataFolder(), "playerdata/" + name.substring(0, 2) + "/" + name.substring(2, 4) + "/" + name + extension);
+    }
+
+    private static Map<Integer, ItemStack> delta(int slot, ItemStack item) {
+        Map<Integer, ItemStack> slots = new HashMap<>();
+        slots.put(slot, item);
+        return slots;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    @Test
+    void replaysDeltas() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(50);
+        ItemStack[] expected = ItemMix.SIMPLE.create(size);
+        YmlInventory backup = new YmlInventory(ItemMix.SIMPLE.create(9));
+        store.write(ownerUUID, new YmlInventory(expected), backup);
+
+        assertTrue(store.canWriteDelta(ownerUUID));
+        store.writeDelta(ownerUUID, size, delta(0, new ItemStack(Material.DIAMOND, 3)));
+        store.writeDelta(ownerUUID, size, delta(1, null));
+        expected[0] = new ItemStack(Material.DIAMOND, 3);
+        expected[1] = null;
+        assertTrue(getFile(ownerUUID, ".log").exists());
+
+        StoredBigInv storedBigInv = createStore(50).read(ownerUUID);
+        assertArrayEquals(expected, storedBigInv.getActive().getContentsClone());
+        assertArrayEquals(backup.getContentsClone(), storedBigInv.getBackup().getContentsClone());
+    }
+
+    @Test
+    void cutsOffTornRecords() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(50);
+        ItemStack[] expected = ItemMix.SIMPLE.create(size);
+        store.write(ownerUUID, new YmlInventory(expected), new YmlInventory());
+        store.writeDelta(ownerUUID, size, delta(0, new ItemStack(Material.DIAMOND, 3)));
+        expected[0] = new ItemStack(Material.DIAMOND, 3);
+        File log = getFile(ownerUUID, ".log");
+        long validLength = log.length();
+        store.writeDelta(ownerUUID, size, delta(2, new ItemStack(Material.GOLD_BLOCK)));
+
+        // a crash while appending the second record.
+        truncate(log, log.length() - 5);
+        store = createStore(50);
+        assertArrayEquals(expected, store.read(ownerUUID).getActive().getContentsClone());
+        assertEquals(validLength, log.length(), "the torn record got cut off");
+
+        // further records get appended behind the valid ones.
+        assertTrue(store.canWriteDelta(ownerUUID));
+        store.writeDelta(ownerUUID, size, delta(3, new ItemStack(Material.APPLE)));
+        expected[3] = new ItemStack(Material.APPLE);
+        assertArrayEquals(expected, createStore(50).read(ownerUUID).getActive().getContentsClone());
+    }
+
+    @Test
+    void cutsOffCorruptRecords() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(50);
+        ItemStack[] expected = ItemMix.SIMPLE.create(size);
+        store.write(ownerUUID, new YmlInventory(expected), new YmlInventory());
+        store.writeDelta(ownerUUID, size, delta(0, new ItemStack(Material.DIAMOND, 3)));
+        expected[0] = new ItemStack(Material.DIAMOND, 3);
+        File log = getFile(ownerUUID, ".log");
+        long validLength = log.length();
+        store.writeDelta(ownerUUID, size, delta(2, new ItemStack(Material.GOLD_BLOCK)));
+
+        // flips a byte of the second record, so its checksum does not match anymore.
+        byte[] data = Files.readAllBytes(log.toPath());
+        data[(int) validLength + 6] ^= 0x55;
+        Files.write(log.toPath(), data);
+
+        assertArrayEquals(expected, createStore(50).read(ownerUUID).getActive().getContentsClone());
+        assertEquals(validLength, log.length());
+    }
+
+    @Test
+    void discardsLogsOfAnotherBase() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(50);
+        store.write(ownerUUID, new YmlInventory(ItemMix.SIMPLE.create(size)), new YmlInventory());
+        store.writeDelta(ownerUUID, size, delta(0, new ItemStack(Material.DIAMOND, 3)));
+        File log = getFile(ownerUUID, ".log");
+        byte[] oldLog = Files.readAllBytes(log.toPath());
+
+        // a newer base with the log of the older one, e.g. after a crash between writing the file and deleting the log.
+        ItemStack[] expected = new ItemStack[size];
+        expected[4] = new ItemStack(Material.IRON_BLOCK, 7);
+        store.write(ownerUUID, new YmlInventory(expected), new YmlInventory());
+        assertFalse(log.exists());
+        Files.write(log.toPath(), oldLog);
+
+        assertArrayEquals(expected, createStore(50).read(ownerUUID).getActive().getContentsClone());
+        assertFalse(log.exists(), "the outdated log got deleted");
+    }
+
+    @Test
+    void compactsAfterRecords() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(3);
+        ItemStack[] expected = ItemMix.SIMPLE.create(size);
+        store.write(ownerUUID, new YmlInventory(expected), new YmlInventory());
+        File log = getFile(ownerUUID, ".log");
+
+        for (int slot = 0; slot < 2; slot++) {
+            store.writeDelta(ownerUUID, size, delta(slot, new ItemStack(Material.DIAMOND, slot + 1)));
+            expected[slot] = new ItemStack(Material.DIAMOND, slot + 1);
+        }
+        assertTrue(log.exists());
+        store.writeDelta(ownerUUID, size, delta(2, new ItemStack(Material.DIAMOND, 3)));
+        expected[2] = new ItemStack(Material.DIAMOND, 3);
+        assertFalse(log.exists(), "the log got merged into the file");
+        assertArrayEquals(expected, createStore(3).read(ownerUUID).getActive().getContentsClone());
+
+        // the record count starts again after compacting.
+        store.writeDelta(ownerUUID, size, delta(3, null));
+        expected[3] = null;
+        assertTrue(log.exists());
+        assertArrayEquals(expected, createStore(3).read(ownerUUID).getActive().getContentsClone());
+    }
+
+    @Test
+    void peekLeavesFilesUntouched() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(50);
+        ItemStack[] expected = ItemMix.SIMPLE.create(size);
+        store.write(ownerUUID, new YmlInventory(expected), new YmlInventory());
+        store.writeDelta(ownerUUID, size, delta(0, new ItemStack(Material.DIAMOND, 3)));
+        store.writeDelta(ownerUUID, size, delta(2, new ItemStack(Material.GOLD_BLOCK)));
+        expected[0] = new ItemStack(Material.DIAMOND, 3);
+        File log = getFile(ownerUUID, ".log");
+        truncate(log, log.length() - 5);
+        long tornLength = log.length();
+
+        store = createStore(50);
+        assertArrayEquals(expected, store.peek(ownerUUID).getActive().getContentsClone());
+        assertEquals(tornLength, log.length());
+        assertFalse(store.canWriteDelta(ownerUUID), "peek keeps no state");
+
+        File file = getFile(ownerUUID, ".dat");
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+        assertFalse(store.peek(ownerUUID).hasActive());
+        assertTrue(file.exists(), "unreadable files are only moved aside by read");
+    }
+
+    @Test
+    void movesUnreadableFilesAside() throws IOException, LoadSaveException {
+        UUID ownerUUID = UUID.randomUUID();
+        BigInvFileStore store = createStore(50);
+        store.write(ownerUUID, new YmlInventory(ItemMix.SIMPLE.create(size)), new YmlInventory());
+        File file = getFile(ownerUUID, ".dat");
+        byte[] data = Files.readAllBytes(file.toPath());
+        truncate(file, data.length / 2);
+
+        StoredBigInv storedBigInv = createStore(50).read(ownerUUID);
+        assertFalse(storedBigInv.hasActive());
+        assertFalse(file.exists());
+        assertTrue(getFile(ownerUUID, ".dat.corrupt").exists(), "the file got moved aside instead of being overwritten later");
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import com.github.alexqp.commons.dataHandler.LoadSaveException;
+import org.bukkit.Material;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Rebuilding the index of the pack store from its segments: newer records supersede older ones,
+ * a torn record at the end of the newest segment gets cut off and nothing after a corrupted record gets used.
+ */
+class BigInvPackStoreTest {
+
+    private static final int size = 54;
+
+    private static BenchServer server;
+    private static BigInvStats stats;
+    private static BigInvFileStore fileStore;
+
+    private BigInvPackStore store;
+
+    @BeforeAll
+    static void setup() throws LoadSaveException {
+        server = BenchServer.start();
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.createSection("stats").set("log_interval", 0);
+        stats = new BigInvStats(server.getPlugin(), config.getConfigurationSection("stats"));
+        fileStore = new BigInvFileStore(server.getPlugin(), null, stats);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        server.stop();
+    }
+
+    @BeforeEach
+    void clearSegments() throws IOException {
+        File[] files = getDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    @AfterEach
+    void closeStore() {
+        if (store != null)
+            store.close();
+        store = null;
+    }
+
+    private static File getDirectory() {
+        return new File(server.getPlugin().getDataFolder(), "pack");
+    }
+
+    private static File getSegmentFile(int id) {
+        return new File(getDirectory(), String.format("segment-%06d.pack", id));
+    }
+
+    private void reopen() throws IOException {
+        this.closeStore();
+        store = new BigInvPackStore(server.getPlugin(), fileStore, null, stats);
+    }
+
+    private static ItemStack[] createContents(Material marker) {
+        ItemStack[] contents = ItemMix.SIMPLE.create(size);
+        contents[0] = new ItemStack(marker);
+        return contents;
+    }
+
+    /**
+     * @return a record in the layout of the pack store: UUID, payload length, CRC32 of the payload and the payload.
+     */
+    private static byte[] createRecord(UUID ownerUUID, ItemStack[] contents, boolean validChecksum) throws IOException {
+        byte[] payload = fileStore.encode(ownerUUID, new YmlInventory(contents), new YmlInventory());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + 8 + 4 + 8 + payload.length);
+        record.putLong(ownerUUID.getMostSignificantBits()).putLong(ownerUUID.getLeastSignificantBits());
+        record.putInt(payload.length).putLong(validChecksum ? crc.getValue() : ~crc.getValue()).put(payload);
+        return record.array();
+    }
+
+    private static void writeSegment(int id, byte[]... records) throws IOException {
+        Files.createDirectories(getDirectory().toPath());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            bytes.write(record);
+        }
+        Files.write(getSegmentFile(id).toPath(), bytes.toByteArray());
+    }
+
+    @Test
+    void indexesNewestRecords() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        reopen();
+        store.write(first, new YmlInventory(createContents(Material.DIRT)), new YmlInventory());
+        store.write(second, new YmlInventory(createContents(Material.APPLE)), new YmlInventory());
+        ItemStack[] expected = createContents(Material.DIAMOND);
+        store.write(first, new YmlInventory(expected), new YmlInventory());
+
+        reopen();
+        assertArrayEquals(expected, store.read(first).getActive().getContentsClone());
+        assertArrayEquals(createContents(Material.APPLE), store.read(second).getActive().getContentsClone());
+    }
+
+    @Test
+    void prefersLaterSegments() throws IOException {
+        UUID ownerUUID = UUID.randomUUID();
+        writeSegment(1, createRecord(ownerUUID, createContents(Material.DIRT), true));
+        writeSegment(2, createRecord(ownerUUID, createContents(Material.DIAMOND), true));
+
+        reopen();
+        assertArrayEquals(createContents(Material.DIAMOND), store.read(ownerUUID).getActive().getContentsClone());
+    }
+
+    @Test
+    void cutsOffTornRecords() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        reopen();
+        store.write(first, new YmlInventory(createContents(Material.DIAMOND)), new YmlInventory());
+        long validLength = getSegmentFile(1).length();
+        store.write(second, new YmlInventory(createContents(Material.APPLE)), new YmlInventory());
+        this.closeStore();
+
+        // a crash while appending the second record.
+        try (FileChannel channel = FileChannel.open(getSegmentFile(1).toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        reopen();
+        assertEquals(validLength, getSegmentFile(1).length(), "the torn record got cut off");
+        assertArrayEquals(createContents(Material.DIAMOND), store.read(first).getActive().getContentsClone());
+        assertFalse(store.listOwners().contains(second));
+
+        // further records get appended behind the valid ones.
+        ItemStack[] expected = createContents(Material.GOLD_BLOCK);
+        store.write(second, new YmlInventory(expected), new YmlInventory());
+        reopen();
+        assertArrayEquals(expected, store.read(second).getActive().getContentsClone());
+        assertArrayEquals(createContents(Material.DIAMOND), store.read(first).getActive().getContentsClone());
+    }
+
+    @Test
+    void ignoresRecordsAfterCorruption() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID corrupted = UUID.randomUUID();
+        UUID behind = UUID.randomUUID();
+        byte[] firstRecord = createRecord(first, createContents(Material.DIAMOND), true);
+        writeSegment(1, firstRecord, createRecord(corrupted, createContents(Material.DIRT), false), createRecord(behind, createContents(Material.APPLE), true));
+        long length = getSegmentFile(1).length();
+        writeSegment(2, createRecord(UUID.randomUUID(), createContents(Material.IRON_BLOCK), true));
+
+        reopen();
+        assertArrayEquals(createContents(Material.DIAMOND), store.read(first).getActive().getContentsClone());
+        assertFalse(store.listOwners().contains(corrupted));
+        assertFalse(store.listOwners().contains(behind));
+        assertEquals(length, getSegmentFile(1).length(), "only the newest segment gets truncated");
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Round trips of both format versions and the rejection of corrupted data, which must fail with an IOException so the stores move it aside.
+ */
+class BinaryInventoryCodecTest {
+
+    private static final int size = 54;
+
+    private static BenchServer server;
+
+    @BeforeAll
+    static void setup() {
+        server = BenchServer.start();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        server.stop();
+    }
+
+    private static Map<String, YmlInventory> createSections() {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        ItemStack[] active = ItemMix.SIMPLE.create(size);
+        active[7] = null;
+        sections.put(BigInvFileStore.activeInvName, new YmlInventory(active));
+        sections.put(BigInvFileStore.backupInvName, new YmlInventory(ItemMix.SIMPLE.create(9)));
+        return sections;
+    }
+
+    private static void assertSameContents(Map<String, YmlInventory> expected, Map<String, YmlInventory> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, YmlInventory> section : expected.entrySet()) {
+            assertArrayEquals(section.getValue().getContentsClone(), actual.get(section.getKey()).getContentsClone(), section.getKey());
+        }
+    }
+
+    @Test
+    void roundTripsAllVersions() throws IOException {
+        for (boolean deduplicate : new boolean[] {false, true}) {
+            for (boolean deflate : new boolean[] {false, true}) {
+                Map<String, YmlInventory> sections = createSections();
+                byte[] data = BinaryInventoryCodec.encode(sections, deflate, deduplicate);
+                assertEquals(deduplicate ? 2 : 1, data[4], "format version");
+                assertEquals(deflate ? 1 : 0, data[5], "flags");
+                assertSameContents(sections, BinaryInventoryCodec.decode(data));
+            }
+        }
+    }
+
+    @Test
+    void keepsEmptyInventoriesAndSlots() throws IOException {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        sections.put(BigInvFileStore.activeInvName, new YmlInventory(new ItemStack[size]));
+        sections.put(BigInvFileStore.backupInvName, new YmlInventory());
+        for (boolean deduplicate : new boolean[] {false, true}) {
+            Map<String, YmlInventory> decoded = BinaryInventoryCodec.decode(BinaryInventoryCodec.encode(sections, true, deduplicate));
+            assertSameContents(sections, decoded);
+            assertEquals(size, decoded.get(BigInvFileStore.activeInvName).getSize());
+            assertTrue(decoded.get(BigInvFileStore.backupInvName).isEmpty());
+        }
+    }
+
+    @Test
+    void decodesLazily() throws IOException {
+        for (boolean deduplicate : new boolean[] {false, true}) {
+            Map<String, YmlInventory> sections = createSections();
+            byte[] data = BinaryInventoryCodec.encode(sections, false, deduplicate);
+            Map<String, YmlInventory> decoded = BinaryInventoryCodec.decodeLazily(data);
+
+            YmlInventory active = decoded.get(BigInvFileStore.activeInvName);
+            assertEquals(size, active.getSize());
+            assertNotNull(active.getEncodedSlot(0), "items stay encoded until the contents are accessed");
+            assertNull(active.getEncodedSlot(7));
+            // the records of items which were not decoded get written again as they are.
+            assertArrayEquals(data, BinaryInventoryCodec.encode(decoded, false, deduplicate));
+            assertSameContents(sections, decoded);
+        }
+    }
+
+    @Test
+    void sharesRecordsOfEqualItems() throws IOException {
+        Map<String, YmlInventory> sections = createSections();
+        YmlInventory active = sections.get(BigInvFileStore.activeInvName);
+        assertEquals(active.getContentsClone()[0], active.getContentsClone()[28]);
+
+        YmlInventory decoded = BinaryInventoryCodec.decodeLazily(BinaryInventoryCodec.encode(sections, true, true)).get(BigInvFileStore.activeInvName);
+        assertSame(decoded.getEncodedSlot(0), decoded.getEncodedSlot(28));
+        assertTrue(BinaryInventoryCodec.encode(sections, false, true).length < BinaryInventoryCodec.encode(sections, false, false).length);
+    }
+
+    @Test
+    void appliesDeltas() throws IOException {
+        Map<String, YmlInventory> sections = BinaryInventoryCodec.decodeLazily(BinaryInventoryCodec.encode(createSections(), true, true));
+        ItemStack[] expected = sections.get(BigInvFileStore.activeInvName).deepClone().getContentsClone();
+
+        Map<Integer, ItemStack> slots = new HashMap<>();
+        slots.put(0, new ItemStack(Material.DIAMOND, 3));
+        slots.put(5, null);
+        BinaryInventoryCodec.applyDelta(BinaryInventoryCodec.encodeDelta(BigInvFileStore.activeInvName, size, slots), sections);
+        expected[0] = new ItemStack(Material.DIAMOND, 3);
+        expected[5] = null;
+
+        YmlInventory active = sections.get(BigInvFileStore.activeInvName);
+        assertNotNull(active.getEncodedSlot(1), "unchanged slots stay encoded");
+        assertArrayEquals(expected, active.getContentsClone());
+    }
+
+    @Test
+    void resizesByDeltas() throws IOException {
+        Map<String, YmlInventory> sections = BinaryInventoryCodec.decodeLazily(BinaryInventoryCodec.encode(createSections(), false, false));
+        ItemStack[] before = sections.get(BigInvFileStore.activeInvName).deepClone().getContentsClone();
+
+        Map<Integer, ItemStack> slots = new HashMap<>();
+        slots.put(size + 2, new ItemStack(Material.EMERALD));
+        BinaryInventoryCodec.applyDelta(BinaryInventoryCodec.encodeDelta(BigInvFileStore.activeInvName, size + 9, slots), sections);
+        ItemStack[] grown = sections.get(BigInvFileStore.activeInvName).getContentsClone();
+        assertEquals(size + 9, grown.length);
+        assertArrayEquals(before, Arrays.copyOf(grown, size));
+        assertEquals(new ItemStack(Material.EMERALD), grown[size + 2]);
+
+        BinaryInventoryCodec.applyDelta(BinaryInventoryCodec.encodeDelta(BigInvFileStore.activeInvName, 9, new HashMap<>()), sections);
+        assertArrayEquals(Arrays.copyOf(before, 9), sections.get(BigInvFileStore.activeInvName).getContentsClone());
+    }
+
+    @Test
+    void createsMissingSectionsByDeltas() throws IOException {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        Map<Integer, ItemStack> slots = new HashMap<>();
+        slots.put(1, new ItemStack(Material.STONE, 5));
+        BinaryInventoryCodec.applyDelta(BinaryInventoryCodec.encodeDelta(BigInvFileStore.activeInvName, 9, slots), sections);
+
+        ItemStack[] expected = new ItemStack[9];
+        expected[1] = new ItemStack(Material.STONE, 5);
+        assertArrayEquals(expected, sections.get(BigInvFileStore.activeInvName).getContentsClone());
+    }
+
+    @Test
+    void rejectsCorruptHeaders() {
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[0]));
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x42, 0x49, 0x4E}));
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x42, 0x49, 0x4E, 0x56, 1}));
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x59, 0x41, 0x4D, 0x4C, 1, 0, 0}), "wrong magic");
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x42, 0x49, 0x4E, 0x56, 9, 0, 0}), "unknown version");
+    }
+
+    @Test
+    void rejectsTruncatedPayloads() throws IOException {
+        for (boolean deduplicate : new boolean[] {false, true}) {
+            for (boolean deflate : new boolean[] {false, true}) {
+                byte[] data = BinaryInventoryCodec.encode(createSections(), deflate, deduplicate);
+                assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(Arrays.copyOf(data, data.length / 2)));
+                assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(Arrays.copyOf(data, 6)));
+            }
+        }
+    }
+
+    @Test
+    void rejectsCorruptLengths() {
+        for (byte version : new byte[] {1, 2}) {
+            // -1 and Integer.MAX_VALUE as section count (v1) or item table size (v2)
+            assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x42, 0x49, 0x4E, 0x56, version, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F}));
+            assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x42, 0x49, 0x4E, 0x56, version, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}));
+        }
+        // one section with an empty name and a slot count of Integer.MAX_VALUE
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.decode(new byte[] {0x42, 0x49, 0x4E, 0x56, 1, 0, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}));
+        // the same for the size of a delta
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.applyDelta(new byte[] {0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, new HashMap<>()));
+    }
+
+    @Test
+    void rejectsTruncatedDeltas() throws IOException {
+        Map<Integer, ItemStack> slots = new HashMap<>();
+        slots.put(0, new ItemStack(Material.DIAMOND, 3));
+        byte[] record = BinaryInventoryCodec.encodeDelta(BigInvFileStore.activeInvName, size, slots);
+        assertThrows(IOException.class, () -> BinaryInventoryCodec.applyDelta(Arrays.copyOf(record, record.length - 2), new HashMap<>()));
+    }
+}
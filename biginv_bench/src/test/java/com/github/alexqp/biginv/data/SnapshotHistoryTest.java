@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.biginv.bench.BenchServer;
+import com.github.alexqp.biginv.bench.ItemMix;
+import org.bukkit.Material;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reconstructing snapshots from FULL and DELTA records, cutting off torn records and pruning whole segments.
+ * Every test uses an owner of its own, so the tests share the history directory of the mock plugin.
+ */
+class SnapshotHistoryTest {
+
+    private static final int size = 450; // several pages, so a FULL record is much larger than a DELTA record of one slot
+
+    private static BenchServer server;
+
+    @BeforeAll
+    static void setup() {
+        server = BenchServer.start();
+    }
+
+    @AfterAll
+    static void tearDown() {
+        server.stop();
+    }
+
+    private static SnapshotHistory createHistory(int maxSnapshots) {
+        ConfigurationSection section = new MemoryConfiguration().createSection("history");
+        section.set("max_snapshots", maxSnapshots);
+        section.set("min_interval", 0);
+        return new SnapshotHistory(server.getPlugin(), section);
+    }
+
+    private static File getFile(UUID ownerUUID) {
+        String name = ownerUUID.toString();
+        return new File(server.getPlugin().getDataFolder(), "history/" + name.substring(0, 2) + "/" + name.substring(2, 4) + "/" + name + ".hist");
+    }
+
+    /**
+     * @return the contents of the version-th snapshot, which differ from the previous one in one slot.
+     */
+    private static ItemStack[] createContents(int version) {
+        ItemStack[] contents = ItemMix.SIMPLE.create(size);
+        for (int i = 0; i <= version; i++) {
+            contents[i % size] = new ItemStack(Material.DIAMOND, i % 64 + 1);
+        }
+        return contents;
+    }
+
+    private static void record(SnapshotHistory history, UUID ownerUUID, int version) {
+        history.record(ownerUUID, BigInvSnapshot.Reason.SAVE, new YmlInventory(createContents(version)), new YmlInventory());
+    }
+
+    private static void assertSnapshot(SnapshotHistory history, UUID ownerUUID, int index, int version) throws IOException {
+        StoredBigInv snapshot = history.get(ownerUUID, index);
+        assertNotNull(snapshot, "snapshot " + index);
+        assertArrayEquals(createContents(version), snapshot.getActive().getContentsClone(), "snapshot " + index);
+    }
+
+    @Test
+    void reconstructsSnapshots() throws IOException {
+        UUID ownerUUID = UUID.randomUUID();
+        SnapshotHistory history = createHistory(50);
+        for (int version = 0; version < 25; version++) {
+            record(history, ownerUUID, version);
+        }
+
+        // a new history reads the FULL and DELTA records from the file.
+        history = createHistory(50);
+        assertEquals(25, history.list(ownerUUID).size());
+        for (int index = 1; index <= 25; index++) {
+            assertSnapshot(history, ownerUUID, index, 25 - index);
+        }
+        assertNull(history.get(ownerUUID, 26));
+
+        // recording continues behind the restored state.
+        record(history, ownerUUID, 25);
+        assertSnapshot(history, ownerUUID, 1, 25);
+        assertSnapshot(history, ownerUUID, 2, 24);
+    }
+
+    @Test
+    void recordsOnlyChangedSlots() throws IOException {
+        UUID ownerUUID = UUID.randomUUID();
+        SnapshotHistory history = createHistory(50);
+        File file = getFile(ownerUUID);
+        record(history, ownerUUID, 0);
+        long fullLength = file.length();
+        record(history, ownerUUID, 1);
+        assertTrue(file.length() - fullLength < fullLength / 4, "a DELTA record only holds the changed slot");
+
+        // snapshots of inventories whose items were not decoded yet are recorded without decoding them.
+        Map<String, YmlInventory> sections = BinaryInventoryCodec.decodeLazily(BinaryInventoryCodec.encode(StoredBigInv.toSections(new YmlInventory(createContents(2)), new YmlInventory()), true, true));
+        YmlInventory active = sections.get(BigInvFileStore.activeInvName);
+        history.record(ownerUUID, BigInvSnapshot.Reason.SAVE, active, new YmlInventory());
+        assertNotNull(active.getEncodedSlot(0));
+        assertSnapshot(history, ownerUUID, 1, 2);
+        assertSnapshot(history, ownerUUID, 2, 1);
+    }
+
+    @Test
+    void cutsOffTornRecords() throws IOException {
+        UUID ownerUUID = UUID.randomUUID();
+        SnapshotHistory history = createHistory(50);
+        File file = getFile(ownerUUID);
+        record(history, ownerUUID, 0);
+        record(history, ownerUUID, 1);
+        long validLength = file.length();
+        record(history, ownerUUID, 2);
+
+        // a crash while appending the third record.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        history = createHistory(50);
+        assertEquals(2, history.list(ownerUUID).size());
+        assertEquals(validLength, file.length(), "the torn record got cut off");
+        assertSnapshot(history, ownerUUID, 1, 1);
+
+        record(history, ownerUUID, 3);
+        assertEquals(3, history.list(ownerUUID).size());
+        assertSnapshot(history, ownerUUID, 1, 3);
+        assertSnapshot(history, ownerUUID, 2, 1);
+        assertSnapshot(history, ownerUUID, 3, 0);
+    }
+
+    @Test
+    void prunesWholeSegments() throws IOException {
+        UUID ownerUUID = UUID.randomUUID();
+        SnapshotHistory history = createHistory(5);
+        File file = getFile(ownerUUID);
+        for (int version = 0; version < 23; version++) {
+            record(history, ownerUUID, version);
+        }
+        long prunedLength = file.length();
+
+        // the first segment got cut off, the second one is kept until its snapshots are all outdated.
+        assertEquals(5, history.list(ownerUUID).size());
+        for (int index = 1; index <= 5; index++) {
+            assertSnapshot(history, ownerUUID, index, 23 - index);
+        }
+        assertNull(history.get(ownerUUID, 6), "outdated snapshots which are still in the file are not listed");
+
+        record(history, ownerUUID, 23);
+        record(history, ownerUUID, 24);
+        assertTrue(file.length() < prunedLength, "the second segment got cut off");
+        history = createHistory(5);
+        assertEquals(5, history.list(ownerUUID).size());
+        for (int index = 1; index <= 5; index++) {
+            assertSnapshot(history, ownerUUID, index, 25 - index);
+        }
+    }
+}
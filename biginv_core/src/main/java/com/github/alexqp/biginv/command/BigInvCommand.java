@@ -68,16 +68,24 @@ public class BigInvCommand extends AlexCommand {
         String helpHeader = "List of all available commands:";
         String seeHelpLine = "Opens a player's bigger inventory.";
         String backupHelpLine = "Restores a backup into the target's inventory.";
+        String historyHelpLine = "Lists the snapshots of a player's BigInv or rolls it back to one.";
+        String findHelpLine = "Lists the players whose BigInv holds matching items.";
+        String bulkHelpLine = "Counts or removes matching items in all BigInvs.";
+        String statsHelpLine = "Shows how long loading and saving BigInvs takes.";
         section = configChecker.checkConfigSection(msgSection, "help", ConsoleErrorType.ERROR);
         if (section != null) {
             helpHeader = configChecker.checkString(section, "header", ConsoleErrorType.WARN, helpHeader);
             seeHelpLine = configChecker.checkString(section, "see", ConsoleErrorType.WARN, seeHelpLine);
             backupHelpLine = configChecker.checkString(section, "backup", ConsoleErrorType.WARN, backupHelpLine);
+            historyHelpLine = configChecker.checkString(section, "history", ConsoleErrorType.WARN, historyHelpLine);
+            findHelpLine = configChecker.checkString(section, "find", ConsoleErrorType.WARN, findHelpLine);
+            bulkHelpLine = configChecker.checkString(section, "bulk", ConsoleErrorType.WARN, bulkHelpLine);
+            statsHelpLine = configChecker.checkString(section, "stats", ConsoleErrorType.WARN, statsHelpLine);
         }
         assert helpHeader != null;
         this.addHelpCmdHeaderLine(MessageTranslator.translateBukkitColorCodes(helpHeader));
 
-        String noPlayerMsg = "&CThere is no player with this name online.";
+        String noPlayerMsg = "&CThere is no player with this name.";
         section = configChecker.checkConfigSection(msgSection, "wrongCmdUsage", ConsoleErrorType.ERROR);
         if (section != null) {
             this.setUsagePrefix(MessageTranslator.translateBukkitColorCodes(Objects.requireNonNull(configChecker.checkString(section, "prefix", ConsoleErrorType.WARN, "&CUsage:"))));
@@ -100,6 +108,68 @@ public class BigInvCommand extends AlexCommand {
             backupPartialSuccessLine = configChecker.checkString(section, "partial_success", ConsoleErrorType.WARN,  backupPartialSuccessLine);
         }
 
+        String historyNoDataLine = "&6There are no snapshots available.";
+        String historyHeaderLine = "&6Snapshots of %player% (newest first):";
+        String historyEntryLine = "&7#%index% &f%time% &7(%reason%, %items% items)";
+        String historySuccessLine = "&2Rolled back the BigInv of %player% to snapshot #%index%.";
+        section = configChecker.checkConfigSection(msgSection, "historyCmd", ConsoleErrorType.WARN);
+        if (section != null) {
+            historyNoDataLine = configChecker.checkString(section, "no_data", ConsoleErrorType.WARN, historyNoDataLine);
+            historyHeaderLine = configChecker.checkString(section, "header", ConsoleErrorType.WARN, historyHeaderLine);
+            historyEntryLine = configChecker.checkString(section, "entry", ConsoleErrorType.WARN, historyEntryLine);
+            historySuccessLine = configChecker.checkString(section, "success", ConsoleErrorType.WARN, historySuccessLine);
+        }
+
+        String findNoDataLine = "&6No BigInv holds matching items.";
+        String findHeaderLine = "&6%count% players hold items matching %query%:";
+        String findEntryLine = "&7%player%: &f%slots%";
+        String findIncompleteLine = "&6The search index is still being built, so some players may be missing.";
+        String findRebuildLine = "&6Rebuilding the search index in the background...";
+        String findDisabledLine = "&4The search index is disabled.";
+        section = configChecker.checkConfigSection(msgSection, "findCmd", ConsoleErrorType.WARN);
+        if (section != null) {
+            findNoDataLine = configChecker.checkString(section, "no_data", ConsoleErrorType.WARN, findNoDataLine);
+            findHeaderLine = configChecker.checkString(section, "header", ConsoleErrorType.WARN, findHeaderLine);
+            findEntryLine = configChecker.checkString(section, "entry", ConsoleErrorType.WARN, findEntryLine);
+            findIncompleteLine = configChecker.checkString(section, "incomplete", ConsoleErrorType.WARN, findIncompleteLine);
+            findRebuildLine = configChecker.checkString(section, "rebuild", ConsoleErrorType.WARN, findRebuildLine);
+            findDisabledLine = configChecker.checkString(section, "disabled", ConsoleErrorType.WARN, findDisabledLine);
+        }
+
+        String bulkNoDataLine = "&6There is no running bulk operation.";
+        String bulkStartedLine = "&6Started to %type% items matching %query%. Use /biginv bulk status to see the progress.";
+        String bulkProgressLine = "&6%type% %query%: %processed%/%total% BigInvs processed, %changed% changed, %failed% failed, %amount% matching items in %owners% BigInvs so far (%seconds%s).";
+        String bulkFinishedLine = "&2Finished to %type% items matching %query%: %amount% matching items in %owners% BigInvs, %changed% BigInvs changed, %failed% failed (%seconds%s).";
+        String bulkRunningLine = "&4Another bulk operation is still running. Use /biginv bulk cancel to stop it.";
+        String bulkNeedsAsyncSavingLine = "&4Removing items in bulk needs async_saving to be enabled.";
+        String bulkCancelledLine = "&6The bulk operation got cancelled.";
+        section = configChecker.checkConfigSection(msgSection, "bulkCmd", ConsoleErrorType.WARN);
+        if (section != null) {
+            bulkNoDataLine = configChecker.checkString(section, "no_data", ConsoleErrorType.WARN, bulkNoDataLine);
+            bulkStartedLine = configChecker.checkString(section, "started", ConsoleErrorType.WARN, bulkStartedLine);
+            bulkProgressLine = configChecker.checkString(section, "progress", ConsoleErrorType.WARN, bulkProgressLine);
+            bulkFinishedLine = configChecker.checkString(section, "finished", ConsoleErrorType.WARN, bulkFinishedLine);
+            bulkRunningLine = configChecker.checkString(section, "running", ConsoleErrorType.WARN, bulkRunningLine);
+            bulkNeedsAsyncSavingLine = configChecker.checkString(section, "needs_async_saving", ConsoleErrorType.WARN, bulkNeedsAsyncSavingLine);
+            bulkCancelledLine = configChecker.checkString(section, "cancelled", ConsoleErrorType.WARN, bulkCancelledLine);
+        }
+
+        String statsNoDataLine = "&6Nothing was recorded yet.";
+        String statsHeaderLine = "&6BigInv stats of the last %seconds%s:";
+        String statsEntryLine = "&7%operation%: &f%count%x&7, mean &f%mean%&7, p50 &f%p50%&7, p95 &f%p95%&7, p99 &f%p99%&7, max &f%max%%bytes%";
+        String statsBytesLine = "&7, &f%total% &7total, p95 &f%size%";
+        String statsFooterLine = "&7Skipped saves: &f%skipped%&7, I/O queue: &f%queue% &7(max &f%max_queue%&7)";
+        String statsResetLine = "&6The stats got reset.";
+        section = configChecker.checkConfigSection(msgSection, "statsCmd", ConsoleErrorType.WARN);
+        if (section != null) {
+            statsNoDataLine = configChecker.checkString(section, "no_data", ConsoleErrorType.WARN, statsNoDataLine);
+            statsHeaderLine = configChecker.checkString(section, "header", ConsoleErrorType.WARN, statsHeaderLine);
+            statsEntryLine = configChecker.checkString(section, "entry", ConsoleErrorType.WARN, statsEntryLine);
+            statsBytesLine = configChecker.checkString(section, "bytes", ConsoleErrorType.WARN, statsBytesLine);
+            statsFooterLine = configChecker.checkString(section, "footer", ConsoleErrorType.WARN, statsFooterLine);
+            statsResetLine = configChecker.checkString(section, "reset", ConsoleErrorType.WARN, statsResetLine);
+        }
+
         assert noPlayerMsg != null;
         TextComponent noPlayerError = new TextComponent(MessageTranslator.translateBukkitColorCodes(noPlayerMsg));
 
@@ -119,6 +189,47 @@ public class BigInvCommand extends AlexCommand {
                 new TextComponent(MessageTranslator.translateBukkitColorCodes(backupPartialSuccessLine)),
                 new TextComponent(MessageTranslator.translateBukkitColorCodes(backupSuccessLine))));
 
+        assert historyHelpLine != null;
+        assert historyNoDataLine != null;
+        assert historyHeaderLine != null;
+        assert historyEntryLine != null;
+        assert historySuccessLine != null;
+        subCmds.add(new SubCmdHistory(new TextComponent(MessageTranslator.translateBukkitColorCodes(historyHelpLine)), this, container, noPlayerError,
+                new TextComponent(MessageTranslator.translateBukkitColorCodes(historyNoDataLine)), historyHeaderLine, historyEntryLine, historySuccessLine));
+
+        assert findHelpLine != null;
+        assert findNoDataLine != null;
+        assert findHeaderLine != null;
+        assert findEntryLine != null;
+        assert findIncompleteLine != null;
+        assert findRebuildLine != null;
+        assert findDisabledLine != null;
+        subCmds.add(new SubCmdFind(new TextComponent(MessageTranslator.translateBukkitColorCodes(findHelpLine)), this, container, noPlayerError,
+                new TextComponent(MessageTranslator.translateBukkitColorCodes(findNoDataLine)), findHeaderLine, findEntryLine, findIncompleteLine, findRebuildLine, findDisabledLine));
+
+        assert bulkHelpLine != null;
+        assert bulkNoDataLine != null;
+        assert bulkStartedLine != null;
+        assert bulkProgressLine != null;
+        assert bulkFinishedLine != null;
+        assert bulkRunningLine != null;
+        assert bulkNeedsAsyncSavingLine != null;
+        assert bulkCancelledLine != null;
+        subCmds.add(new SubCmdBulk(new TextComponent(MessageTranslator.translateBukkitColorCodes(bulkHelpLine)), this, container, noPlayerError,
+                new TextComponent(MessageTranslator.translateBukkitColorCodes(bulkNoDataLine)), bulkStartedLine, bulkProgressLine, bulkFinishedLine,
+                bulkRunningLine, bulkNeedsAsyncSavingLine, bulkCancelledLine));
+
+        assert statsHelpLine != null;
+        assert statsNoDataLine != null;
+        assert statsHeaderLine != null;
+        assert statsEntryLine != null;
+        assert statsBytesLine != null;
+        assert statsFooterLine != null;
+        assert statsResetLine != null;
+        subCmds.add(new SubCmdStats(new TextComponent(MessageTranslator.translateBukkitColorCodes(statsHelpLine)), this, container, noPlayerError,
+                new TextComponent(MessageTranslator.translateBukkitColorCodes(statsNoDataLine)), statsHeaderLine, statsEntryLine, statsBytesLine,
+                statsFooterLine, statsResetLine));
+
         this.addSubCmds(subCmds);
         this.register();
     }
@@ -22,8 +22,12 @@ import com.github.alexqp.biginv.data.BigInvContainer;
 import com.github.alexqp.commons.command.AlexSubCommand;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public abstract class BigInvContainerSubCmd extends AlexSubCommand {
 
@@ -44,6 +48,20 @@ public abstract class BigInvContainerSubCmd extends AlexSubCommand {
         return this.container;
     }
 
+    /**
+     * @param name the name of the player
+     * @return the online player with this name or the offline player if they played on this server before, null otherwise.
+     */
+    @SuppressWarnings("deprecation") // only players who played before are accepted, so the name is known to the server.
+    protected @Nullable OfflinePlayer getOwner(@NotNull String name) {
+        Player onlinePlayer = Bukkit.getPlayer(name);
+        if (onlinePlayer != null)
+            return onlinePlayer;
+
+        OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(name);
+        return offlinePlayer.hasPlayedBefore() ? offlinePlayer : null;
+    }
+
     public void sendNoPlayerError(@NotNull CommandSender sender) {
         sender.spigot().sendMessage(noPlayerError);
     }
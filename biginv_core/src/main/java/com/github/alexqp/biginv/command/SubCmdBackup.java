@@ -27,6 +27,7 @@ import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
 import net.md_5.bungee.api.chat.TextComponent;
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.ConsoleCommandSender;
 import org.bukkit.entity.Player;
@@ -66,7 +67,7 @@ public class SubCmdBackup extends BigInvContainerSubCmd {
 
     @Override
     protected boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
-        Player owner;
+        OfflinePlayer owner;
         Player target;
 
         if (args.length < startIndex + 2 && (sender instanceof ConsoleCommandSender)) {
@@ -79,7 +80,7 @@ public class SubCmdBackup extends BigInvContainerSubCmd {
 
         if (args.length >= startIndex + 1) {
 
-            owner = Bukkit.getPlayer(args[startIndex]);
+            owner = this.getOwner(args[startIndex]);
 
             if (args.length >= startIndex + 2) {
                 target = Bukkit.getPlayer(args[startIndex + 1]);
@@ -96,19 +97,21 @@ public class SubCmdBackup extends BigInvContainerSubCmd {
             target = (Player) sender;
         }
 
-        BigInvHandler.BigInvHandlerReturnType handlerReturnType = this.getContainer().restoreBackup(owner, target);
-
-        if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_PERMISSION)) {
-            sendMessage(sender, Objects.requireNonNull(this.getNoPermissionLine()));
-        } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.PARTIAL_SUCCESS)) {
-            sendMessage(sender, partialSuccess);
-        } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.SUCCESS)) {
-            sendMessage(sender, success);
-        } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_DATA)) {
-            this.sendNoDataError(sender);
-        } else {
-            sendMessage(sender, new ComponentBuilder("INTERNAL ERROR. Please contact server administration with error: no BigInvHandlerReturnType available").color(ChatColor.DARK_RED).create());
-        }
+        this.getContainer().restoreBackup(owner, target, handlerReturnType -> {
+            if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_PERMISSION)) {
+                sendMessage(sender, Objects.requireNonNull(this.getNoPermissionLine()));
+            } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.PARTIAL_SUCCESS)) {
+                sendMessage(sender, partialSuccess);
+            } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.SUCCESS)) {
+                sendMessage(sender, success);
+            } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_DATA)) {
+                this.sendNoDataError(sender);
+            } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_HOLDER)) {
+                this.sendNoPlayerError(sender); // the target left while the BigInv was read.
+            } else {
+                sendMessage(sender, new ComponentBuilder("INTERNAL ERROR. Please contact server administration with error: no BigInvHandlerReturnType available").color(ChatColor.DARK_RED).create());
+            }
+        });
         return true;
     }
 
@@ -116,9 +119,7 @@ public class SubCmdBackup extends BigInvContainerSubCmd {
     protected @NotNull List<String> additionalTabCompleterOptions(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
         List<String> completions = new ArrayList<>();
         if (sender.hasPermission(BigInvHolder.getBackupPermissions().get(1))) {
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                completions.add(p.getName());
-            }
+            completions.addAll(this.getContainer().getBackupOwnerNames());
         }
         return completions;
     }
@@ -128,10 +129,15 @@ public class SubCmdBackup extends BigInvContainerSubCmd {
         List<String> completions = new ArrayList<>();
         if (args.length > startIndex && sender.hasPermission(BigInvHolder.getBackupPermissions().get(1))) {
             List<String> pNames = new ArrayList<>();
-            for (Player p : Bukkit.getOnlinePlayers()) {
-                pNames.add(p.getName());
+            if (args.length == startIndex + 1) {
+                // only owners who have a backup.
+                pNames.addAll(this.getContainer().getBackupOwnerNames());
+            } else if (args.length == startIndex + 2) {
+                for (Player p : Bukkit.getOnlinePlayers()) {
+                    pNames.add(p.getName());
+                }
             }
-            StringUtil.copyPartialMatches(args[startIndex], pNames, completions);
+            StringUtil.copyPartialMatches(args[args.length - 1], pNames, completions);
             Collections.sort(completions);
         }
         return completions;
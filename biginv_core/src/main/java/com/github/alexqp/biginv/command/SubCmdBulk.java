@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.command;
+
+import com.github.alexqp.biginv.data.BigInvContainer;
+import com.github.alexqp.biginv.data.BulkOperation;
+import com.github.alexqp.commons.command.AlexSubCommand;
+import com.github.alexqp.commons.messages.MessageTranslator;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class SubCmdBulk extends BigInvContainerSubCmd {
+
+    static final String permission = "biginv.bulk";
+    private static final String[] actions = {"count", "remove", "status", "cancel"};
+
+    private final String started;
+    private final String progress;
+    private final String finished;
+    private final String running;
+    private final String needsAsyncSaving;
+    private final String cancelled;
+
+    SubCmdBulk(@NotNull TextComponent helpLine, @NotNull AlexSubCommand parent, @NotNull BigInvContainer container, @NotNull TextComponent noPlayerError,
+               @NotNull TextComponent noDataError, @NotNull String started, @NotNull String progress, @NotNull String finished, @NotNull String running,
+               @NotNull String needsAsyncSaving, @NotNull String cancelled) {
+        super("bulk", helpLine, parent, container, noPlayerError, noDataError);
+        this.setPermission(permission);
+        this.setIsConsoleCmd(true);
+
+        this.started = started;
+        this.progress = progress;
+        this.finished = finished;
+        this.running = running;
+        this.needsAsyncSaving = needsAsyncSaving;
+        this.cancelled = cancelled;
+
+        this.setCmdParamLine(new TextComponent("<" + String.join(" | ", actions) + "> [query]"));
+
+        this.makeFinal();
+    }
+
+    private static TextComponent translate(String msg, BulkOperation operation) {
+        return new TextComponent(MessageTranslator.translateBukkitColorCodes(msg.replace("%type%", operation.getType().name().toLowerCase(Locale.ROOT))
+                .replace("%query%", operation.getQuery())
+                .replace("%processed%", String.valueOf(operation.getProcessed()))
+                .replace("%total%", operation.getTotal() < 0 ? "?" : String.valueOf(operation.getTotal()))
+                .replace("%changed%", String.valueOf(operation.getChanged()))
+                .replace("%failed%", String.valueOf(operation.getFailed()))
+                .replace("%owners%", String.valueOf(operation.getMatchedOwners()))
+                .replace("%amount%", String.valueOf(operation.getMatchedAmount()))
+                .replace("%seconds%", String.valueOf(operation.getElapsedMillis() / 1000))));
+    }
+
+    @Override
+    protected boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        if (args.length < startIndex + 1)
+            return false;
+
+        String action = args[startIndex].toLowerCase(Locale.ROOT);
+        BulkOperation current = this.getContainer().getBulkOperation();
+        if (action.equals(actions[2]) || action.equals(actions[3])) {
+            if (args.length > startIndex + 1)
+                return false;
+
+            if (action.equals(actions[2])) {
+                if (current == null) {
+                    this.sendNoDataError(sender);
+                } else {
+                    sendMessage(sender, this.getPrefixMessage(translate(current.isDone() ? finished : progress, current)));
+                }
+            } else if (this.getContainer().cancelBulkOperation()) {
+                sendMessage(sender, this.getPrefixMessage(translate(cancelled, current)));
+            } else {
+                this.sendNoDataError(sender);
+            }
+            return true;
+        }
+
+        BulkOperation.Type type;
+        if (action.equals(actions[0])) {
+            type = BulkOperation.Type.COUNT;
+        } else if (action.equals(actions[1])) {
+            type = BulkOperation.Type.REMOVE;
+        } else {
+            return false;
+        }
+        if (args.length < startIndex + 2)
+            return false;
+
+        BulkOperation operation = new BulkOperation(type, String.join(" ", Arrays.copyOfRange(args, startIndex + 1, args.length)));
+        boolean isStarted = this.getContainer().startBulkOperation(operation, () -> {
+            if (!(sender instanceof Player) || ((Player) sender).isOnline())
+                sendMessage(sender, this.getPrefixMessage(translate(finished, operation)));
+        });
+        if (isStarted) {
+            sendMessage(sender, this.getPrefixMessage(translate(started, operation)));
+        } else {
+            sendMessage(sender, this.getPrefixMessage(translate(current != null && !current.isDone() ? running : needsAsyncSaving, operation)));
+        }
+        return true;
+    }
+
+    @Override
+    protected @NotNull List<String> getTabCompletion(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        List<String> completions = new ArrayList<>();
+        if (args.length == startIndex + 1) {
+            StringUtil.copyPartialMatches(args[startIndex], Arrays.asList(actions), completions);
+        } else if (args.length == startIndex + 2 && (args[startIndex].equalsIgnoreCase(actions[0]) || args[startIndex].equalsIgnoreCase(actions[1]))) {
+            StringUtil.copyPartialMatches(args[startIndex + 1], Arrays.asList("material:", "name:", "lore:", "pdc:"), completions);
+        }
+        return completions;
+    }
+}
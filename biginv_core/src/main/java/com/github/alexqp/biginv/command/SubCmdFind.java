@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.command;
+
+import com.github.alexqp.biginv.data.BigInvContainer;
+import com.github.alexqp.biginv.data.BigInvSearchResult;
+import com.github.alexqp.commons.command.AlexSubCommand;
+import com.github.alexqp.commons.messages.MessageTranslator;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+public class SubCmdFind extends BigInvContainerSubCmd {
+
+    static final String permission = "biginv.find";
+    private static final String rebuildArg = "rebuild";
+    private static final List<String> queryPrefixes = Arrays.asList(rebuildArg, "material:", "name:", "lore:", "pdc:");
+
+    private final String header;
+    private final String entry;
+    private final String incomplete;
+    private final String rebuild;
+    private final String disabled;
+
+    SubCmdFind(@NotNull TextComponent helpLine, @NotNull AlexSubCommand parent, @NotNull BigInvContainer container, @NotNull TextComponent noPlayerError,
+               @NotNull TextComponent noDataError, @NotNull String header, @NotNull String entry, @NotNull String incomplete, @NotNull String rebuild, @NotNull String disabled) {
+        super("find", helpLine, parent, container, noPlayerError, noDataError);
+        this.setPermission(permission);
+        this.setIsConsoleCmd(true);
+
+        this.header = header;
+        this.entry = entry;
+        this.incomplete = incomplete;
+        this.rebuild = rebuild;
+        this.disabled = disabled;
+
+        this.setCmdParamLine(new TextComponent("<query | " + rebuildArg + ">"));
+
+        this.makeFinal();
+    }
+
+    private static TextComponent translate(String msg) {
+        return new TextComponent(MessageTranslator.translateBukkitColorCodes(msg));
+    }
+
+    /**
+     * @return the slots as shown to players, slots of the backup start with a b.
+     */
+    private static String formatSlots(List<Integer> slots) {
+        StringJoiner joiner = new StringJoiner(", ");
+        for (int slot : slots) {
+            if (slot >= 0)
+                joiner.add(String.valueOf(slot));
+        }
+        for (int slot : slots) {
+            if (slot < 0)
+                joiner.add("b" + (-slot - 1));
+        }
+        return joiner.toString();
+    }
+
+    @Override
+    protected boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        if (args.length < startIndex + 1)
+            return false;
+
+        if (args.length == startIndex + 1 && args[startIndex].equalsIgnoreCase(rebuildArg)) {
+            if (this.getContainer().rebuildSearchIndex()) {
+                sendMessage(sender, this.getPrefixMessage(translate(rebuild)));
+            } else {
+                sendMessage(sender, this.getPrefixMessage(translate(this.getContainer().isSearchIndexEnabled() ? incomplete : disabled)));
+            }
+            return true;
+        }
+
+        String query = String.join(" ", Arrays.copyOfRange(args, startIndex, args.length));
+        BigInvSearchResult result = this.getContainer().findItems(query);
+        if (result == null) {
+            sendMessage(sender, this.getPrefixMessage(translate(disabled)));
+            return true;
+        }
+
+        if (result.getOwnerCount() == 0) {
+            this.sendNoDataError(sender);
+        } else {
+            sendMessage(sender, this.getPrefixMessage(translate(header.replace("%count%", String.valueOf(result.getOwnerCount())).replace("%query%", query))));
+            for (Map.Entry<UUID, List<Integer>> ownerSlots : result.getSlots().entrySet()) {
+                String name = Bukkit.getOfflinePlayer(ownerSlots.getKey()).getName();
+                sendMessage(sender, translate(entry.replace("%player%", name != null ? name : ownerSlots.getKey().toString())
+                        .replace("%slots%", formatSlots(ownerSlots.getValue()))));
+            }
+        }
+        if (!result.isComplete())
+            sendMessage(sender, translate(incomplete));
+        return true;
+    }
+
+    @Override
+    protected @NotNull List<String> getTabCompletion(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        List<String> completions = new ArrayList<>();
+        if (args.length == startIndex + 1)
+            StringUtil.copyPartialMatches(args[startIndex], queryPrefixes, completions);
+        return completions;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.command;
+
+import com.github.alexqp.biginv.data.BigInvContainer;
+import com.github.alexqp.biginv.data.BigInvSnapshot;
+import com.github.alexqp.biginv.listeners.BigInvHandler;
+import com.github.alexqp.commons.command.AlexSubCommand;
+import com.github.alexqp.commons.messages.MessageTranslator;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+public class SubCmdHistory extends BigInvContainerSubCmd {
+
+    static final String permission = "biginv.history";
+
+    private final String header;
+    private final String entry;
+    private final String success;
+
+    SubCmdHistory(@NotNull TextComponent helpLine, @NotNull AlexSubCommand parent, @NotNull BigInvContainer container, @NotNull TextComponent noPlayerError,
+                  @NotNull TextComponent noDataError, @NotNull String header, @NotNull String entry, @NotNull String success) {
+        super("history", helpLine, parent, container, noPlayerError, noDataError);
+        this.setPermission(permission);
+
+        this.header = header;
+        this.entry = entry;
+        this.success = success;
+
+        this.setCmdParamLine(new TextComponent("<player> [snapshot]"));
+
+        this.makeFinal();
+    }
+
+    private TextComponent translate(String msg, OfflinePlayer owner) {
+        return new TextComponent(MessageTranslator.translateBukkitColorCodes(msg.replace("%player%", String.valueOf(owner.getName()))));
+    }
+
+    @Override
+    protected boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        if (args.length < startIndex + 1 || args.length > startIndex + 2)
+            return false;
+
+        OfflinePlayer owner = this.getOwner(args[startIndex]);
+        if (owner == null) {
+            this.sendNoPlayerError(sender);
+            return true;
+        }
+
+        if (args.length == startIndex + 1) {
+            this.getContainer().getSnapshots(owner, snapshots -> this.sendSnapshots(sender, owner, snapshots));
+            return true;
+        }
+
+        int index;
+        try {
+            index = Integer.parseInt(args[startIndex + 1]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        this.getContainer().rollback(owner, index, handlerReturnType -> {
+            if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.SUCCESS)) {
+                sendMessage(sender, this.getPrefixMessage(this.translate(success.replace("%index%", String.valueOf(index)), owner)));
+            } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_DATA)) {
+                this.sendNoDataError(sender);
+            } else {
+                sendMessage(sender, new ComponentBuilder("INTERNAL ERROR. Please contact server administration with error: no BigInvHandlerReturnType available").color(ChatColor.DARK_RED).create());
+            }
+        });
+        return true;
+    }
+
+    private void sendSnapshots(CommandSender sender, OfflinePlayer owner, List<BigInvSnapshot> snapshots) {
+        if (snapshots == null || snapshots.isEmpty()) {
+            this.sendNoDataError(sender);
+            return;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        sendMessage(sender, this.getPrefixMessage(this.translate(header, owner)));
+        for (BigInvSnapshot snapshot : snapshots) {
+            sendMessage(sender, this.translate(entry.replace("%index%", String.valueOf(snapshot.getIndex()))
+                    .replace("%time%", dateFormat.format(new Date(snapshot.getTime())))
+                    .replace("%reason%", snapshot.getReason().name().toLowerCase(Locale.ROOT))
+                    .replace("%items%", String.valueOf(snapshot.getItemCount())), owner));
+        }
+    }
+
+    @Override
+    protected @NotNull List<String> getTabCompletion(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        List<String> completions = new ArrayList<>();
+        if (args.length == startIndex + 1) {
+            List<String> pNames = new ArrayList<>();
+            for (Player p : Bukkit.getOnlinePlayers()) {
+                pNames.add(p.getName());
+            }
+            StringUtil.copyPartialMatches(args[startIndex], pNames, completions);
+            Collections.sort(completions);
+        }
+        return completions;
+    }
+}
@@ -24,6 +24,7 @@ import com.github.alexqp.biginv.listeners.BigInvHandler;
 import com.github.alexqp.commons.command.AlexSubCommand;
 import net.md_5.bungee.api.chat.TextComponent;
 import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
@@ -48,13 +49,13 @@ public class SubCmdSee extends BigInvContainerSubCmd {
     protected boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
         assert (sender instanceof Player); // is no console cmd
 
-        Player owner;
+        OfflinePlayer owner;
 
         if (args.length > startIndex + 2)
             return false;
 
         if (args.length == startIndex + 1) {
-            owner = Bukkit.getPlayer(args[startIndex]);
+            owner = this.getOwner(args[startIndex]);
             if (owner == null) {
                 sendNoPlayerError(sender);
                 return true;
@@ -63,13 +64,13 @@ public class SubCmdSee extends BigInvContainerSubCmd {
             owner = (Player) sender;
         }
 
-        BigInvHandler.BigInvHandlerReturnType handlerReturnType = this.getContainer().openInventory(owner, (Player) sender);
-
-        if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_PERMISSION)) {
-            sender.spigot().sendMessage(Objects.requireNonNull(this.getNoPermissionLine()));
-        } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_DATA)) {
-            this.sendNoDataError(sender);
-        }
+        this.getContainer().openInventory(owner, (Player) sender, handlerReturnType -> {
+            if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_PERMISSION)) {
+                sender.spigot().sendMessage(Objects.requireNonNull(this.getNoPermissionLine()));
+            } else if (handlerReturnType.equals(BigInvHandler.BigInvHandlerReturnType.NO_DATA)) {
+                this.sendNoDataError(sender);
+            }
+        });
         return true;
     }
 
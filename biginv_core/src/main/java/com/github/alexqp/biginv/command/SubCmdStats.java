@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.command;
+
+import com.github.alexqp.biginv.data.BigInvContainer;
+import com.github.alexqp.biginv.data.BigInvStats;
+import com.github.alexqp.commons.command.AlexSubCommand;
+import com.github.alexqp.commons.messages.MessageTranslator;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SubCmdStats extends BigInvContainerSubCmd {
+
+    static final String permission = "biginv.stats";
+    private static final String resetArg = "reset";
+
+    private final String header;
+    private final String entry;
+    private final String bytes;
+    private final String footer;
+    private final String reset;
+
+    SubCmdStats(@NotNull TextComponent helpLine, @NotNull AlexSubCommand parent, @NotNull BigInvContainer container, @NotNull TextComponent noPlayerError,
+                @NotNull TextComponent noDataError, @NotNull String header, @NotNull String entry, @NotNull String bytes, @NotNull String footer, @NotNull String reset) {
+        super("stats", helpLine, parent, container, noPlayerError, noDataError);
+        this.setPermission(permission);
+        this.setIsConsoleCmd(true);
+
+        this.header = header;
+        this.entry = entry;
+        this.bytes = bytes;
+        this.footer = footer;
+        this.reset = reset;
+
+        this.setCmdParamLine(new TextComponent("[" + resetArg + "]"));
+
+        this.makeFinal();
+    }
+
+    private static TextComponent translate(String msg) {
+        return new TextComponent(MessageTranslator.translateBukkitColorCodes(msg));
+    }
+
+    @Override
+    protected boolean execute(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        BigInvStats stats = this.getContainer().getStats();
+        if (args.length == startIndex + 1 && args[startIndex].equalsIgnoreCase(resetArg)) {
+            stats.reset();
+            sendMessage(sender, this.getPrefixMessage(translate(reset)));
+            return true;
+        }
+        if (args.length != startIndex)
+            return false;
+
+        BigInvStats.Summary summary = stats.getSummary();
+        List<TextComponent> lines = new ArrayList<>();
+        for (BigInvStats.Operation operation : BigInvStats.Operation.values()) {
+            if (summary.getCount(operation) == 0)
+                continue;
+            String bytesLine = operation.hasBytes() ? bytes.replace("%total%", BigInvStats.formatBytes(summary.getBytes(operation)))
+                    .replace("%size%", BigInvStats.formatBytes(summary.getPercentileBytes(operation, 95))) : "";
+            lines.add(translate(entry.replace("%operation%", operation.getName())
+                    .replace("%count%", String.valueOf(summary.getCount(operation)))
+                    .replace("%mean%", BigInvStats.formatMillis(summary.getMeanMillis(operation)))
+                    .replace("%p50%", BigInvStats.formatMillis(summary.getPercentileMillis(operation, 50)))
+                    .replace("%p95%", BigInvStats.formatMillis(summary.getPercentileMillis(operation, 95)))
+                    .replace("%p99%", BigInvStats.formatMillis(summary.getPercentileMillis(operation, 99)))
+                    .replace("%max%", BigInvStats.formatMillis(summary.getMaxMillis(operation)))
+                    .replace("%bytes%", bytesLine)));
+        }
+        if (lines.isEmpty() && summary.getSkippedSaves() == 0) {
+            this.sendNoDataError(sender);
+            return true;
+        }
+
+        sendMessage(sender, this.getPrefixMessage(translate(header.replace("%seconds%", String.valueOf(summary.getSeconds())))));
+        for (TextComponent line : lines) {
+            sendMessage(sender, line);
+        }
+        sendMessage(sender, translate(footer.replace("%skipped%", String.valueOf(summary.getSkippedSaves()))
+                .replace("%queue%", String.valueOf(summary.getQueueDepth()))
+                .replace("%max_queue%", String.valueOf(summary.getMaxQueueDepth()))));
+        return true;
+    }
+
+    @Override
+    protected @NotNull List<String> getTabCompletion(@NotNull CommandSender sender, @NotNull String label, @NotNull List<AlexSubCommand> previousCmds, @NotNull List<String> previousExtraArguments, @NotNull String[] args, int startIndex) {
+        List<String> completions = new ArrayList<>();
+        if (args.length == startIndex + 1)
+            StringUtil.copyPartialMatches(args[startIndex], Collections.singletonList(resetArg), completions);
+        return completions;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs file operations of the BigInvContainer on dedicated I/O threads.
+ * Tasks of the same owner are executed in submission order, so a newer save can never be overwritten by an older one.
+ */
+class AsyncSaveExecutor {
+
+    private final JavaPlugin plugin;
+    private final BigInvStats stats;
+    private final ExecutorService executor;
+    private final Map<UUID, CompletableFuture<Void>> pendingTasks = new ConcurrentHashMap<>();
+
+    AsyncSaveExecutor(@NotNull JavaPlugin plugin, int threads, @NotNull BigInvStats stats) {
+        this.plugin = plugin;
+        this.stats = stats;
+        AtomicInteger threadCount = new AtomicInteger();
+        // daemon threads, so an executor which never gets shut down (e.g. if enabling failed) does not keep the server alive.
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, plugin.getName() + "-IO-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a task for the given owner. It will run after all previously submitted tasks of this owner finished.
+     * @param ownerUUID the owner the task belongs to
+     * @param task the task (exceptions are logged and do not break the chain)
+     * @return a future which completes after the task ran
+     */
+    CompletableFuture<Void> submit(@NotNull UUID ownerUUID, @NotNull Runnable task) {
+        return this.submit(ownerUUID, task, executor);
+    }
+
+    /**
+     * Queues a task for the given owner like {@link #submit(UUID, Runnable)}, but runs it on another executor
+     * (e.g. for long running work which should not delay the saves of other owners).
+     * @param ownerUUID the owner the task belongs to
+     * @param task the task (exceptions are logged and do not break the chain)
+     * @param taskExecutor the executor to run the task on
+     * @return a future which completes after the task ran
+     */
+    CompletableFuture<Void> submit(@NotNull UUID ownerUUID, @NotNull Runnable task, @NotNull Executor taskExecutor) {
+        long queued = System.nanoTime();
+        stats.recordQueued();
+        CompletableFuture<Void> future = pendingTasks.compute(ownerUUID, (uuid, previous) -> {
+            // a task which could not even be started (e.g. rejected by its executor) must not stop the following ones.
+            CompletableFuture<Void> start = previous == null ? CompletableFuture.completedFuture(null) : previous.exceptionally(throwable -> null);
+            return start.thenRunAsync(() -> this.runSafely(uuid.toString(), task, queued), taskExecutor);
+        });
+        future.whenComplete((result, throwable) -> {
+            pendingTasks.remove(ownerUUID, future);
+            stats.recordDequeued();
+        });
+        return future;
+    }
+
+    /**
+     * Queues one task for several owners (e.g. a batched write). It will run after all previously submitted tasks of these owners finished,
+     * and all tasks submitted for any of them afterwards wait for it.
+     * @param ownerUUIDs the owners the task belongs to
+     * @param task the task (exceptions are logged and do not break the chains)
+     * @return a future which completes after the task ran
+     */
+    CompletableFuture<Void> submitAll(@NotNull Collection<UUID> ownerUUIDs, @NotNull Runnable task) {
+        long queued = System.nanoTime();
+        stats.recordQueued();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        List<CompletableFuture<Void>> previousTasks = new ArrayList<>();
+        for (UUID ownerUUID : ownerUUIDs) {
+            pendingTasks.compute(ownerUUID, (uuid, previous) -> {
+                if (previous != null)
+                    previousTasks.add(previous.exceptionally(throwable -> null));
+                return future;
+            });
+        }
+
+        CompletableFuture.allOf(previousTasks.toArray(new CompletableFuture<?>[0]))
+                .thenRunAsync(() -> this.runSafely(ownerUUIDs.size() + " players", task, queued), executor)
+                .whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        future.complete(null);
+                    }
+                });
+        future.whenComplete((result, throwable) -> {
+            for (UUID ownerUUID : ownerUUIDs) {
+                pendingTasks.remove(ownerUUID, future);
+            }
+            stats.recordDequeued();
+        });
+        return future;
+    }
+
+    private void runSafely(String owners, Runnable task, long queued) {
+        stats.record(BigInvStats.Operation.QUEUE_WAIT, System.nanoTime() - queued, -1);
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Asynchronous file operation for " + owners + " failed. Printing stackTrace...");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Blocks until all tasks which were submitted for the given owner are done.
+     * Must be called before the owner's file is read or written from outside this executor.
+     * A failed or rejected task (e.g. after the shutdown began) gets logged and does not stop the caller.
+     * @param ownerUUID the owner
+     */
+    void awaitPending(@NotNull UUID ownerUUID) {
+        CompletableFuture<Void> future = pendingTasks.get(ownerUUID);
+        if (future != null) {
+            ConsoleMessage.debug(this.getClass(), plugin, "Waiting for pending file operations of " + ownerUUID);
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Pending file operation for " + ownerUUID + " could not be run: " + (e.getCause() != null ? e.getCause() : e));
+            }
+        }
+    }
+
+    /**
+     * @param ownerUUID the owner
+     * @return true if there are tasks of the owner which did not finish yet.
+     */
+    boolean hasPending(@NotNull UUID ownerUUID) {
+        return pendingTasks.containsKey(ownerUUID);
+    }
+
+    int getPendingOwners() {
+        return pendingTasks.size();
+    }
+
+    /**
+     * Waits for all queued tasks and stops the executor afterwards.
+     * Chained tasks only get handed to the executor after their predecessor finished, so it must not be shut down before the chains are empty.
+     * @param timeoutMillis the maximum time to wait
+     * @return true if all tasks finished in time, false otherwise
+     */
+    boolean shutdown(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (!pendingTasks.isEmpty()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                CompletableFuture<?>[] pending = pendingTasks.values().toArray(new CompletableFuture<?>[0]);
+                try {
+                    CompletableFuture.allOf(pending).get(remaining, TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    // failed tasks got logged, the following ones of the chains still run.
+                } catch (TimeoutException e) {
+                    return false;
+                }
+            }
+            executor.shutdown();
+            return executor.awaitTermination(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
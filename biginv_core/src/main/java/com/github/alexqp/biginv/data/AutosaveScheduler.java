@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Regularly saves changed BigInvs without saving all of them in the same tick.
+ * Every tick only as many holders get saved as fit into the configured time budget,
+ * the ones which were not saved for the longest time first.
+ */
+class AutosaveScheduler extends BukkitRunnable {
+
+    private static final String[] configNames = {"enable", "interval", "tick_budget"};
+    private static final int scanPeriodTicks = 20;
+
+    private final JavaPlugin plugin;
+    private final Supplier<Iterable<BigInvHolder>> holders;
+    private final Consumer<BigInvHolder> save;
+    private final Runnable flush;
+    private final boolean enabled;
+    private final long intervalMillis;
+    private final long tickBudgetNanos;
+
+    private final PriorityQueue<BigInvHolder> queue = new PriorityQueue<>(Comparator.comparingLong(BigInvHolder::getLastSave));
+    private int ticksUntilScan = 0;
+
+    /**
+     * @param plugin the plugin
+     * @param section the config section of the autosave options (may be null for defaults)
+     * @param holders all holders which may be saved
+     * @param save saves the given holder
+     * @param flush called after the saves of a tick (e.g. to write them in one batch)
+     */
+    AutosaveScheduler(@NotNull JavaPlugin plugin, @Nullable ConfigurationSection section, @NotNull Supplier<Iterable<BigInvHolder>> holders,
+                      @NotNull Consumer<BigInvHolder> save, @NotNull Runnable flush) {
+        this.plugin = plugin;
+        this.holders = holders;
+        this.save = save;
+        this.flush = flush;
+
+        boolean enabled = true;
+        int intervalSeconds = 300;
+        double tickBudget = 2;
+        if (section != null) {
+            enabled = section.getBoolean(configNames[0], enabled);
+            intervalSeconds = section.getInt(configNames[1], intervalSeconds);
+            tickBudget = section.getDouble(configNames[2], tickBudget);
+        }
+        if (intervalSeconds < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "autosave " + configNames[1] + " must be at least 1. Using 300 instead.");
+            intervalSeconds = 300;
+        }
+        if (tickBudget <= 0) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "autosave " + configNames[2] + " must be positive. Using 2 instead.");
+            tickBudget = 2;
+        }
+        this.enabled = enabled;
+        this.intervalMillis = intervalSeconds * 1000L;
+        this.tickBudgetNanos = (long) (tickBudget * 1000000);
+    }
+
+    void start() {
+        if (enabled)
+            this.runTaskTimer(plugin, scanPeriodTicks, 1);
+    }
+
+    @Override
+    public void run() {
+        if (queue.isEmpty()) {
+            if (--ticksUntilScan > 0)
+                return;
+            ticksUntilScan = scanPeriodTicks;
+            this.scan();
+            if (queue.isEmpty())
+                return;
+        }
+
+        long start = System.nanoTime();
+        int saved = 0;
+        BigInvHolder holder;
+        // at least one holder per tick, so a too small budget can not stop autosaving.
+        while ((holder = queue.poll()) != null) {
+            if (holder.isChanged()) { // it may have been saved in the meantime (e.g. on quit)
+                save.accept(holder);
+                saved++;
+            }
+            if (System.nanoTime() - start >= tickBudgetNanos)
+                break;
+        }
+        if (saved > 0) {
+            flush.run();
+            ConsoleMessage.debug(this.getClass(), plugin, "autosaved " + saved + " BigInvs in " + (System.nanoTime() - start) / 1000 + " microseconds, " + queue.size() + " remaining");
+        }
+    }
+
+    /**
+     * Queues all changed holders which were not saved for at least the interval.
+     */
+    private void scan() {
+        long dueBefore = System.currentTimeMillis() - intervalMillis;
+        for (BigInvHolder holder : holders.get()) {
+            if (holder.isChanged() && holder.getLastSave() <= dueBefore)
+                queue.add(holder);
+        }
+    }
+}
@@ -20,36 +20,164 @@ package com.github.alexqp.biginv.data;
 
 import com.github.alexqp.biginv.listeners.BigInvHandler;
 import com.github.alexqp.biginv.util.ArrayUtils;
-import com.github.alexqp.commons.config.ConfigChecker;
 import com.github.alexqp.commons.config.ConsoleErrorType;
-import com.github.alexqp.commons.dataHandler.DataHandler;
 import com.github.alexqp.commons.dataHandler.LoadSaveException;
 import com.github.alexqp.commons.messages.ConsoleMessage;
 import org.bukkit.Bukkit;
-import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class BigInvContainer implements BigInvHandler {
 
-    private final String activeInvName = "active";
-    private final String backupInvName = "backup";
+    private static final String[] shutdownConfigNames = {"threads", "timeout"};
+    private static final String[] offlineCacheConfigNames = {"max_size", "idle_timeout"};
+    private static final String[] searchIndexConfigNames = {"enable", "max_results"};
+    private static final String searchIndexFileName = "search-index.dat";
+    private static final int searchIndexRebuildInFlight = 32; // reads queued at once, so saves of other owners are not delayed by the whole rebuild.
+    private static final String[] bulkConfigNames = {"threads", "rate_limit"};
+
+    private final long prefetchExpireMillis = 60000;
+    private final int bulkLoadBatchSize = 10;
+    private final int shutdownThreads;
+    private final long shutdownTimeoutMillis;
+    private final int offlineCacheMaxSize;
+    private final long offlineCacheIdleMillis;
+    private final long inventoryIdleMillis;
+    private final int searchResultLimit;
+    private final int bulkThreads;
+    private final int bulkRateLimit;
 
     private final JavaPlugin plugin;
-    private DataHandler dataHandler;
+    private final BigInvStats stats;
+    private BigInvStore store;
+    private final SnapshotHistory history;
+    private final AutosaveScheduler autosave;
+    private final AsyncSaveExecutor saveExecutor;
+    private final ItemSearchIndex searchIndex;
+    private final ExecutorService indexExecutor;
+    private final AtomicBoolean indexRebuilding = new AtomicBoolean(false);
+    private BulkOperationRunner bulkRunner; // the current or last one
 
     private final Map<UUID, BigInvHolder> invHolders = new HashMap<>();
+    private final Map<UUID, Prefetch> prefetched = new ConcurrentHashMap<>();
+    private final Map<UUID, StoredBigInv> autosaveBatch = new LinkedHashMap<>(); // saves of the current autosave tick for stores without parallel writes
+    private final Set<UUID> autosaveBatchSnapshots = new HashSet<>();
+    private final Map<UUID, Boolean> backupIndex = new HashMap<>(); // whether players have a backup, as far as known since the start
+    private final Map<UUID, List<Consumer<BigInvHolder>>> offlineLoads = new HashMap<>(); // callbacks waiting for an offline BigInv being read
+    private final LinkedHashMap<UUID, OfflineHolder> offlineHolders = new LinkedHashMap<>(16, 0.75f, true); // least recently used first
+    private final Set<UUID> loadedOwners = ConcurrentHashMap.newKeySet(); // owners of invHolders and offlineHolders, readable by other threads
 
-    public BigInvContainer(JavaPlugin plugin)
-        throws IllegalArgumentException {
+    /**
+     * @param plugin the plugin
+     * @param asyncSaving if true, saving only takes a snapshot on the calling thread and writes the file on a dedicated I/O thread.
+     * @param inventoryIdleSeconds the time without viewers after which a BigInv is only kept serialized (0 to keep it forever)
+     * @param storageSection the config section of the storage options (may be null for defaults)
+     * @param shutdownSection the config section of the shutdown options (may be null for defaults)
+     * @param offlineCacheSection the config section of the offline cache options (may be null for defaults)
+     * @param historySection the config section of the snapshot history options (may be null for defaults)
+     * @param autosaveSection the config section of the autosave options (may be null for defaults)
+     * @param searchIndexSection the config section of the search index options (may be null for defaults)
+     * @param bulkSection the config section of the bulk operation options (may be null for defaults)
+     * @param statsSection the config section of the stats options (may be null for defaults)
+     */
+    public BigInvContainer(JavaPlugin plugin, boolean asyncSaving, long inventoryIdleSeconds, @Nullable ConfigurationSection storageSection, @Nullable ConfigurationSection shutdownSection,
+                           @Nullable ConfigurationSection offlineCacheSection, @Nullable ConfigurationSection historySection,
+                           @Nullable ConfigurationSection autosaveSection, @Nullable ConfigurationSection searchIndexSection,
+                           @Nullable ConfigurationSection bulkSection, @Nullable ConfigurationSection statsSection) throws IllegalArgumentException {
         this.plugin = plugin;
+        this.stats = new BigInvStats(plugin, statsSection);
+        this.saveExecutor = asyncSaving ? new AsyncSaveExecutor(plugin, 2, stats) : null;
+
+        int shutdownThreads = 0;
+        int shutdownTimeoutSeconds = 30;
+        if (shutdownSection != null) {
+            shutdownThreads = shutdownSection.getInt(shutdownConfigNames[0], shutdownThreads);
+            shutdownTimeoutSeconds = shutdownSection.getInt(shutdownConfigNames[1], shutdownTimeoutSeconds);
+        }
+        this.shutdownThreads = shutdownThreads > 0 ? shutdownThreads : Runtime.getRuntime().availableProcessors();
+        if (shutdownTimeoutSeconds < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "shutdown " + shutdownConfigNames[1] + " must be at least 1. Using 30 instead.");
+            shutdownTimeoutSeconds = 30;
+        }
+        this.shutdownTimeoutMillis = shutdownTimeoutSeconds * 1000L;
+
+        int offlineCacheMaxSize = 50;
+        int offlineCacheIdleSeconds = 300;
+        if (offlineCacheSection != null) {
+            offlineCacheMaxSize = offlineCacheSection.getInt(offlineCacheConfigNames[0], offlineCacheMaxSize);
+            offlineCacheIdleSeconds = offlineCacheSection.getInt(offlineCacheConfigNames[1], offlineCacheIdleSeconds);
+        }
+        if (offlineCacheMaxSize < 0) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "offline_cache " + offlineCacheConfigNames[0] + " must not be negative. Using 0 instead.");
+            offlineCacheMaxSize = 0;
+        }
+        if (offlineCacheIdleSeconds < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "offline_cache " + offlineCacheConfigNames[1] + " must be at least 1. Using 300 instead.");
+            offlineCacheIdleSeconds = 300;
+        }
+        this.offlineCacheMaxSize = offlineCacheMaxSize;
+        this.offlineCacheIdleMillis = offlineCacheIdleSeconds * 1000L;
+        this.inventoryIdleMillis = Math.max(0, inventoryIdleSeconds) * 1000L;
+
+        boolean searchIndexEnabled = true;
+        int searchResultLimit = 10;
+        if (searchIndexSection != null) {
+            searchIndexEnabled = searchIndexSection.getBoolean(searchIndexConfigNames[0], searchIndexEnabled);
+            searchResultLimit = searchIndexSection.getInt(searchIndexConfigNames[1], searchResultLimit);
+        }
+        if (searchResultLimit < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "search_index " + searchIndexConfigNames[1] + " must be at least 1. Using 10 instead.");
+            searchResultLimit = 10;
+        }
+        this.searchResultLimit = searchResultLimit;
+        this.searchIndex = searchIndexEnabled ? new ItemSearchIndex() : null;
+
+        int bulkThreads = 2;
+        int bulkRateLimit = 500;
+        if (bulkSection != null) {
+            bulkThreads = bulkSection.getInt(bulkConfigNames[0], bulkThreads);
+            bulkRateLimit = bulkSection.getInt(bulkConfigNames[1], bulkRateLimit);
+        }
+        if (bulkThreads < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "bulk_operations " + bulkConfigNames[0] + " must be at least 1. Using 2 instead.");
+            bulkThreads = 2;
+        }
+        if (bulkRateLimit < 0) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "bulk_operations " + bulkConfigNames[1] + " must not be negative. Using 500 instead.");
+            bulkRateLimit = 500;
+        }
+        this.bulkThreads = bulkThreads;
+        this.bulkRateLimit = bulkRateLimit;
+        this.indexExecutor = searchIndexEnabled ? Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, plugin.getName() + "-Index")) : null;
+
+        this.history = new SnapshotHistory(plugin, historySection);
+        this.autosave = new AutosaveScheduler(plugin, autosaveSection, this::getLoadedHolders, this::autosaveBigInv, this::flushAutosaveBatch);
+
         try {
-            this.dataHandler = new DataHandler(plugin, "playerdata");
+            this.store = BigInvStore.create(plugin, storageSection, stats);
+            this.loadSearchIndex();
             this.loadInventories();
+            this.startOfflineCacheEviction();
+            this.startDematerialization();
+            this.autosave.start();
+            this.stats.start();
         } catch (LoadSaveException e) {
             ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not create sub-directory. Please make sure your system allows to save files.");
             e.printStackTrace();
@@ -59,54 +187,438 @@ public class BigInvContainer implements BigInvHandler {
 
     private void addInvHolder(Player owner, BigInvHolder holder) {
         invHolders.put(owner.getUniqueId(), holder);
+        loadedOwners.add(owner.getUniqueId());
         ConsoleMessage.debug(this.getClass(), plugin, "Added BigInvHolder for " + ConsoleMessage.getPlayerString(owner));
     }
 
     private void removeInvHolder(Player owner) {
         UUID ownerUUID = owner.getUniqueId();
         invHolders.remove(ownerUUID);
+        loadedOwners.remove(ownerUUID);
         ConsoleMessage.debug(this.getClass(), plugin, "Removed BigInvHolder for " + ConsoleMessage.getPlayerString(owner));
     }
 
+    /**
+     * Loads the BigInvs of all online players (e.g. after a reload). The files get read in parallel,
+     * the results get applied on the server thread in batches of bulkLoadBatchSize per tick.
+     */
     private void loadInventories() {
-        for (Player p : Bukkit.getOnlinePlayers()) {
-            this.loadInventory(p);
+        List<Player> players = new ArrayList<>(Bukkit.getOnlinePlayers());
+        if (players.isEmpty())
+            return;
+
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(Math.min(Runtime.getRuntime().availableProcessors(), players.size()));
+        Queue<BulkLoad> loads = new ArrayDeque<>();
+        for (Player p : players) {
+            UUID ownerUUID = p.getUniqueId();
+            loadedOwners.add(ownerUUID);
+            loads.add(new BulkLoad(p, CompletableFuture.supplyAsync(() -> this.readStoredBigInv(ownerUUID), pool)));
         }
+        pool.shutdown();
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                int applied = 0;
+                while (applied < bulkLoadBatchSize && !loads.isEmpty() && loads.peek().data.isDone()) {
+                    BulkLoad load = loads.poll();
+                    applied++;
+
+                    // players who left or joined again in the meantime do not need this load anymore.
+                    if (!load.owner.isOnline() || invHolders.containsKey(load.owner.getUniqueId())) {
+                        if (!invHolders.containsKey(load.owner.getUniqueId()))
+                            loadedOwners.remove(load.owner.getUniqueId());
+                        continue;
+                    }
+
+                    try {
+                        loadInventory(load.owner, load.data.join());
+                    } catch (CompletionException e) {
+                        ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not read BigInv of " + ConsoleMessage.getPlayerString(load.owner) + " in parallel. Trying again...");
+                        e.getCause().printStackTrace();
+                        loadInventory(load.owner);
+                    }
+                }
+
+                if (loads.isEmpty()) {
+                    this.cancel();
+                    ConsoleMessage.debug(BigInvContainer.this.getClass(), plugin, "Loaded BigInvs of " + players.size() + " online players in " + (System.currentTimeMillis() - start) + "ms");
+                }
+            }
+        }.runTaskTimer(plugin, 1, 1);
     }
 
+    /**
+     * Saves and unloads all BigInvs. The snapshots get taken on the calling thread, the files get written in parallel
+     * (or in one batch if the store does not support parallel writes).
+     * Blocks until all files are written or the shutdown timeout is reached.
+     */
     public void saveInventories() {
+        long start = System.currentTimeMillis();
+        long deadline = start + shutdownTimeoutMillis;
+
+        // bulk tasks are chained with the file operations of their owners, so they must be done before the I/O threads stop.
+        if (bulkRunner != null && !bulkRunner.getOperation().isDone())
+            bulkRunner.stop(shutdownTimeoutMillis);
+
+        List<ShutdownSave> saves = new ArrayList<>();
         for (Player p : Bukkit.getOnlinePlayers()) {
-            this.saveInventory(p);
+            BigInvHolder holder = invHolders.get(p.getUniqueId());
+            if (holder == null)
+                continue;
+
+            this.closeViewers(holder);
+            if (holder.isChanged()) {
+                saves.add(new ShutdownSave(holder, history.shouldRecord(holder.getOwner().getUniqueId(), BigInvSnapshot.Reason.SAVE)));
+                holder.setChanged(false);
+            }
+            this.removeInvHolder(p);
+        }
+        for (OfflineHolder offlineHolder : offlineHolders.values()) {
+            BigInvHolder holder = offlineHolder.holder;
+            this.closeViewers(holder);
+            if (holder.isChanged()) {
+                saves.add(new ShutdownSave(holder, history.shouldRecord(holder.getOwner().getUniqueId(), BigInvSnapshot.Reason.SAVE)));
+                holder.setChanged(false);
+            }
+        }
+        offlineHolders.clear();
+        loadedOwners.clear();
+
+        // queued saves are older and must not overwrite the snapshots.
+        if (saveExecutor != null && !saveExecutor.shutdown(Math.max(0, deadline - System.currentTimeMillis()))) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Queued saves did not finish within the shutdown timeout.");
+        }
+
+        if (!store.supportsParallelWrites()) {
+            this.saveInventoriesBatched(saves, start);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(shutdownThreads, Math.max(1, saves.size())));
+        Map<ShutdownSave, Future<Long>> futures = new LinkedHashMap<>();
+        for (ShutdownSave save : saves) {
+            futures.put(save, pool.submit(() -> {
+                long saveStart = System.nanoTime();
+                store.write(save.ownerUUID, save.active, save.backup);
+                store.release(save.ownerUUID);
+                if (searchIndex != null)
+                    searchIndex.update(save.ownerUUID, save.active, save.backup);
+                if (save.recordSnapshot)
+                    history.record(save.ownerUUID, BigInvSnapshot.Reason.SAVE, save.active, save.backup);
+                return System.nanoTime() - saveStart;
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        for (Map.Entry<ShutdownSave, Future<Long>> entry : futures.entrySet()) {
+            String ownerString = entry.getKey().ownerString;
+            try {
+                long nanos = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                ConsoleMessage.debug(this.getClass(), plugin, "Saved BigInv for " + ownerString + " in " + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms");
+            } catch (ExecutionException e) {
+                failed++;
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not save BigInv for " + ownerString + ": " + e.getCause() + ". Printing stackTrace...");
+                e.getCause().printStackTrace();
+            } catch (TimeoutException e) {
+                failed++;
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Saving BigInv for " + ownerString + " did not finish within the shutdown timeout.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Got interrupted while waiting for the BigInvs to be saved.");
+                break;
+            }
+        }
+        pool.shutdownNow();
+
+        plugin.getLogger().info("Saved " + (saves.size() - failed) + "/" + saves.size() + " changed BigInvs in " + (System.currentTimeMillis() - start) + "ms using " + pool.getParallelism() + " threads.");
+    }
+
+    private void saveInventoriesBatched(List<ShutdownSave> saves, long start) {
+        Map<UUID, StoredBigInv> bigInvs = new LinkedHashMap<>();
+        for (ShutdownSave save : saves) {
+            bigInvs.put(save.ownerUUID, new StoredBigInv(save.active, save.backup, true));
+        }
+
+        try {
+            store.writeAll(bigInvs);
+            for (ShutdownSave save : saves) {
+                if (searchIndex != null)
+                    searchIndex.update(save.ownerUUID, save.active, save.backup);
+                if (save.recordSnapshot)
+                    history.record(save.ownerUUID, BigInvSnapshot.Reason.SAVE, save.active, save.backup);
+            }
+            plugin.getLogger().info("Saved " + saves.size() + " changed BigInvs in " + (System.currentTimeMillis() - start) + "ms in one batch.");
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not save the " + saves.size() + " changed BigInvs: " + e + ". Printing stackTrace...");
+            e.printStackTrace();
         }
     }
 
-    private void saveYmlFile(Player owner, YamlConfiguration ymlFile) {
+    private void closeViewers(BigInvHolder holder) {
+        if (holder.hasViewers()) {
+            List<HumanEntity> opener = holder.getViewers();
+            for (HumanEntity ent : opener) {
+                ent.closeInventory();
+                if (holder.getOwner() instanceof Player)
+                    Bukkit.getPluginManager().callEvent(new BigInvForceCloseEvent((Player) holder.getOwner(), ent));
+            }
+        }
+    }
+
+    /**
+     * Waits for all pending asynchronous saves and closes the store. Must be called after the last save on disable.
+     */
+    public void shutdown() {
+        if (indexExecutor != null) {
+            indexExecutor.shutdownNow(); // an unfinished rebuild gets repeated on the next start.
+            try {
+                if (!indexExecutor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS))
+                    ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "The search index did not stop within " + shutdownTimeoutMillis + "ms.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (saveExecutor != null) {
+            ConsoleMessage.debug(this.getClass(), plugin, "Waiting for pending saves of " + saveExecutor.getPendingOwners() + " players...");
+            if (!saveExecutor.shutdown(shutdownTimeoutMillis)) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Pending saves did not finish within " + shutdownTimeoutMillis + "ms. Some BigInvs may not have been saved.");
+            }
+        }
+        this.saveSearchIndex();
+        if (store != null)
+            store.close();
+    }
+
+    /**
+     * Writes the changes of the holder and marks it as saved. Only the changed slots get written if possible,
+     * otherwise the active inventory and the in-memory backup. The file is never read before.
+     * @param holder the holder
+     * @param fullSave if true, the whole BigInv gets written (which also compacts the delta log)
+     */
+    private void saveBigInv(BigInvHolder holder, boolean fullSave) {
+        UUID ownerUUID = holder.getOwner().getUniqueId();
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.SAVE, ownerUUID).setSlots(holder.getSize());
+        String ownerString = holder.getOwnerString();
+        this.invalidatePrefetch(ownerUUID);
+        this.indexBackup(holder);
+
+        boolean async = saveExecutor != null;
+        Runnable write;
+        if (!fullSave && !holder.isFullSaveNeeded() && store.canWriteDelta(ownerUUID)) {
+            int size = holder.getSize();
+            Map<Integer, ItemStack> changedSlots = holder.getChangedSlotsSnapshot();
+            write = () -> this.writeDelta(ownerUUID, ownerString, size, changedSlots);
+        } else {
+            YmlInventory active = holder.getActiveSnapshot();
+            YmlInventory backup = async ? holder.getBackup().deepClone() : holder.getBackup();
+            write = () -> this.writeBigInv(ownerUUID, ownerString, active, backup);
+        }
+
+        if (history.shouldRecord(ownerUUID, BigInvSnapshot.Reason.SAVE)) {
+            Runnable save = write;
+            YmlInventory snapshotActive = holder.getActiveSnapshot();
+            YmlInventory snapshotBackup = holder.getBackup().deepClone();
+            write = () -> {
+                save.run();
+                history.record(ownerUUID, BigInvSnapshot.Reason.SAVE, snapshotActive, snapshotBackup);
+            };
+        }
+        holder.setChanged(false);
+
+        this.runForOwner(ownerUUID, write);
+        sample.stop();
+        if (async)
+            ConsoleMessage.debug(this.getClass(), plugin, "queued save for " + ownerString);
+    }
+
+    /**
+     * Saves the holder like {@link #saveBigInv(BigInvHolder, boolean)}. For stores which should not be written in parallel,
+     * only the snapshot is taken and all saves of the tick get written in one batch by {@link #flushAutosaveBatch()}.
+     */
+    private void autosaveBigInv(BigInvHolder holder) {
+        if (store.supportsParallelWrites()) {
+            this.saveBigInv(holder, false);
+            return;
+        }
+
+        UUID ownerUUID = holder.getOwner().getUniqueId();
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.SAVE, ownerUUID).setSlots(holder.getSize());
+        this.invalidatePrefetch(ownerUUID);
+        this.indexBackup(holder);
+        autosaveBatch.put(ownerUUID, new StoredBigInv(holder.getActiveSnapshot(), holder.getBackup().deepClone(), true));
+        if (history.shouldRecord(ownerUUID, BigInvSnapshot.Reason.SAVE))
+            autosaveBatchSnapshots.add(ownerUUID);
+        holder.setChanged(false);
+        sample.stop();
+    }
+
+    private void flushAutosaveBatch() {
+        if (autosaveBatch.isEmpty())
+            return;
+
+        Map<UUID, StoredBigInv> bigInvs = new LinkedHashMap<>(autosaveBatch);
+        Set<UUID> snapshots = new HashSet<>(autosaveBatchSnapshots);
+        autosaveBatch.clear();
+        autosaveBatchSnapshots.clear();
+
+        Runnable write = () -> this.writeBatch(bigInvs, snapshots);
+        if (saveExecutor == null) {
+            write.run();
+        } else {
+            saveExecutor.submitAll(bigInvs.keySet(), write);
+            ConsoleMessage.debug(this.getClass(), plugin, "queued batched save for " + bigInvs.size() + " players");
+        }
+    }
+
+    private void writeBatch(Map<UUID, StoredBigInv> bigInvs, Set<UUID> snapshots) {
         try {
-            dataHandler.saveYmlFile(owner.getUniqueId().toString(), ymlFile);
-            ConsoleMessage.debug(this.getClass(), plugin, "saved file for " + ConsoleMessage.getPlayerString(owner));
-        } catch (LoadSaveException e) {
-            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not save updated file for " + ConsoleMessage.getPlayerString(owner) + ". Please make sure your directory is writable. Printing stackTrace...");
+            store.writeAll(bigInvs);
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not save the " + bigInvs.size() + " autosaved BigInvs: " + e + ". Printing stackTrace...");
             e.printStackTrace();
+            return;
+        }
+
+        for (Map.Entry<UUID, StoredBigInv> entry : bigInvs.entrySet()) {
+            UUID ownerUUID = entry.getKey();
+            StoredBigInv storedBigInv = entry.getValue();
+            if (searchIndex != null)
+                searchIndex.update(ownerUUID, storedBigInv.getActive(), storedBigInv.getBackup());
+            if (snapshots.contains(ownerUUID))
+                history.record(ownerUUID, BigInvSnapshot.Reason.SAVE, storedBigInv.getActive(), storedBigInv.getBackup());
+        }
+        ConsoleMessage.debug(this.getClass(), plugin, "saved " + bigInvs.size() + " BigInvs in one batch");
+    }
+
+    /**
+     * Runs a file operation for the given owner, either directly or ordered on the I/O executor.
+     */
+    private void runForOwner(UUID ownerUUID, Runnable task) {
+        if (saveExecutor == null) {
+            task.run();
+            return;
+        }
+        saveExecutor.submit(ownerUUID, task);
+    }
+
+    private void writeDelta(UUID ownerUUID, String ownerString, int size, Map<Integer, ItemStack> changedSlots) {
+        try {
+            store.writeDelta(ownerUUID, size, changedSlots);
+            if (searchIndex != null)
+                searchIndex.updateSlots(ownerUUID, size, changedSlots);
+            ConsoleMessage.debug(this.getClass(), plugin, "saved " + changedSlots.size() + " changed slots for " + ownerString);
+        } catch (IOException e) {
+            this.sendSaveError(ownerString, e);
         }
     }
 
+    private void writeBigInv(UUID ownerUUID, String ownerString, YmlInventory active, YmlInventory backup) {
+        try {
+            store.write(ownerUUID, active, backup);
+            if (searchIndex != null)
+                searchIndex.update(ownerUUID, active, backup);
+            ConsoleMessage.debug(this.getClass(), plugin, "saved file for " + ownerString);
+        } catch (IOException e) {
+            this.sendSaveError(ownerString, e);
+        }
+    }
+
+    private void sendSaveError(String ownerString, IOException e) {
+        ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not save updated file for " + ownerString + ". Please make sure your directory is writable. Printing stackTrace...");
+        e.printStackTrace();
+    }
+
+
+    /**
+     * Reads and deserializes the stored BigInv of the given owner. May be called from any thread.
+     * @param ownerUUID the owner
+     * @return the stored data
+     */
+    @NotNull
+    private StoredBigInv readStoredBigInv(UUID ownerUUID) {
+        if (saveExecutor != null)
+            saveExecutor.awaitPending(ownerUUID);
+
+        return store.read(ownerUUID);
+    }
+
+    /**
+     * Reads the stored BigInv ordered with the other file operations of the owner and waits for it.
+     * Without the I/O executor, file operations run on the server thread and a read could not be ordered with them, so nothing gets prefetched.
+     */
+    @Override
+    public void prefetchInventory(UUID ownerUUID) {
+        if (saveExecutor == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        prefetched.values().removeIf(prefetch -> prefetch.isExpired(now));
+
+        Prefetch placeholder = new Prefetch(now, null);
+        prefetched.put(ownerUUID, placeholder);
+        CompletableFuture<StoredBigInv> read = new CompletableFuture<>();
+        saveExecutor.submit(ownerUUID, () -> read.complete(store.read(ownerUUID)))
+                .whenComplete((result, throwable) -> read.complete(null)); // the read failed or got rejected.
+        StoredBigInv data = read.join();
+
+        // failed reads return empty data, so an empty BigInv gets read again on join rather than risking to overwrite the stored one.
+        if (data == null || (!data.hasActive() && data.getBackup().isEmpty())) {
+            prefetched.remove(ownerUUID, placeholder);
+            ConsoleMessage.debug(this.getClass(), plugin, "discarded empty prefetch for " + ownerUUID);
+            return;
+        }
+
+        // a save in the meantime removed the placeholder and makes the read data outdated.
+        if (prefetched.replace(ownerUUID, placeholder, new Prefetch(now, data))) {
+            ConsoleMessage.debug(this.getClass(), plugin, "prefetched BigInv for " + ownerUUID);
+        } else {
+            ConsoleMessage.debug(this.getClass(), plugin, "discarded outdated prefetch for " + ownerUUID);
+        }
+    }
+
+    private void invalidatePrefetch(UUID ownerUUID) {
+        prefetched.remove(ownerUUID);
+    }
+
+    @NotNull
+    private StoredBigInv takeStoredBigInv(Player owner) {
+        Prefetch prefetch = prefetched.remove(owner.getUniqueId());
+        // pending file operations (e.g. of a bulk operation) may change the stored data after it was prefetched.
+        boolean hasPending = saveExecutor != null && saveExecutor.hasPending(owner.getUniqueId());
+        if (prefetch != null && prefetch.data != null && !prefetch.isExpired(System.currentTimeMillis()) && !hasPending) {
+            ConsoleMessage.debug(this.getClass(), plugin, "using prefetched BigInv for " + ConsoleMessage.getPlayerString(owner));
+            return prefetch.data;
+        }
+        return this.readStoredBigInv(owner.getUniqueId());
+    }
 
     @Override
     public BigInvHandlerReturnType loadInventory(Player owner) {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.LOAD, owner.getUniqueId());
+        // changes of staff to the offline BigInv must be written before it gets read again.
+        this.evictOfflineHolder(owner.getUniqueId(), true);
+        loadedOwners.add(owner.getUniqueId()); // before reading, so no bulk operation writes the stored data in the meantime.
+        BigInvHandlerReturnType returnType = this.loadInventory(owner, this.takeStoredBigInv(owner));
+        BigInvHolder holder = invHolders.get(owner.getUniqueId());
+        sample.setSlots(holder != null ? holder.getSize() : 0).stop();
+        return returnType;
+    }
+
+    private BigInvHandlerReturnType loadInventory(Player owner, StoredBigInv storedBigInv) {
         BigInvHolder holder = BigInvHolder.get(owner);
         if (holder == null) {
+            loadedOwners.remove(owner.getUniqueId());
             ConsoleMessage.debug(this.getClass(), plugin, "No load for " + ConsoleMessage.getPlayerString(owner) + " cause he does not have necessary permissions.");
             return BigInvHandlerReturnType.NO_HOLDER;
         }
 
-        YamlConfiguration ymlFile = dataHandler.loadYmlFile(owner.getUniqueId().toString());
-        ConfigChecker configChecker = new ConfigChecker(plugin, ymlFile);
-        YmlInventory defYmlInv = new YmlInventory();
+        YmlInventory ymlInv = storedBigInv.getActive();
+        YmlInventory oldBackupYmlInv = storedBigInv.getBackup();
 
-        YmlInventory ymlInv = configChecker.checkSerializable(ymlFile, activeInvName, ConsoleErrorType.NONE, defYmlInv, false);
-        YmlInventory oldBackupYmlInv = configChecker.checkSerializable(ymlFile, backupInvName, ConsoleErrorType.NONE, new YmlInventory(), false);
-
-        if (owner.hasPermission("biginv.backup.login")) {
+        if (!oldBackupYmlInv.isEmpty() && owner.hasPermission("biginv.backup.login")) {
             ymlInv.setContents(ArrayUtils.addAll(ymlInv.getContentsClone(), oldBackupYmlInv.clearContents()));
             ConsoleMessage.debug(this.getClass(), plugin, ConsoleMessage.getPlayerString(owner) + " had an old backup and the permission. Trying to add both into the BigInv...");
             // TODO backup should also be restored into the vanilla inventory if possible.
@@ -120,14 +632,15 @@ public class BigInvContainer implements BigInvHandler {
                 backupYmlInv.setContents(ArrayUtils.addAll(backupYmlInv.getContentsClone(), oldBackupYmlInv.getContentsClone()));
                 ConsoleMessage.debug(this.getClass(), plugin, ConsoleMessage.getPlayerString(owner) + " had an old backup. Merged both contents.");
             }
-            ymlFile.set(activeInvName, new YmlInventory(holder.getInventory().getContents()));
-            ymlFile.set(backupInvName, backupYmlInv);
-            this.saveYmlFile(owner, ymlFile);
+            holder.setBackup(backupYmlInv);
+            this.saveBigInv(holder, true);
             return BigInvHandlerReturnType.NEEDED_BACKUP;
         }
+        holder.setBackup(oldBackupYmlInv);
+        this.indexBackup(holder);
         ConsoleMessage.debug(this.getClass(), plugin, "loaded BigInvHolder for " + ConsoleMessage.getPlayerString(owner));
 
-        if (ymlInv == defYmlInv)
+        if (!storedBigInv.hasActive())
             return BigInvHandlerReturnType.PARTIAL_SUCCESS;
 
         return BigInvHandlerReturnType.SUCCESS;
@@ -147,36 +660,114 @@ public class BigInvContainer implements BigInvHandler {
             return BigInvHandlerReturnType.NO_HOLDER;
         }
 
-        if (closeInv && !holder.getInventory().getViewers().isEmpty()) {
-            List<HumanEntity> opener = new ArrayList<>(holder.getInventory().getViewers());
-            for (HumanEntity ent : opener) {
-                ent.closeInventory();
-                Bukkit.getPluginManager().callEvent(new BigInvForceCloseEvent(owner, ent));
-            }
-        }
+        if (closeInv)
+            this.closeViewers(holder);
 
         if (holder.isChanged()) {
-            YamlConfiguration ymlFile = dataHandler.loadYmlFile(owner.getUniqueId().toString());
-            ymlFile.set(activeInvName, new YmlInventory(holder.getInventory().getContents()));
-            this.saveYmlFile(owner, ymlFile);
+            this.saveBigInv(holder, closeInv);
         } else {
+            stats.recordSkippedSave();
             ConsoleMessage.debug(this.getClass(), plugin, ConsoleMessage.getPlayerString(owner) + " did not change anything in his inventory. Skipped saving.");
         }
 
-        if (closeInv)
+        if (closeInv) {
             this.removeInvHolder(owner);
+            UUID ownerUUID = owner.getUniqueId();
+            this.runForOwner(ownerUUID, () -> {
+                store.release(ownerUUID);
+                history.release(ownerUUID);
+            });
+        }
 
         ConsoleMessage.debug(this.getClass(), plugin, "Saved BigInv for " + ConsoleMessage.getPlayerString(owner) + ", unload/closeInv == " + closeInv);
         return BigInvHandlerReturnType.SUCCESS;
     }
 
+    @Override
+    public BigInvHandlerReturnType updateSize(Player owner) {
+        BigInvHolder holder = invHolders.get(owner.getUniqueId());
+        if (holder == null) {
+            // the owner got a size permission for the first time.
+            return BigInvHolder.get(owner) != null ? this.loadInventory(owner) : BigInvHandlerReturnType.NO_HOLDER;
+        }
+
+        int oldSize = holder.getSize();
+        int allowedSize = holder.getAllowedSize();
+        if (allowedSize == oldSize)
+            return BigInvHandlerReturnType.SUCCESS;
+
+        List<HumanEntity> viewers = holder.getViewers();
+        for (HumanEntity viewer : viewers) {
+            viewer.closeInventory();
+        }
+
+        List<ItemStack> overflow;
+        if (allowedSize > 0) {
+            overflow = holder.resize(allowedSize);
+        } else {
+            overflow = new ArrayList<>(Arrays.asList(holder.getContents()));
+            overflow.removeIf(Objects::isNull);
+            holder.clearContents();
+        }
+        if (!overflow.isEmpty()) {
+            YmlInventory backup = holder.getBackup();
+            backup.setContents(ArrayUtils.addAll(overflow.toArray(new ItemStack[0]), backup.getContentsClone()));
+            this.indexBackup(holder);
+        }
+        ConsoleMessage.debug(this.getClass(), plugin, "Resized BigInv of " + ConsoleMessage.getPlayerString(owner) + " from " + oldSize + " to " + allowedSize
+                + " slots, " + overflow.size() + " items moved into the backup");
+
+        if (allowedSize == 0) {
+            // like a quit, but the owner keeps the backup for a later size permission.
+            this.saveInventory(owner, true);
+            return overflow.isEmpty() ? BigInvHandlerReturnType.NO_HOLDER : BigInvHandlerReturnType.NEEDED_BACKUP;
+        }
+
+        for (HumanEntity viewer : viewers) {
+            viewer.openInventory(holder.getInventory());
+        }
+        return overflow.isEmpty() ? BigInvHandlerReturnType.SUCCESS : BigInvHandlerReturnType.NEEDED_BACKUP;
+    }
+
+    /**
+     * Opens the BigInv of a player who may be offline. BigInvs of offline players get read in the background into the offline cache.
+     * @param owner the owner
+     * @param viewer the viewer
+     * @param callback receives the result on the server thread (possibly in a later tick), NO_HOLDER if the viewer left in the meantime
+     */
+    public void openInventory(OfflinePlayer owner, Player viewer, Consumer<BigInvHandlerReturnType> callback) {
+        Player onlineOwner = owner.getPlayer();
+        if (onlineOwner != null) {
+            callback.accept(this.openInventory(onlineOwner, viewer));
+            return;
+        }
+
+        if (!viewer.hasPermission(BigInvHolder.getSeePermissions().get(1))) {
+            callback.accept(BigInvHandlerReturnType.NO_PERMISSION);
+            return;
+        }
+
+        this.loadOfflineHolder(owner, holder -> {
+            if (holder == null) {
+                callback.accept(BigInvHandlerReturnType.NO_DATA);
+            } else if (!viewer.isOnline()) {
+                callback.accept(BigInvHandlerReturnType.NO_HOLDER);
+            } else {
+                callback.accept(this.openInventory(holder, viewer));
+            }
+        });
+    }
+
     @Override
     public BigInvHandlerReturnType openInventory(Player owner, Player viewer) {
         BigInvHolder holder = invHolders.get(owner.getUniqueId());
         if (holder == null) {
             return BigInvHandlerReturnType.NO_HOLDER;
         }
+        return this.openInventory(holder, viewer);
+    }
 
+    private BigInvHandlerReturnType openInventory(BigInvHolder holder, Player viewer) {
         if (!holder.getCanOpen(viewer)) {
             return BigInvHandlerReturnType.NO_PERMISSION;
         }
@@ -188,25 +779,60 @@ public class BigInvContainer implements BigInvHandler {
         return BigInvHandlerReturnType.SUCCESS;
     }
 
+    /**
+     * Restores the backup of a player who may be offline. BigInvs of offline players get read in the background into the offline cache.
+     * @param owner the owner
+     * @param viewer the player who receives the backup
+     * @param callback receives the result on the server thread (possibly in a later tick), NO_HOLDER if the viewer left in the meantime
+     */
+    public void restoreBackup(OfflinePlayer owner, Player viewer, Consumer<BigInvHandlerReturnType> callback) {
+        Player onlineOwner = owner.getPlayer();
+        if (onlineOwner != null) {
+            callback.accept(this.restoreBackup(onlineOwner, viewer));
+            return;
+        }
+
+        if (!viewer.hasPermission(BigInvHolder.getBackupPermissions().get(1))) {
+            callback.accept(BigInvHandlerReturnType.NO_PERMISSION);
+            return;
+        }
+
+        if (Boolean.FALSE.equals(backupIndex.get(owner.getUniqueId()))) {
+            callback.accept(BigInvHandlerReturnType.NO_DATA);
+            return;
+        }
+
+        this.loadOfflineHolder(owner, holder -> {
+            if (holder == null) {
+                callback.accept(BigInvHandlerReturnType.NO_DATA);
+            } else if (!viewer.isOnline()) {
+                callback.accept(BigInvHandlerReturnType.NO_HOLDER);
+            } else {
+                callback.accept(this.restoreBackup(holder, viewer));
+            }
+        });
+    }
+
     @Override
     public BigInvHandlerReturnType restoreBackup(Player owner, Player viewer) {
         BigInvHolder holder = invHolders.get(owner.getUniqueId());
         if (holder == null) {
             return BigInvHandlerReturnType.NO_HOLDER;
         }
+        return this.restoreBackup(holder, viewer);
+    }
 
+    private BigInvHandlerReturnType restoreBackup(BigInvHolder holder, Player viewer) {
         if (!holder.getCanRestoreBackup(viewer)) {
             return BigInvHandlerReturnType.NO_PERMISSION;
         }
 
-        YamlConfiguration ymlFile = dataHandler.loadYmlFile(owner.getUniqueId().toString());
-        ConfigChecker configChecker = new ConfigChecker(plugin, ymlFile);
-
-        YmlInventory ymlInv = configChecker.checkSerializable(ymlFile, backupInvName, ConsoleErrorType.NONE, new YmlInventory(), false);
+        YmlInventory ymlInv = holder.getBackup();
         if (ymlInv.isEmpty()) {
             return BigInvHandlerReturnType.NO_DATA;
         }
 
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.RESTORE_BACKUP, holder.getOwner().getUniqueId()).setSlots(ymlInv.getSize());
         BigInvHandlerReturnType returnType;
 
         List<ItemStack> notNullItems = new ArrayList<>();
@@ -215,22 +841,622 @@ public class BigInvContainer implements BigInvHandler {
                 notNullItems.add(item);
         }
 
+        int amountBefore = getAmount(notNullItems);
         Map<Integer, ItemStack> notAdded = viewer.getInventory().addItem(notNullItems.toArray(new ItemStack[0]));
+        if (getAmount(notAdded.values()) == amountBefore) {
+            ConsoleMessage.debug(this.getClass(), plugin, "Restoring of backup of " + holder.getOwnerString() + " by " + ConsoleMessage.getPlayerString(viewer) + " did not restore anything");
+            sample.stop();
+            return BigInvHandlerReturnType.PARTIAL_SUCCESS; // nothing changed, so nothing needs to be written.
+        }
 
         ymlInv.setContents(notAdded.values().toArray(new ItemStack[0]));
         if (ymlInv.isEmpty()) {
-            ConsoleMessage.debug(this.getClass(), plugin, "Restoring of backup of " + ConsoleMessage.getPlayerString(owner) + " by " + ConsoleMessage.getPlayerString(viewer) + " was fully successful");
+            ConsoleMessage.debug(this.getClass(), plugin, "Restoring of backup of " + holder.getOwnerString() + " by " + ConsoleMessage.getPlayerString(viewer) + " was fully successful");
             returnType = BigInvHandlerReturnType.SUCCESS;
         } else {
-            ConsoleMessage.debug(this.getClass(), plugin, "Restoring of backup of " + ConsoleMessage.getPlayerString(owner) + " by " + ConsoleMessage.getPlayerString(viewer) + " was partially successful");
+            ConsoleMessage.debug(this.getClass(), plugin, "Restoring of backup of " + holder.getOwnerString() + " by " + ConsoleMessage.getPlayerString(viewer) + " was partially successful");
             returnType = BigInvHandlerReturnType.PARTIAL_SUCCESS;
         }
-        ymlInv.setContents(notAdded.values().toArray(new ItemStack[0]));
-        ymlFile.set(backupInvName, ymlInv);
-        this.saveYmlFile(owner, ymlFile);
+        this.saveBigInv(holder, true);
+        sample.stop();
         return returnType;
     }
 
+    private static int getAmount(Collection<ItemStack> items) {
+        int amount = 0;
+        for (ItemStack item : items) {
+            amount += item.getAmount();
+        }
+        return amount;
+    }
+
+    private void indexBackup(BigInvHolder holder) {
+        backupIndex.put(holder.getOwner().getUniqueId(), !holder.getBackup().isEmpty());
+    }
+
+    /**
+     * @return the names of all players who are known to have a backup. Players whose BigInv was not loaded since the start are unknown.
+     */
+    public List<String> getBackupOwnerNames() {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<UUID, Boolean> entry : backupIndex.entrySet()) {
+            if (entry.getValue()) {
+                String name = Bukkit.getOfflinePlayer(entry.getKey()).getName();
+                if (name != null)
+                    names.add(name);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public void saveInventory(BigInvHolder holder) {
+        if (holder.isChanged()) {
+            this.saveBigInv(holder, false);
+        } else {
+            stats.recordSkippedSave();
+        }
+    }
+
+    /**
+     * Takes the BigInv of an offline player from the offline cache or reads it in the background, ordered with the other file operations of the owner.
+     * Evicts the least recently used holders if the cache gets too large. Concurrent requests for the same owner share one read.
+     * @param owner the offline owner
+     * @param callback receives the holder on the server thread, null if nothing is stored for the owner.
+     *                 If the owner joined in the meantime, it receives the holder of the online owner.
+     */
+    private void loadOfflineHolder(OfflinePlayer owner, Consumer<BigInvHolder> callback) {
+        UUID ownerUUID = owner.getUniqueId();
+        BigInvHolder onlineHolder = invHolders.get(ownerUUID);
+        if (onlineHolder != null) {
+            callback.accept(onlineHolder);
+            return;
+        }
+        OfflineHolder offlineHolder = offlineHolders.get(ownerUUID);
+        if (offlineHolder != null) {
+            offlineHolder.lastAccess = System.currentTimeMillis();
+            callback.accept(offlineHolder.holder);
+            return;
+        }
+
+        List<Consumer<BigInvHolder>> callbacks = offlineLoads.get(ownerUUID);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        offlineLoads.put(ownerUUID, callbacks);
+
+        loadedOwners.add(ownerUUID); // before reading, so no bulk operation writes the stored data in the meantime.
+        this.supplyForOwner(ownerUUID, () -> store.read(ownerUUID), storedBigInv -> this.addOfflineHolder(owner, storedBigInv));
+    }
+
+    private void addOfflineHolder(OfflinePlayer owner, @Nullable StoredBigInv storedBigInv) {
+        UUID ownerUUID = owner.getUniqueId();
+        List<Consumer<BigInvHolder>> callbacks = offlineLoads.remove(ownerUUID);
+        if (callbacks == null)
+            return;
+
+        BigInvHolder onlineHolder = invHolders.get(ownerUUID);
+        if (onlineHolder != null) {
+            callbacks.forEach(callback -> callback.accept(onlineHolder));
+            return;
+        }
+        if (!loadedOwners.contains(ownerUUID)) {
+            // the owner joined and left again while reading, so their quit save may be newer than the read data.
+            ConsoleMessage.debug(this.getClass(), plugin, "discarded outdated offline read for " + ownerUUID);
+            callbacks.forEach(callback -> this.loadOfflineHolder(owner, callback));
+            return;
+        }
+
+        if (storedBigInv == null || (!storedBigInv.hasActive() && storedBigInv.getBackup().isEmpty())) {
+            loadedOwners.remove(ownerUUID);
+            if (storedBigInv != null)
+                backupIndex.put(ownerUUID, false);
+            callbacks.forEach(callback -> callback.accept(null));
+            return;
+        }
+
+        BigInvHolder holder = BigInvHolder.getOffline(owner, storedBigInv.getActive().getSize());
+        YmlInventory backup = storedBigInv.getBackup();
+        YmlInventory overflow = holder.setContents(storedBigInv.getActive());
+        if (!overflow.isEmpty())
+            backup.setContents(ArrayUtils.addAll(overflow.getContentsClone(), backup.getContentsClone()));
+        holder.setBackup(backup);
+        this.indexBackup(holder);
+
+        offlineHolders.put(ownerUUID, new OfflineHolder(holder));
+        ConsoleMessage.debug(this.getClass(), plugin, "Loaded BigInv of offline player " + holder.getOwnerString() + " into the offline cache");
+
+        Iterator<Map.Entry<UUID, OfflineHolder>> it = offlineHolders.entrySet().iterator();
+        while (offlineHolders.size() > offlineCacheMaxSize && it.hasNext()) {
+            Map.Entry<UUID, OfflineHolder> entry = it.next();
+            // opened holders stay cached, the new holder is the last one.
+            if (entry.getValue().holder != holder && !entry.getValue().holder.hasViewers()) {
+                it.remove();
+                loadedOwners.remove(entry.getKey());
+                this.unloadOfflineHolder(entry.getValue().holder);
+            }
+        }
+        callbacks.forEach(callback -> callback.accept(holder));
+    }
+
+    /**
+     * Runs a file operation for the given owner like {@link #runForOwner(UUID, Runnable)} and passes its result to the callback on the server thread.
+     * Without the I/O executor, both run directly.
+     * @param callback receives the result or null if the operation failed
+     */
+    private <T> void supplyForOwner(UUID ownerUUID, Supplier<T> supplier, Consumer<T> callback) {
+        if (saveExecutor == null) {
+            callback.accept(supplier.get());
+            return;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        saveExecutor.submit(ownerUUID, () -> {
+            try {
+                result.complete(supplier.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                throw e;
+            }
+        }).whenComplete((ignored, throwable) -> {
+            if (throwable != null) // the task could not even be started.
+                result.completeExceptionally(throwable);
+        });
+        result.whenComplete((value, throwable) -> {
+            if (plugin.isEnabled())
+                Bukkit.getScheduler().runTask(plugin, () -> callback.accept(throwable == null ? value : null));
+        });
+    }
+
+    /**
+     * Removes the holder of the given owner from the offline cache and writes its changes.
+     * @param ownerUUID the owner
+     * @param force if true, viewers get closed. Otherwise, holders which are viewed stay cached.
+     */
+    private void evictOfflineHolder(UUID ownerUUID, boolean force) {
+        OfflineHolder offlineHolder = offlineHolders.get(ownerUUID);
+        if (offlineHolder == null)
+            return;
+
+        if (force) {
+            this.closeViewers(offlineHolder.holder);
+        } else if (offlineHolder.holder.hasViewers()) {
+            return;
+        }
+        offlineHolders.remove(ownerUUID);
+        loadedOwners.remove(ownerUUID);
+        this.unloadOfflineHolder(offlineHolder.holder);
+    }
+
+    private void unloadOfflineHolder(BigInvHolder holder) {
+        if (holder.isChanged())
+            this.saveBigInv(holder, true);
+        UUID ownerUUID = holder.getOwner().getUniqueId();
+        this.runForOwner(ownerUUID, () -> {
+            store.release(ownerUUID);
+            history.release(ownerUUID);
+        });
+        ConsoleMessage.debug(this.getClass(), plugin, "Evicted BigInv of " + holder.getOwnerString() + " from the offline cache");
+    }
+
+    private void startOfflineCacheEviction() {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                List<UUID> idle = new ArrayList<>();
+                for (Map.Entry<UUID, OfflineHolder> entry : offlineHolders.entrySet()) {
+                    if (now - entry.getValue().lastAccess > offlineCacheIdleMillis)
+                        idle.add(entry.getKey());
+                }
+                for (UUID ownerUUID : idle) {
+                    evictOfflineHolder(ownerUUID, false);
+                }
+            }
+        }.runTaskTimer(plugin, 20 * 30, 20 * 30);
+    }
+
+    /**
+     * Regularly drops the Bukkit inventories of BigInvs which were not viewed for inventoryIdleMillis.
+     * Their contents are kept serialized until the next open.
+     */
+    private void startDematerialization() {
+        if (inventoryIdleMillis <= 0)
+            return;
+
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                int dematerialized = 0;
+                for (BigInvHolder holder : invHolders.values()) {
+                    dematerialized += holder.dematerializeIfIdle(now, inventoryIdleMillis);
+                }
+                for (OfflineHolder offlineHolder : offlineHolders.values()) {
+                    dematerialized += offlineHolder.holder.dematerializeIfIdle(now, inventoryIdleMillis);
+                }
+                if (dematerialized > 0)
+                    ConsoleMessage.debug(BigInvContainer.this.getClass(), plugin, "Dropped " + dematerialized + " idle BigInv inventories");
+            }
+        }.runTaskTimer(plugin, 20 * 10, 20 * 10);
+    }
+
+    private File getSearchIndexFile() {
+        return new File(plugin.getDataFolder(), searchIndexFileName);
+    }
+
+    /**
+     * Loads the search index file of the last stop in the background. The file gets deleted afterwards,
+     * so an index which missed saves because of a crash is never used. Without a file, the index gets rebuilt.
+     */
+    private void loadSearchIndex() {
+        if (searchIndex == null)
+            return;
+
+        indexExecutor.execute(() -> {
+            File file = this.getSearchIndexFile();
+            try {
+                long start = System.currentTimeMillis();
+                if (searchIndex.load(file)) {
+                    Files.delete(file.toPath());
+                    searchIndex.setComplete(true);
+                    ConsoleMessage.debug(this.getClass(), plugin, "Loaded search index of " + searchIndex.getOwnerCount() + " BigInvs in " + (System.currentTimeMillis() - start) + "ms");
+                    return;
+                }
+            } catch (IOException e) {
+                ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Could not load the search index. It gets rebuilt in the background.");
+                e.printStackTrace();
+            }
+            this.rebuildSearchIndex();
+        });
+    }
+
+    private void saveSearchIndex() {
+        if (searchIndex == null || !searchIndex.isComplete())
+            return;
+
+        try {
+            searchIndex.save(this.getSearchIndexFile());
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not save the search index. It gets rebuilt on the next start. Printing stackTrace...");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rebuilds the search index from all stored BigInvs in the background. The old index stays searchable meanwhile.
+     * @return false if the index is disabled or already being rebuilt
+     */
+    public boolean rebuildSearchIndex() {
+        if (searchIndex == null || !indexRebuilding.compareAndSet(false, true))
+            return false;
+
+        searchIndex.setComplete(false);
+        indexExecutor.execute(() -> {
+            try {
+                this.runSearchIndexRebuild();
+            } finally {
+                indexRebuilding.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Reads the BigInvs of all owners which are not loaded. Loaded BigInvs are newer than their stored data,
+     * so they get indexed from memory on the server thread afterwards.
+     * Each read is ordered with the other file operations of its owner like a bulk operation and leaves the stored data untouched.
+     */
+    private void runSearchIndexRebuild() {
+        long start = System.currentTimeMillis();
+        Set<UUID> ownerUUIDs;
+        try {
+            ownerUUIDs = store.listOwners();
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not list the stored BigInvs to rebuild the search index. Printing stackTrace...");
+            e.printStackTrace();
+            return;
+        }
+
+        AtomicInteger indexed = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(searchIndexRebuildInFlight);
+        try {
+            for (UUID ownerUUID : ownerUUIDs) {
+                if (loadedOwners.contains(ownerUUID))
+                    continue;
+
+                Runnable task = () -> {
+                    if (this.indexStored(ownerUUID))
+                        indexed.incrementAndGet();
+                };
+                if (saveExecutor == null) {
+                    if (Thread.currentThread().isInterrupted())
+                        return;
+                    task.run();
+                    continue;
+                }
+                inFlight.acquire();
+                saveExecutor.submit(ownerUUID, task).whenComplete((result, throwable) -> inFlight.release());
+            }
+            inFlight.acquire(searchIndexRebuildInFlight); // waits for the last reads.
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        Set<UUID> keptOwners = new HashSet<>(ownerUUIDs);
+        keptOwners.addAll(loadedOwners);
+        searchIndex.retainOwners(keptOwners);
+        searchIndex.setComplete(true);
+        if (plugin.isEnabled())
+            Bukkit.getScheduler().runTask(plugin, this::indexLoadedHolders);
+        plugin.getLogger().info("Rebuilt the search index from " + indexed.get() + " stored BigInvs in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Indexes the stored BigInv of an owner unless it got loaded meanwhile.
+     * @return false if the owner is loaded
+     */
+    private boolean indexStored(UUID ownerUUID) {
+        if (loadedOwners.contains(ownerUUID))
+            return false;
+
+        try {
+            StoredBigInv storedBigInv = store.peek(ownerUUID);
+            searchIndex.update(ownerUUID, storedBigInv.getActiveOrNull(), storedBigInv.getBackup());
+        } catch (RuntimeException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not index BigInv of " + ownerUUID + ". Printing stackTrace...");
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    private void indexLoadedHolders() {
+        for (BigInvHolder holder : this.getLoadedHolders()) {
+            UUID ownerUUID = holder.getOwner().getUniqueId();
+            YmlInventory active = holder.getActiveSnapshot();
+            YmlInventory backup = holder.getBackup().deepClone();
+            this.runForOwner(ownerUUID, () -> searchIndex.update(ownerUUID, active, backup));
+        }
+    }
+
+    public boolean isSearchIndexEnabled() {
+        return searchIndex != null;
+    }
+
+    /**
+     * Searches the index for BigInvs holding matching items. Unsaved changes are not found.
+     * @param query the query, e.g. "diamond_sword", "material:elytra", "name:excalibur", "lore:event" or "pdc:myplugin:id"
+     * @return the result or null if the search index is disabled
+     */
+    @Nullable
+    public BigInvSearchResult findItems(@NotNull String query) {
+        return searchIndex != null ? searchIndex.find(query, searchResultLimit) : null;
+    }
+
+    /**
+     * Starts a bulk operation over all stored and loaded BigInvs in the background.
+     * If the search index is complete, only the BigInvs holding matching items get read.
+     * @param operation the operation
+     * @param onFinish runs on the server thread after the operation finished (or got cancelled)
+     * @return false if another bulk operation is running or if the operation changes BigInvs, but saving is synchronous
+     */
+    public boolean startBulkOperation(@NotNull BulkOperation operation, @NotNull Runnable onFinish) {
+        if (bulkRunner != null && !bulkRunner.getOperation().isDone())
+            return false;
+        // without the I/O executor, bulk writes could not be ordered with the saves and loads of the owners.
+        if (operation.isChanging() && saveExecutor == null)
+            return false;
+
+        Callable<Set<UUID>> owners = () -> {
+            Set<UUID> candidates = searchIndex != null ? searchIndex.findOwners(operation.getItemQuery()) : null;
+            if (candidates == null)
+                return store.listOwners();
+            candidates.addAll(loadedOwners); // unsaved changes are not indexed
+            return candidates;
+        };
+        bulkRunner = new BulkOperationRunner(plugin, operation, saveExecutor, owners, loadedOwners::contains,
+                ownerUUID -> this.applyToStored(ownerUUID, operation), ownerUUID -> this.applyToLoaded(ownerUUID, operation), bulkThreads, bulkRateLimit);
+        bulkRunner.start(onFinish);
+        return true;
+    }
+
+    /**
+     * @return the latencies, sizes and counters of the load, save and file paths since the start.
+     */
+    @NotNull
+    public BigInvStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the running or last bulk operation (null if there was none since the start).
+     */
+    @Nullable
+    public BulkOperation getBulkOperation() {
+        return bulkRunner != null ? bulkRunner.getOperation() : null;
+    }
+
+    /**
+     * Cancels the running bulk operation. BigInvs which are being processed get finished.
+     * @return false if there is no running bulk operation
+     */
+    public boolean cancelBulkOperation() {
+        if (bulkRunner == null || bulkRunner.getOperation().isDone())
+            return false;
+        bulkRunner.getOperation().cancel();
+        return true;
+    }
+
+    /**
+     * Applies the bulk operation to the stored BigInv of an owner whose BigInv is not loaded.
+     * Runs on a worker thread, ordered with the other file operations of the owner.
+     */
+    private void applyToStored(UUID ownerUUID, BulkOperation operation) {
+        try {
+            StoredBigInv storedBigInv = store.read(ownerUUID);
+            YmlInventory active = storedBigInv.getActiveOrNull();
+            YmlInventory backup = storedBigInv.getBackup();
+            boolean recordSnapshot = operation.isChanging() && history.isEnabled();
+            YmlInventory previousActive = recordSnapshot ? storedBigInv.getActive().deepClone() : null;
+            YmlInventory previousBackup = recordSnapshot ? backup.deepClone() : null;
+
+            boolean changed = operation.apply(active, backup);
+            if (changed) {
+                if (recordSnapshot && history.shouldRecord(ownerUUID, BigInvSnapshot.Reason.BULK))
+                    history.record(ownerUUID, BigInvSnapshot.Reason.BULK, previousActive, previousBackup);
+                store.write(ownerUUID, active, backup);
+                this.invalidatePrefetch(ownerUUID);
+                if (searchIndex != null)
+                    searchIndex.update(ownerUUID, active, backup);
+            }
+            operation.addProcessed(changed);
+        } catch (IOException | RuntimeException e) {
+            operation.addFailed();
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Bulk operation could not process BigInv of " + ownerUUID + ". Printing stackTrace...");
+            e.printStackTrace();
+        } finally {
+            if (!loadedOwners.contains(ownerUUID)) {
+                store.release(ownerUUID);
+                history.release(ownerUUID);
+            }
+        }
+    }
+
+    /**
+     * Applies the bulk operation to a loaded BigInv on the server thread. Changed BigInvs get saved like after a rollback.
+     * @return false if the BigInv of the owner is not loaded (anymore)
+     */
+    private boolean applyToLoaded(UUID ownerUUID, BulkOperation operation) {
+        BigInvHolder holder = invHolders.get(ownerUUID);
+        if (holder == null) {
+            OfflineHolder offlineHolder = offlineHolders.get(ownerUUID);
+            if (offlineHolder == null)
+                return false;
+            holder = offlineHolder.holder;
+        }
+
+        YmlInventory active = holder.getActiveSnapshot();
+        YmlInventory backup = holder.getBackup().deepClone();
+        boolean changed;
+        try {
+            changed = operation.apply(active, backup);
+        } catch (RuntimeException e) {
+            operation.addFailed();
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Bulk operation could not process BigInv of " + holder.getOwnerString() + ". Printing stackTrace...");
+            e.printStackTrace();
+            return true;
+        }
+
+        if (changed) {
+            this.recordSnapshot(holder, BigInvSnapshot.Reason.BULK);
+            this.closeViewers(holder);
+            holder.setContents(active);
+            holder.setBackup(backup);
+            holder.setChanged(true);
+            this.saveBigInv(holder, true);
+        }
+        operation.addProcessed(changed);
+        return true;
+    }
+
+    /**
+     * @return the holders of all online players and the cached holders of offline players.
+     */
+    private Iterable<BigInvHolder> getLoadedHolders() {
+        List<BigInvHolder> holders = new ArrayList<>(invHolders.size() + offlineHolders.size());
+        holders.addAll(invHolders.values());
+        for (OfflineHolder offlineHolder : offlineHolders.values()) {
+            holders.add(offlineHolder.holder);
+        }
+        return holders;
+    }
+
+    /**
+     * Takes a snapshot of the holder's current contents.
+     */
+    private void recordSnapshot(BigInvHolder holder, BigInvSnapshot.Reason reason) {
+        UUID ownerUUID = holder.getOwner().getUniqueId();
+        if (!history.shouldRecord(ownerUUID, reason))
+            return;
+
+        YmlInventory active = holder.getActiveSnapshot();
+        YmlInventory backup = holder.getBackup().deepClone();
+        this.runForOwner(ownerUUID, () -> history.record(ownerUUID, reason, active, backup));
+    }
+
+    /**
+     * Reads the snapshots of the owner's BigInv in the background, ordered with the other file operations of the owner.
+     * @param owner the owner
+     * @param callback receives the snapshots (the newest first) on the server thread, null if the history could not be read
+     */
+    public void getSnapshots(OfflinePlayer owner, Consumer<List<BigInvSnapshot>> callback) {
+        UUID ownerUUID = owner.getUniqueId();
+        this.supplyForOwner(ownerUUID, () -> {
+            try {
+                return history.list(ownerUUID);
+            } catch (IOException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not read history of " + ownerUUID + ". Printing stackTrace...");
+                e.printStackTrace();
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Replaces the owner's BigInv (active inventory and backup) with a snapshot of its history.
+     * The replaced contents get recorded as a snapshot before, so the rollback can be undone.
+     * The snapshot and the BigInv of an offline owner get read in the background.
+     * @param owner the owner (may be offline)
+     * @param index the index of the snapshot (1 is the newest)
+     * @param callback receives NO_DATA if there is no such snapshot or BigInv, SUCCESS otherwise (on the server thread)
+     */
+    public void rollback(OfflinePlayer owner, int index, Consumer<BigInvHandlerReturnType> callback) {
+        UUID ownerUUID = owner.getUniqueId();
+        this.supplyForOwner(ownerUUID, () -> {
+            try {
+                return history.get(ownerUUID, index);
+            } catch (IOException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not read history of " + ownerUUID + ". Printing stackTrace...");
+                e.printStackTrace();
+                return null;
+            }
+        }, snapshot -> {
+            if (snapshot == null) {
+                callback.accept(BigInvHandlerReturnType.NO_DATA);
+                return;
+            }
+
+            // the owner may have joined or left while the snapshot was read.
+            BigInvHolder onlineHolder = invHolders.get(ownerUUID);
+            if (onlineHolder != null) {
+                callback.accept(this.rollback(onlineHolder, snapshot, index));
+            } else if (owner.isOnline()) {
+                callback.accept(BigInvHandlerReturnType.NO_DATA);
+            } else {
+                this.loadOfflineHolder(owner, holder -> callback.accept(holder != null ? this.rollback(holder, snapshot, index) : BigInvHandlerReturnType.NO_DATA));
+            }
+        });
+    }
+
+    private BigInvHandlerReturnType rollback(BigInvHolder holder, StoredBigInv snapshot, int index) {
+        this.recordSnapshot(holder, BigInvSnapshot.Reason.ROLLBACK);
+        this.closeViewers(holder);
+
+        YmlInventory backup = snapshot.getBackup();
+        YmlInventory overflow = holder.setContents(snapshot.getActive());
+        if (!overflow.isEmpty())
+            backup.setContents(ArrayUtils.addAll(overflow.getContentsClone(), backup.getContentsClone()));
+        holder.setBackup(backup);
+        holder.setChanged(true);
+        this.saveBigInv(holder, true);
+
+        ConsoleMessage.debug(this.getClass(), plugin, "Rolled back BigInv of " + holder.getOwnerString() + " to snapshot #" + index);
+        return BigInvHandlerReturnType.SUCCESS;
+    }
+
     @Override
     public List<ItemStack> clearInventory(Player owner) {
         return this.clearInventory(owner, true);
@@ -246,14 +1472,70 @@ public class BigInvContainer implements BigInvHandler {
             return list;
         }
 
-        list.addAll(Arrays.asList(holder.getInventory().getContents()));
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.CLEAR, owner.getUniqueId()).setSlots(holder.getSize());
+        list.addAll(Arrays.asList(holder.getContents()));
+        this.recordSnapshot(holder, BigInvSnapshot.Reason.DEATH);
         holder.clearContents();
 
         if (saveClear) {
             this.saveInventory(owner, false);
         }
+        sample.stop();
 
         ConsoleMessage.debug(this.getClass(), plugin, "Cleared inventory for player " + ConsoleMessage.getPlayerString(owner));
         return list;
     }
+
+    private class Prefetch {
+
+        private final long time;
+        private final StoredBigInv data;
+
+        private Prefetch(long time, StoredBigInv data) {
+            this.time = time;
+            this.data = data;
+        }
+
+        private boolean isExpired(long now) {
+            return now - time > prefetchExpireMillis;
+        }
+    }
+
+    private static class ShutdownSave {
+
+        private final UUID ownerUUID;
+        private final String ownerString;
+        private final YmlInventory active;
+        private final YmlInventory backup;
+        private final boolean recordSnapshot;
+
+        private ShutdownSave(BigInvHolder holder, boolean recordSnapshot) {
+            this.ownerUUID = holder.getOwner().getUniqueId();
+            this.ownerString = holder.getOwnerString();
+            this.active = holder.getActiveSnapshot();
+            this.backup = holder.getBackup().deepClone();
+            this.recordSnapshot = recordSnapshot;
+        }
+    }
+
+    private static class OfflineHolder {
+
+        private final BigInvHolder holder;
+        private long lastAccess = System.currentTimeMillis();
+
+        private OfflineHolder(BigInvHolder holder) {
+            this.holder = holder;
+        }
+    }
+
+    private static class BulkLoad {
+
+        private final Player owner;
+        private final CompletableFuture<StoredBigInv> data;
+
+        private BulkLoad(Player owner, CompletableFuture<StoredBigInv> data) {
+            this.owner = owner;
+            this.data = data;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import jdk.jfr.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Java Flight Recorder events of the operations recorded by {@link BigInvStats}, so BigInv's share of a laggy tick
+ * shows up in a recording (e.g. started by -XX:StartFlightRecording or jcmd JFR.start).
+ * While no recording enables them, beginning and committing an event only checks whether it is enabled.
+ */
+@Category("BigInv")
+abstract class BigInvEvent extends Event {
+
+    @Label("Owner")
+    @Description("UUID of the BigInv's owner")
+    String owner;
+
+    @Label("Slots")
+    @Description("Slots of the BigInv which were loaded, saved, read or written (changed slots for delta writes)")
+    int slots;
+
+    @Label("Bytes")
+    @Description("Bytes which were read, written or (de)serialized")
+    @DataAmount
+    long bytes;
+
+    /**
+     * @param operation the operation
+     * @return a new event of the operation or null if it has no event
+     */
+    @Nullable
+    static BigInvEvent create(@NotNull BigInvStats.Operation operation) {
+        switch (operation) {
+            case LOAD:
+                return new Load();
+            case SAVE:
+                return new Save();
+            case RESTORE_BACKUP:
+                return new RestoreBackup();
+            case CLEAR:
+                return new Clear();
+            case READ:
+                return new Read();
+            case WRITE:
+                return new Write();
+            case WRITE_DELTA:
+                return new WriteDelta();
+            case SERIALIZE:
+                return new Serialize();
+            case DESERIALIZE:
+                return new Deserialize();
+            default:
+                return null;
+        }
+    }
+
+    @Name("biginv.Load")
+    @Label("BigInv Load")
+    @Description("Reading and applying the BigInv of a joining player on the server thread")
+    static class Load extends BigInvEvent {}
+
+    @Name("biginv.Save")
+    @Label("BigInv Save")
+    @Description("Copying a changed BigInv for saving (and writing it if async_saving is disabled)")
+    static class Save extends BigInvEvent {}
+
+    @Name("biginv.RestoreBackup")
+    @Label("BigInv Restore Backup")
+    @Description("Moving the backup of a BigInv into a player's inventory")
+    static class RestoreBackup extends BigInvEvent {}
+
+    @Name("biginv.Clear")
+    @Label("BigInv Clear")
+    @Description("Clearing a BigInv (e.g. on death)")
+    static class Clear extends BigInvEvent {}
+
+    @Name("biginv.Read")
+    @Label("BigInv Read")
+    @Description("Reading a BigInv from the store, including deserialization")
+    static class Read extends BigInvEvent {}
+
+    @Name("biginv.Write")
+    @Label("BigInv Write")
+    @Description("Writing a whole BigInv to the store, including serialization")
+    static class Write extends BigInvEvent {}
+
+    @Name("biginv.WriteDelta")
+    @Label("BigInv Write Delta")
+    @Description("Appending the changed slots of a BigInv to its delta log")
+    static class WriteDelta extends BigInvEvent {}
+
+    @Name("biginv.Serialize")
+    @Label("BigInv Serialize")
+    @Description("Encoding a BigInv as BINARY or YAML data")
+    static class Serialize extends BigInvEvent {}
+
+    @Name("biginv.Deserialize")
+    @Label("BigInv Deserialize")
+    @Description("Decoding BINARY or YAML data of a BigInv (BINARY items get decoded lazily later)")
+    static class Deserialize extends BigInvEvent {}
+}
@@ -0,0 +1,610 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConfigChecker;
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.dataHandler.DataHandler;
+import com.github.alexqp.commons.dataHandler.LoadSaveException;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes the player files in the playerdata directory.
+ * Files of the other storage format get converted to the configured one on their first read.
+ * <p>
+ * The files are sharded into two levels of sub-directories named after the first four characters of the UUID
+ * (e.g. playerdata/3f/a2/3fa2....dat), so no directory gets too large. Files of the former flat layout
+ * get moved into their sub-directory on their first read.
+ * <p>
+ * With delta saving, changed slots of BINARY files get appended to a log next to the file.
+ * The log starts with the checksum of the file it belongs to, so a log of an older file is never applied.
+ * It gets merged into the file (compacted) after a configurable amount of records and on every full write.
+ */
+class BigInvFileStore implements BigInvStore {
+
+    static final String activeInvName = "active";
+    static final String backupInvName = "backup";
+
+    private static final String directoryName = "playerdata";
+    private static final String[] configNames = {"format", "compression", "delta_saving", "compact_after", "deduplicate_items"};
+    private static final String deltaLogExtension = ".log";
+
+    private final JavaPlugin plugin;
+    private final BigInvStats stats;
+    private final File directory;
+    private final boolean hasFlatFiles;
+
+    private final StorageFormat format;
+    private final boolean compression;
+    private final boolean deduplicate;
+    private final boolean deltaSaving;
+    private final int compactAfter;
+
+    private final Map<UUID, DeltaLogState> deltaLogStates = new ConcurrentHashMap<>();
+
+    BigInvFileStore(@NotNull JavaPlugin plugin, @Nullable ConfigurationSection section, @NotNull BigInvStats stats) throws LoadSaveException {
+        this.plugin = plugin;
+        this.stats = stats;
+        new DataHandler(plugin, directoryName); // creates the directory
+        this.directory = new File(plugin.getDataFolder(), directoryName);
+        this.hasFlatFiles = this.containsFlatFiles();
+
+        ConfigChecker configChecker = new ConfigChecker(plugin);
+        StorageFormat format = StorageFormat.BINARY;
+        String formatName = format.name();
+        boolean compression = true;
+        boolean deduplicate = true;
+        boolean deltaSaving = true;
+        int compactAfter = 50;
+        if (section != null) {
+            formatName = configChecker.checkString(section, configNames[0], ConsoleErrorType.WARN, formatName);
+            compression = configChecker.checkBoolean(section, configNames[1], ConsoleErrorType.WARN, compression);
+            deltaSaving = configChecker.checkBoolean(section, configNames[2], ConsoleErrorType.WARN, deltaSaving);
+            compactAfter = section.getInt(configNames[3], compactAfter);
+            deduplicate = configChecker.checkBoolean(section, configNames[4], ConsoleErrorType.WARN, deduplicate);
+        }
+        if (compactAfter < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, configNames[3] + " must be at least 1. Using 1 instead.");
+            compactAfter = 1;
+        }
+        try {
+            format = StorageFormat.valueOf(String.valueOf(formatName).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Unknown storage format " + formatName + ". Using " + format.name() + " instead.");
+        }
+        this.format = format;
+        this.compression = compression;
+        this.deduplicate = deduplicate;
+        this.deltaSaving = deltaSaving && format == StorageFormat.BINARY;
+        this.compactAfter = compactAfter;
+        ConsoleMessage.debug(this.getClass(), plugin, "Using storage format " + format.name() + ", compression == " + compression + ", deduplicate == " + deduplicate + ", deltaSaving == " + this.deltaSaving);
+    }
+
+    /**
+     * Encodes a BigInv as BINARY data with the configured compression and item deduplication.
+     * @param ownerUUID the owner
+     * @param active the active inventory or null if none should be stored
+     * @param backup the backup
+     * @return the encoded bytes
+     * @throws IOException if an item contains values which cannot be encoded
+     */
+    byte[] encode(@NotNull UUID ownerUUID, @Nullable YmlInventory active, @NotNull YmlInventory backup) throws IOException {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.SERIALIZE, ownerUUID).setSlots(StoredBigInv.getSlots(active, backup));
+        byte[] data = BinaryInventoryCodec.encode(StoredBigInv.toSections(active, backup), compression, deduplicate);
+        sample.stop(data.length);
+        return data;
+    }
+
+    /**
+     * Decodes BINARY data created by {@link #encode(UUID, YmlInventory, YmlInventory)}. Items get decoded lazily.
+     * @param ownerUUID the owner
+     * @param data the encoded bytes
+     * @return the decoded sections
+     * @throws IOException if the data is corrupt
+     */
+    Map<String, YmlInventory> decode(@NotNull UUID ownerUUID, byte[] data) throws IOException {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.DESERIALIZE, ownerUUID);
+        Map<String, YmlInventory> sections = BinaryInventoryCodec.decodeLazily(data);
+        int slots = 0;
+        for (YmlInventory section : sections.values()) {
+            slots += section.getSize();
+        }
+        sample.setSlots(slots).stop(data.length);
+        return sections;
+    }
+
+    private File getShard(UUID ownerUUID) {
+        String name = ownerUUID.toString();
+        return new File(new File(directory, name.substring(0, 2)), name.substring(2, 4));
+    }
+
+    private File getFile(UUID ownerUUID, StorageFormat format) {
+        return new File(this.getShard(ownerUUID), ownerUUID.toString() + format.getFileExtension());
+    }
+
+    private File getDeltaLog(UUID ownerUUID) {
+        return new File(this.getShard(ownerUUID), ownerUUID.toString() + deltaLogExtension);
+    }
+
+    private static String[] getFileExtensions() {
+        return new String[] {StorageFormat.YAML.getFileExtension(), StorageFormat.BINARY.getFileExtension(), deltaLogExtension};
+    }
+
+    /**
+     * Only checks until the first player file is found, so the directory does not get listed completely.
+     */
+    private boolean containsFlatFiles() {
+        DirectoryStream.Filter<Path> filter = path -> {
+            String name = path.getFileName().toString();
+            return Arrays.stream(getFileExtensions()).anyMatch(name::endsWith) && Files.isRegularFile(path);
+        };
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), filter)) {
+            return stream.iterator().hasNext();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return true;
+        }
+    }
+
+    /**
+     * Moves the owner's files of the former flat layout into the owner's sub-directory.
+     */
+    private void migrateFlatFiles(UUID ownerUUID) {
+        if (!hasFlatFiles)
+            return;
+
+        String name = ownerUUID.toString();
+        File shard = this.getShard(ownerUUID);
+        for (String extension : getFileExtensions()) {
+            File flatFile = new File(directory, name + extension);
+            if (!flatFile.exists())
+                continue;
+
+            File file = new File(shard, flatFile.getName());
+            try {
+                Files.createDirectories(shard.toPath());
+                if (file.exists()) {
+                    ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Found " + flatFile.getName() + " in both layouts. Keeping the one in " + shard.getPath() + ".");
+                    Files.move(flatFile.toPath(), new File(flatFile.getPath() + ".old").toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.move(flatFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    ConsoleMessage.debug(this.getClass(), plugin, "Moved " + flatFile.getName() + " into " + shard.getPath());
+                }
+            } catch (IOException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not move " + flatFile.getName() + " into " + shard.getPath() + ". Printing stackTrace...");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Reads the stored BigInv of the given owner. Converts the file if it is stored in the other format.
+     * May be called from any thread, but not concurrently to a write for the same owner.
+     * @param ownerUUID the owner
+     * @return the stored data (empty if there is none)
+     */
+    @Override
+    public @NotNull StoredBigInv read(@NotNull UUID ownerUUID) {
+        this.migrateFlatFiles(ownerUUID);
+        File file = this.getFile(ownerUUID, format);
+        if (file.exists())
+            return this.read(ownerUUID, format, file, this.getDeltaLog(ownerUUID), true);
+
+        StorageFormat otherFormat = format == StorageFormat.YAML ? StorageFormat.BINARY : StorageFormat.YAML;
+        File otherFile = this.getFile(ownerUUID, otherFormat);
+        if (!otherFile.exists())
+            return StoredBigInv.empty();
+
+        StoredBigInv storedBigInv = this.read(ownerUUID, otherFormat, otherFile, this.getDeltaLog(ownerUUID), true);
+        if (otherFile.exists()) // unreadable files got moved aside and must not be replaced by an empty one.
+            this.convert(ownerUUID, storedBigInv, otherFormat);
+        return storedBigInv;
+    }
+
+    /**
+     * Finds the file like {@link #read(UUID)} would after moving it into its sub-directory.
+     * Files of the flat layout and of the other format are read where they are.
+     */
+    @Override
+    public @NotNull StoredBigInv peek(@NotNull UUID ownerUUID) {
+        String name = ownerUUID.toString();
+        File[] directories = hasFlatFiles ? new File[] {this.getShard(ownerUUID), directory} : new File[] {this.getShard(ownerUUID)};
+        StorageFormat otherFormat = format == StorageFormat.YAML ? StorageFormat.BINARY : StorageFormat.YAML;
+        for (StorageFormat fileFormat : new StorageFormat[] {format, otherFormat}) {
+            for (File fileDirectory : directories) {
+                File file = new File(fileDirectory, name + fileFormat.getFileExtension());
+                if (file.exists())
+                    return this.read(ownerUUID, fileFormat, file, new File(fileDirectory, name + deltaLogExtension), false);
+            }
+        }
+        return StoredBigInv.empty();
+    }
+
+    /**
+     * Writes the data in the configured format and deletes the file of the other format afterwards.
+     * If the old file cannot be deleted, the new one gets removed again, so there is always exactly one valid file.
+     */
+    private void convert(UUID ownerUUID, StoredBigInv storedBigInv, StorageFormat otherFormat) {
+        File file = this.getFile(ownerUUID, format);
+        try {
+            this.write(ownerUUID, storedBigInv.getActiveOrNull(), storedBigInv.getBackup());
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not convert file of " + ownerUUID + " to " + format.name() + ". Keeping the " + otherFormat.name() + " file. Printing stackTrace...");
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.delete(this.getFile(ownerUUID, otherFormat).toPath());
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not delete the " + otherFormat.name() + " file of " + ownerUUID + " after converting it. Keeping it instead of the " + format.name() + " file. Printing stackTrace...");
+            e.printStackTrace();
+            try {
+                Files.deleteIfExists(file.toPath());
+                deltaLogStates.remove(ownerUUID);
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+            return;
+        }
+
+        if (otherFormat == StorageFormat.BINARY) {
+            try {
+                Files.deleteIfExists(this.getDeltaLog(ownerUUID).toPath()); // gets deleted as outdated on the next read otherwise.
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        ConsoleMessage.debug(this.getClass(), plugin, "Converted file of " + ownerUUID + " from " + otherFormat.name() + " to " + format.name());
+    }
+
+    /**
+     * @param repair false to leave all files untouched and keep no state, e.g. for reads outside the owner's file operations.
+     *               Unreadable files are not moved aside and the delta log is neither shortened nor deleted then.
+     */
+    private StoredBigInv read(UUID ownerUUID, StorageFormat format, File file, File log, boolean repair) {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.READ, ownerUUID);
+        if (format == StorageFormat.YAML) {
+            YamlConfiguration ymlFile = new YamlConfiguration();
+            long readBytes;
+            try {
+                byte[] data = Files.readAllBytes(file.toPath());
+                BigInvStats.Sample deserializeSample = stats.start(BigInvStats.Operation.DESERIALIZE, ownerUUID);
+                ymlFile.loadFromString(new String(data, StandardCharsets.UTF_8));
+                deserializeSample.stop(data.length);
+                readBytes = data.length;
+            } catch (IOException | InvalidConfigurationException e) {
+                this.handleUnreadable(ownerUUID, file, repair, e);
+                return StoredBigInv.empty();
+            }
+            ConfigChecker configChecker = new ConfigChecker(plugin, ymlFile);
+            YmlInventory defYmlInv = new YmlInventory();
+
+            YmlInventory ymlInv = configChecker.checkSerializable(ymlFile, activeInvName, ConsoleErrorType.NONE, defYmlInv, false);
+            YmlInventory backupYmlInv = configChecker.checkSerializable(ymlFile, backupInvName, ConsoleErrorType.NONE, new YmlInventory(), false);
+            StoredBigInv storedBigInv = new StoredBigInv(ymlInv, backupYmlInv, ymlInv != defYmlInv);
+            sample.setSlots(storedBigInv.getSlots()).stop(readBytes);
+            return storedBigInv;
+        }
+
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            long bytes = data.length + log.length();
+            Map<String, YmlInventory> sections = this.decode(ownerUUID, data);
+            long checksum = checksum(data);
+            int records = this.replayDeltaLog(ownerUUID, log, checksum, sections, repair);
+            if (repair)
+                deltaLogStates.put(ownerUUID, new DeltaLogState(checksum, records));
+
+            StoredBigInv storedBigInv = StoredBigInv.fromSections(sections);
+            sample.setSlots(storedBigInv.getSlots()).stop(bytes);
+            return storedBigInv;
+        } catch (IOException | RuntimeException e) {
+            this.handleUnreadable(ownerUUID, file, repair, e);
+            return StoredBigInv.empty();
+        }
+    }
+
+    private void handleUnreadable(UUID ownerUUID, File file, boolean repair, Exception e) {
+        if (repair) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not read file of " + ownerUUID + ". It gets moved aside to prevent overwriting. Printing stackTrace...");
+            e.printStackTrace();
+            this.moveAside(file);
+        } else {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Could not read file of " + ownerUUID + ". It gets moved aside on its next load.");
+        }
+    }
+
+    /**
+     * Applies all valid records of the owner's delta log. A torn record at the end (crash while appending) gets cut off
+     * and an outdated log gets deleted, but only with repair.
+     * @return the amount of applied records
+     */
+    private int replayDeltaLog(UUID ownerUUID, File log, long baseChecksum, Map<String, YmlInventory> sections, boolean repair) throws IOException {
+        if (!log.exists())
+            return 0;
+
+        byte[] data = Files.readAllBytes(log.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < 8 || in.readLong() != baseChecksum) {
+            if (repair) {
+                ConsoleMessage.debug(this.getClass(), plugin, "Deleted outdated delta log of " + ownerUUID);
+                Files.delete(log.toPath());
+            }
+            return 0;
+        }
+
+        int records = 0;
+        int validLength = 8;
+        while (data.length - validLength >= 4) {
+            int length = in.readInt();
+            if (length < 0 || data.length - validLength - 4 < length + 8)
+                break;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            if (in.readLong() != checksum(record))
+                break;
+            BinaryInventoryCodec.applyDelta(record, sections);
+            records++;
+            validLength += 4 + length + 8;
+        }
+
+        if (repair && validLength < data.length) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Delta log of " + ownerUUID + " ended with an incomplete record which got removed.");
+            try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return records;
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private void moveAside(File file) {
+        try {
+            Files.move(file.toPath(), new File(file.getPath() + ".corrupt").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the whole BigInv of the given owner in the configured format.
+     * @param ownerUUID the owner
+     * @param active the active inventory or null if none should be stored
+     * @param backup the backup
+     * @throws IOException if the file could not be written
+     */
+    @Override
+    public void write(@NotNull UUID ownerUUID, @Nullable YmlInventory active, @NotNull YmlInventory backup) throws IOException {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.WRITE, ownerUUID).setSlots(StoredBigInv.getSlots(active, backup));
+        if (format == StorageFormat.YAML) {
+            BigInvStats.Sample serializeSample = stats.start(BigInvStats.Operation.SERIALIZE, ownerUUID).setSlots(StoredBigInv.getSlots(active, backup));
+            YamlConfiguration ymlFile = new YamlConfiguration();
+            ymlFile.set(activeInvName, active);
+            ymlFile.set(backupInvName, backup);
+            byte[] data = ymlFile.saveToString().getBytes(StandardCharsets.UTF_8);
+            serializeSample.stop(data.length);
+            this.writeAtomically(this.getFile(ownerUUID, format), data);
+            sample.stop(data.length);
+            return;
+        }
+
+        byte[] data = this.encode(ownerUUID, active, backup);
+        this.writeAtomically(this.getFile(ownerUUID, format), data);
+        Files.deleteIfExists(this.getDeltaLog(ownerUUID).toPath());
+        deltaLogStates.put(ownerUUID, new DeltaLogState(checksum(data), 0));
+        sample.stop(data.length);
+    }
+
+    /**
+     * @param ownerUUID the owner
+     * @return true if changed slots of the owner can be written by {@link #writeDelta(UUID, int, Map)}.
+     */
+    @Override
+    public boolean canWriteDelta(@NotNull UUID ownerUUID) {
+        return deltaSaving && deltaLogStates.containsKey(ownerUUID);
+    }
+
+    /**
+     * Appends the changed slots of the active inventory to the owner's delta log. Compacts the log if it got too long.
+     * @param ownerUUID the owner
+     * @param size the size of the active inventory
+     * @param slots the changed slots with their new items (null for empty slots)
+     * @throws IOException if there is no file to append to or the log could not be written
+     */
+    @Override
+    public void writeDelta(@NotNull UUID ownerUUID, int size, @NotNull Map<Integer, ItemStack> slots) throws IOException {
+        DeltaLogState state = deltaLogStates.get(ownerUUID);
+        if (state == null || !this.getFile(ownerUUID, format).exists())
+            throw new IOException("there is no file to append the delta of " + ownerUUID + " to");
+
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.WRITE_DELTA, ownerUUID).setSlots(slots.size());
+        byte[] record = BinaryInventoryCodec.encodeDelta(activeInvName, size, slots);
+        File log = this.getDeltaLog(ownerUUID);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (!log.exists())
+            out.writeLong(state.baseChecksum);
+        out.writeInt(record.length);
+        out.write(record);
+        out.writeLong(checksum(record));
+        out.flush();
+        Files.write(log.toPath(), bytes.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        state.records++;
+        sample.stop(bytes.size());
+
+        if (state.records >= compactAfter) {
+            StoredBigInv storedBigInv = this.read(ownerUUID);
+            this.write(ownerUUID, storedBigInv.getActiveOrNull(), storedBigInv.getBackup());
+            ConsoleMessage.debug(this.getClass(), plugin, "Compacted delta log of " + ownerUUID);
+        }
+    }
+
+    /**
+     * Forgets the delta log state of the owner. The next read restores it.
+     * @param ownerUUID the owner
+     */
+    @Override
+    public void release(@NotNull UUID ownerUUID) {
+        deltaLogStates.remove(ownerUUID);
+    }
+
+    /**
+     * Walks the sub-directories (and the flat layout) without reading any file.
+     */
+    @Override
+    public @NotNull Set<UUID> listOwners() throws IOException {
+        Set<UUID> owners = new HashSet<>();
+        try (Stream<Path> paths = Files.walk(directory.toPath(), 3)) {
+            paths.forEach(path -> {
+                String name = path.getFileName().toString();
+                for (StorageFormat format : StorageFormat.values()) {
+                    if (name.endsWith(format.getFileExtension())) {
+                        try {
+                            owners.add(UUID.fromString(name.substring(0, name.length() - format.getFileExtension().length())));
+                        } catch (IllegalArgumentException ignored) {} // not a player file
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return owners;
+    }
+
+    /**
+     * Writes the files one after another. Files are independent, so this is not atomic.
+     */
+    @Override
+    public void writeAll(@NotNull Map<UUID, StoredBigInv> bigInvs) throws IOException {
+        for (Map.Entry<UUID, StoredBigInv> entry : bigInvs.entrySet()) {
+            StoredBigInv storedBigInv = entry.getValue();
+            this.write(entry.getKey(), storedBigInv.getActiveOrNull(), storedBigInv.getBackup());
+        }
+    }
+
+    @Override
+    public boolean supportsParallelWrites() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        deltaLogStates.clear();
+    }
+
+    /**
+     * @param ownerUUID the owner
+     * @return true if there is a file of the owner in any format.
+     */
+    boolean exists(@NotNull UUID ownerUUID) {
+        this.migrateFlatFiles(ownerUUID);
+        for (StorageFormat format : StorageFormat.values()) {
+            if (this.getFile(ownerUUID, format).exists())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Imports the owner's file into another store and deletes it afterwards. Used by stores which replace the files.
+     * @param ownerUUID the owner
+     * @param target the store to import into
+     * @param targetName the name of the target for console messages
+     * @return the imported data (empty if there is no file)
+     */
+    @NotNull StoredBigInv importInto(@NotNull UUID ownerUUID, @NotNull BigInvStore target, @NotNull String targetName) {
+        if (!this.exists(ownerUUID))
+            return StoredBigInv.empty();
+
+        StoredBigInv storedBigInv = this.read(ownerUUID);
+        try {
+            target.write(ownerUUID, storedBigInv.getActiveOrNull(), storedBigInv.getBackup());
+            this.delete(ownerUUID);
+            ConsoleMessage.debug(this.getClass(), plugin, "Imported file of " + ownerUUID + " into " + targetName);
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not import file of " + ownerUUID + " into " + targetName + ". Printing stackTrace...");
+            e.printStackTrace();
+        }
+        return storedBigInv;
+    }
+
+    /**
+     * Deletes all files of the owner (e.g. after they got imported into another store).
+     * @param ownerUUID the owner
+     * @throws IOException if a file could not be deleted
+     */
+    void delete(@NotNull UUID ownerUUID) throws IOException {
+        for (StorageFormat format : StorageFormat.values()) {
+            Files.deleteIfExists(this.getFile(ownerUUID, format).toPath());
+        }
+        Files.deleteIfExists(this.getDeltaLog(ownerUUID).toPath());
+        deltaLogStates.remove(ownerUUID);
+    }
+
+    private void writeAtomically(File file, byte[] data) throws IOException {
+        Path target = file.toPath();
+        Path tmp = new File(file.getPath() + ".tmp").toPath();
+        Files.createDirectories(target.getParent());
+        try {
+            Files.write(tmp, data);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static class DeltaLogState {
+
+        private final long baseChecksum;
+        private int records;
+
+        private DeltaLogState(long baseChecksum, int records) {
+            this.baseChecksum = baseChecksum;
+            this.records = records;
+        }
+    }
+}
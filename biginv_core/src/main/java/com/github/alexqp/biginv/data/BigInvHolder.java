@@ -18,20 +18,29 @@
 
 package com.github.alexqp.biginv.data;
 
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import com.github.alexqp.commons.messages.MessageTranslator;
 import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.*;
 
 public class BigInvHolder implements InventoryHolder {
 
     // ALSO USED IN COMMANDS!!!
-    private static final String[] permissions = {"biginv.size.", "biginv.see", "biginv.see.other", "biginv.change", "biginv.change.other", "biginv.backup", "biginv.backup.other"};
+    private static final String[] permissions = {"biginv.size.", "biginv.see", "biginv.see.other", "biginv.change", "biginv.change.other", "biginv.backup", "biginv.backup.other", "biginv.pages."};
 
     public static List<String> getSeePermissions() {
         List<String> list = new ArrayList<>();
@@ -47,7 +56,34 @@ public class BigInvHolder implements InventoryHolder {
         return list;
     }
 
+    // the permissions checked for viewers (see, change and backup, each for own and other BigInvs)
+    private static final PermissionCache viewerPermissions = new PermissionCache(Arrays.copyOfRange(permissions, 1, 7), 5000);
+
+    /**
+     * Forgets the cached permissions of the viewer, e.g. because they quit or changed the world.
+     * @param viewerUUID the viewer
+     */
+    public static void invalidatePermissions(@NotNull UUID viewerUUID) {
+        viewerPermissions.invalidate(viewerUUID);
+    }
+
+    /**
+     * @param millis the time for which the permissions of viewers are cached (0 to check them on every click)
+     */
+    public static void setPermissionCacheTime(long millis) {
+        viewerPermissions.setExpireMillis(millis);
+    }
+
     private static int getAllowedInvSize(Player p) {
+        if (p.hasPermission(permissions[7] + "*")) {
+            return maxPages * pageCapacity;
+        }
+        for (int pages = maxPages; pages >= 2; pages--) {
+            if (p.hasPermission(permissions[7] + pages)) {
+                return pages * pageCapacity;
+            }
+        }
+
         int maxRows = 6;
         if (p.hasPermission(permissions[0] + "*")) {
             return maxRows * 9;
@@ -61,21 +97,36 @@ public class BigInvHolder implements InventoryHolder {
     }
 
     public static String invTitle = "BigInv";
+    public static String pageTitle = "BigInv %page%/%pages%";
+    public static String previousPageName = "Previous page";
+    public static String nextPageName = "Next page";
+    public static int maxPages = 10;
+
+    // marks the navigation items, as a name or material can be given to any item by anvils, commands or other plugins.
+    private static final NamespacedKey navigationKey = Objects.requireNonNull(NamespacedKey.fromString("biginv:navigation"));
+
+    // BigInvs with more than one page use the last row of every page for the navigation.
+    private static final int singlePageMaxSize = 54;
+    private static final int pageCapacity = 45;
+    private static final int previousPageSlot = 45;
+    private static final int nextPageSlot = 53;
 
-    private final Player owner;
-    private final int size;
-    private final Inventory inv;
+    private final OfflinePlayer owner;
+    private int size; // the storage slots of all pages
+    private Page[] pages;
+    private long lastSave = System.currentTimeMillis();
 
-    private boolean isChanged = false;
+    private YmlInventory backup = new YmlInventory();
 
-    private BigInvHolder(Player owner, int allowedSize) throws IllegalArgumentException {
+    private boolean isChanged = false; // everything changed, a full save is needed
+    private final BitSet changedSlots = new BitSet();
+
+    private BigInvHolder(OfflinePlayer owner, int allowedSize) throws IllegalArgumentException {
         this.owner = owner;
-        this.size = allowedSize;
-        if (allowedSize != 0) {
-            this.inv = Bukkit.createInventory(this, allowedSize, this.getInvTitle(owner));
-        } else {
+        if (allowedSize == 0) {
             throw new IllegalArgumentException("allowedSize must not be 0.");
         }
+        this.createPages(allowedSize);
     }
 
     @Nullable
@@ -86,15 +137,84 @@ public class BigInvHolder implements InventoryHolder {
         return null;
     }
 
-    private String getInvTitle(Player owner) {
-        return invTitle.replaceAll("%player%", owner.getName());
+    /**
+     * Creates a holder for a player who is not online. As permissions of offline players are unknown,
+     * the size is given by the stored inventory.
+     * @param owner the offline owner
+     * @param storedSize the size of the stored active inventory
+     * @return the holder
+     */
+    @NotNull
+    static BigInvHolder getOffline(@NotNull OfflinePlayer owner, int storedSize) {
+        if (storedSize > singlePageMaxSize)
+            return new BigInvHolder(owner, (storedSize + pageCapacity - 1) / pageCapacity * pageCapacity);
+        int rows = Math.max(1, Math.min(6, (storedSize + 8) / 9));
+        return new BigInvHolder(owner, rows * 9);
+    }
+
+    /**
+     * Replaces all pages by empty ones which are not materialized.
+     * @param size the storage slots of all pages
+     */
+    private void createPages(int size) {
+        this.size = size;
+        if (size <= singlePageMaxSize) {
+            this.pages = new Page[] {new Page(0, size)};
+            return;
+        }
+        this.pages = new Page[(size + pageCapacity - 1) / pageCapacity];
+        for (int i = 0; i < pages.length; i++) {
+            this.pages[i] = new Page(i, Math.min(pageCapacity, size - i * pageCapacity));
+        }
+    }
+
+    private boolean isPaged() {
+        return this.pages.length > 1;
+    }
+
+    /**
+     * @return the size the owner is allowed to have right now, 0 if the owner has no size permission.
+     *         The current size for offline owners, as their permissions are unknown.
+     */
+    int getAllowedSize() {
+        if (owner instanceof Player)
+            return getAllowedInvSize((Player) owner);
+        return this.size;
+    }
+
+    private String getInvTitle(OfflinePlayer owner, int page) {
+        String title = this.isPaged() ? pageTitle.replaceAll("%page%", String.valueOf(page + 1)).replaceAll("%pages%", String.valueOf(pages.length)) : invTitle;
+        return title.replaceAll("%player%", String.valueOf(owner.getName()));
     }
 
-    @NotNull public Player getOwner() {
+    /**
+     * @return the owner, which is a Player if the holder was loaded for an online owner.
+     */
+    @NotNull public OfflinePlayer getOwner() {
         return this.owner;
     }
 
+    /**
+     * @return a string describing the owner for console messages.
+     */
+    @NotNull public String getOwnerString() {
+        if (owner instanceof Player)
+            return ConsoleMessage.getPlayerString((Player) owner);
+        return owner.getName() + " (" + owner.getUniqueId() + ", offline)";
+    }
+
+    private boolean isOwner(Player viewer) {
+        return viewer.getUniqueId().equals(owner.getUniqueId());
+    }
+
     public boolean isChanged() {
+        return this.isChanged || !this.changedSlots.isEmpty();
+    }
+
+    /**
+     * @return true if the whole inventory (or the backup) changed, false if only single slots changed.
+     */
+    boolean isFullSaveNeeded() {
         return this.isChanged;
     }
 
@@ -102,62 +222,456 @@ public class BigInvHolder implements InventoryHolder {
         return this.size > 0;
     }
 
+    /**
+     * @param changed true marks the whole inventory as changed, false marks everything as saved.
+     */
     public void setChanged(boolean changed) {
         this.isChanged = changed;
+        if (changed) {
+            for (Page page : pages) {
+                if (page.inv != null)
+                    page.records = null; // only opened pages can be changed by players
+            }
+        } else {
+            this.changedSlots.clear();
+            this.lastSave = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return the time in millis when this holder was last marked as saved (or created).
+     */
+    long getLastSave() {
+        return this.lastSave;
+    }
+
+    /**
+     * Marks a single slot of a page as changed.
+     * @param inv the inventory of the page
+     * @param slot the slot index of the page's inventory
+     */
+    public void setSlotChanged(@NotNull Inventory inv, int slot) {
+        Page page = this.getPage(inv);
+        if (page != null && slot >= 0 && slot < page.capacity) {
+            page.records = null;
+            this.changedSlots.set(page.getOffset() + slot);
+        }
+    }
+
+    /**
+     * @param inv an inventory of this holder
+     * @param slot the slot index of the inventory
+     * @return true if the slot belongs to the navigation row of a page and can never hold items of the owner.
+     */
+    public boolean isNavigationSlot(@NotNull Inventory inv, int slot) {
+        Page page = this.getPage(inv);
+        return page != null && this.isPaged() && slot >= page.capacity && slot < inv.getSize();
+    }
+
+    /**
+     * @param inv an inventory of this holder
+     * @param slot the clicked navigation slot
+     * @return the inventory of the page the slot leads to or null if it does not lead anywhere.
+     */
+    public @Nullable Inventory getNavigationTarget(@NotNull Inventory inv, int slot) {
+        Page page = this.getPage(inv);
+        if (page == null || !this.isPaged())
+            return null;
+        if (slot == previousPageSlot && page.index > 0)
+            return pages[page.index - 1].materialize();
+        if (slot == nextPageSlot && page.index < pages.length - 1)
+            return pages[page.index + 1].materialize();
+        return null;
+    }
+
+    private @Nullable Page getPage(Inventory inv) {
+        for (Page page : pages) {
+            if (page.inv == inv)
+                return page;
+        }
+        return null;
+    }
+
+    /**
+     * Copies the items of all changed slots, so that they can be serialized by another thread.
+     * Only the pages of changed slots get decoded.
+     * @return the changed slots with their current items (null for empty slots).
+     */
+    @NotNull Map<Integer, ItemStack> getChangedSlotsSnapshot() {
+        Map<Integer, ItemStack> slots = new LinkedHashMap<>();
+        ItemStack[] items = null;
+        int itemsPage = -1;
+        for (int slot = this.changedSlots.nextSetBit(0); slot >= 0 && slot < this.size; slot = this.changedSlots.nextSetBit(slot + 1)) {
+            int pageIndex = slot / pages[0].capacity;
+            if (pageIndex != itemsPage) {
+                items = pages[pageIndex].getItemsSnapshot();
+                itemsPage = pageIndex;
+            }
+            slots.put(slot, items[slot - pages[pageIndex].getOffset()]);
+        }
+        return slots;
+    }
+
+    /**
+     * Changes the size of the inventory while keeping its contents. Items of removed slots get moved into
+     * free space of the remaining slots if possible. Viewers must be closed before, as the Bukkit inventories get re-created.
+     * @param newSize the new size (a multiple of 9 greater than 0)
+     * @return the items which did not fit anymore.
+     */
+    @NotNull List<ItemStack> resize(int newSize) {
+        if (newSize <= 0)
+            throw new IllegalArgumentException("newSize must be greater than 0.");
+
+        ItemStack[] contents = this.getContents();
+        this.createPages(newSize);
+        ItemStack[] kept = Arrays.copyOf(contents, this.size);
+        List<ItemStack> overflow = addItems(kept, Arrays.copyOfRange(contents, Math.min(this.size, contents.length), contents.length));
+        this.setItems(kept);
+        this.isChanged = true;
+        return overflow;
+    }
+
+    /**
+     * Adds the items to the contents like Inventory#addItem: similar stacks get filled up first, then free slots.
+     * @param contents the contents which get modified
+     * @param items the items to add (may contain null)
+     * @return the items which did not fit
+     */
+    private static List<ItemStack> addItems(ItemStack[] contents, ItemStack[] items) {
+        List<ItemStack> left = new ArrayList<>();
+        for (ItemStack item : items) {
+            if (item == null)
+                continue;
+
+            int amount = item.getAmount();
+            for (int slot = 0; slot < contents.length && amount > 0; slot++) {
+                if (contents[slot] != null && contents[slot].isSimilar(item) && contents[slot].getAmount() < contents[slot].getMaxStackSize()) {
+                    int moved = Math.min(amount, contents[slot].getMaxStackSize() - contents[slot].getAmount());
+                    contents[slot].setAmount(contents[slot].getAmount() + moved);
+                    amount -= moved;
+                }
+            }
+            for (int slot = 0; slot < contents.length && amount > 0; slot++) {
+                if (contents[slot] == null) {
+                    contents[slot] = item.clone();
+                    contents[slot].setAmount(amount);
+                    amount = 0;
+                }
+            }
+            if (amount > 0) {
+                ItemStack rest = item.clone();
+                rest.setAmount(amount);
+                left.add(rest);
+            }
+        }
+        return left;
+    }
+
+    int getSize() {
+        return this.size;
+    }
+
+    boolean hasViewers() {
+        for (Page page : pages) {
+            if (page.inv != null && !page.inv.getViewers().isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the viewers of all pages.
+     */
+    @NotNull List<HumanEntity> getViewers() {
+        List<HumanEntity> viewers = new ArrayList<>();
+        for (Page page : pages) {
+            if (page.inv != null)
+                viewers.addAll(page.inv.getViewers());
+        }
+        return viewers;
+    }
+
+    /**
+     * Drops the Bukkit inventories of all pages which nobody viewed for the given time and only keeps their encoded contents.
+     * @param now the current time in millis
+     * @param idleMillis the time without viewers after which the inventory of a page gets dropped
+     * @return the amount of dropped inventories
+     */
+    int dematerializeIfIdle(long now, long idleMillis) {
+        int dropped = 0;
+        for (Page page : pages) {
+            if (page.dematerializeIfIdle(now, idleMillis))
+                dropped++;
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the current contents of all pages. Empty slots are null.
+     */
+    @NotNull ItemStack[] getContents() {
+        ItemStack[] contents = new ItemStack[this.size];
+        for (Page page : pages) {
+            System.arraycopy(page.getItems(), 0, contents, page.getOffset(), page.capacity);
+        }
+        return contents;
+    }
+
+    /**
+     * Distributes the items over the pages.
+     * @param contents the items of all pages, of length size
+     */
+    private void setItems(ItemStack[] contents) {
+        for (Page page : pages) {
+            page.setItems(Arrays.copyOfRange(contents, page.getOffset(), page.getOffset() + page.capacity));
+        }
     }
 
     /**
      * Sets the possible contents into the inventory hold by this BigInvHolder.
+     * Contents which are still encoded and fit get distributed over the pages without decoding them.
      * @param ymlInventory the ymlInventory from which the contents get pasted.
      * @return a new ymlInventory containing the backup contents. (BigInvHolder isChanged for none empty backups)
      */
     @NotNull YmlInventory setContents(final YmlInventory ymlInventory) {
         ItemStack[] backupContents = {};
         if (ymlInventory != null) {
+            byte[][] records = ymlInventory.getEncodedContents();
+            if (records != null && records.length <= this.size && !this.isMaterialized()) {
+                for (Page page : pages) {
+                    int from = Math.min(page.getOffset(), records.length);
+                    page.records = Arrays.copyOf(Arrays.copyOfRange(records, from, Math.min(from + page.capacity, records.length)), page.capacity);
+                }
+                return new YmlInventory(backupContents);
+            }
+
             ItemStack[] contents = ymlInventory.getContentsClone();
-            this.inv.setStorageContents(Arrays.copyOfRange(contents, 0, this.inv.getSize()));
+            ItemStack[] kept = Arrays.copyOf(contents, this.size);
             if (contents.length > this.size) {
-                backupContents = Arrays.copyOfRange(contents, this.size, contents.length);
                 this.isChanged = true;
+                backupContents = addItems(kept, Arrays.copyOfRange(contents, this.size, contents.length)).toArray(new ItemStack[0]);
+            }
+            this.setItems(kept);
+        }
+        return new YmlInventory(backupContents);
+    }
 
-                List<ItemStack> backupContentsList = new ArrayList<>(Arrays.asList(backupContents));
-                backupContentsList.removeIf(Objects::isNull);
+    private boolean isMaterialized() {
+        for (Page page : pages) {
+            if (page.inv != null)
+                return true;
+        }
+        return false;
+    }
 
-                Map<Integer, ItemStack> notAdded = this.inv.addItem(backupContentsList.toArray(new ItemStack[0]));
-                backupContents = notAdded.values().toArray(new ItemStack[0]);
+    /**
+     * Copies the contents, so that they can be serialized by another thread.
+     * Pages which did not change since they were loaded keep their encoded items, so they get neither decoded nor encoded again.
+     * @return a copy of the current contents.
+     */
+    @NotNull YmlInventory getActiveSnapshot() {
+        byte[][] records = new byte[this.size][];
+        ItemStack[] contents = new ItemStack[this.size];
+        for (Page page : pages) {
+            if (page.records != null) {
+                System.arraycopy(page.records, 0, records, page.getOffset(), page.capacity);
+            } else {
+                System.arraycopy(page.getItemsSnapshot(), 0, contents, page.getOffset(), page.capacity);
             }
         }
-        return new YmlInventory(backupContents);
+        return new YmlInventory(records, contents);
+    }
+
+    /**
+     * @return the backup which is kept in memory as long as this holder is loaded.
+     */
+    @NotNull YmlInventory getBackup() {
+        return this.backup;
+    }
+
+    void setBackup(@NotNull YmlInventory backup) {
+        this.backup = backup;
     }
 
     void clearContents() {
-        this.inv.setStorageContents(new ItemStack[0]);
+        for (Page page : pages) {
+            page.setItems(new ItemStack[page.capacity]);
+        }
         this.isChanged = true;
     }
 
+    /**
+     * Checks the permissions uncached, so that every open uses the current permissions of the viewer.
+     */
     boolean getCanOpen(Player viewer) {
-        if (viewer.hasPermission(permissions[1])) {
-            return viewer.equals(owner) || viewer.hasPermission(permissions[2]);
-        }
-        return false;
+        invalidatePermissions(viewer.getUniqueId());
+        return this.hasViewerPermission(viewer, 0);
     }
 
     public boolean getCanChange(Player viewer) {
-        if (viewer.hasPermission(permissions[3])) {
-            return viewer.equals(owner) || viewer.hasPermission(permissions[4]);
-        }
-        return false;
+        return this.hasViewerPermission(viewer, 2);
     }
 
     boolean getCanRestoreBackup(Player viewer) {
-        if (viewer.hasPermission(permissions[5])) {
-            return viewer.equals(owner) || viewer.hasPermission(permissions[6]);
+        return this.hasViewerPermission(viewer, 4);
+    }
+
+    /**
+     * @param permission the index of the own permission in viewerPermissions, the other permission follows it.
+     */
+    private boolean hasViewerPermission(Player viewer, int permission) {
+        if (viewerPermissions.hasPermission(viewer, permission)) {
+            return this.isOwner(viewer) || viewerPermissions.hasPermission(viewer, permission + 1);
         }
         return false;
     }
 
+    /**
+     * @return the Bukkit inventory of the first page, which gets created from the encoded contents on the first call.
+     */
     @Override
     public @NotNull Inventory getInventory() {
-        return this.inv;
+        return pages[0].materialize();
+    }
+
+    private static ItemStack createNavigationItem(Material material, String name) {
+        ItemStack item = new ItemStack(material);
+        ItemMeta meta = item.getItemMeta();
+        if (meta != null) {
+            meta.setDisplayName(MessageTranslator.translateBukkitColorCodes(name));
+            meta.getPersistentDataContainer().set(navigationKey, PersistentDataType.BYTE, (byte) 1);
+            item.setItemMeta(meta);
+        }
+        return item;
+    }
+
+    /**
+     * Navigation items never belong to a player. If one ends up outside the navigation row (e.g. by a bug), it should be removed.
+     * Only items of the navigation materials are checked further, so other clicks do not copy any item meta.
+     * @param item the item (may be null)
+     * @return true if the item is tagged as a navigation item.
+     */
+    public static boolean isNavigationItem(@Nullable ItemStack item) {
+        if (item == null || (item.getType() != Material.GRAY_STAINED_GLASS_PANE && item.getType() != Material.ARROW) || !item.hasItemMeta())
+            return false;
+        ItemMeta meta = item.getItemMeta();
+        return meta != null && meta.getPersistentDataContainer().has(navigationKey, PersistentDataType.BYTE);
+    }
+
+    /**
+     * One page of the BigInv. Its Bukkit inventory only exists while it is needed,
+     * otherwise its items are kept encoded and only get decoded when the page is opened.
+     */
+    private class Page {
+
+        private final int index;
+        private final int capacity; // the storage slots, the navigation row is not included
+        private Inventory inv;
+        private byte[][] records; // the encoded items, null if they changed since the inventory was created
+        private long lastUse = System.currentTimeMillis();
+
+        private Page(int index, int capacity) {
+            this.index = index;
+            this.capacity = capacity;
+            this.records = new byte[capacity][];
+        }
+
+        private int getOffset() {
+            return index * pages[0].capacity;
+        }
+
+        private Inventory materialize() {
+            if (this.inv == null) {
+                int invSize = isPaged() ? singlePageMaxSize : capacity;
+                this.inv = Bukkit.createInventory(BigInvHolder.this, invSize, getInvTitle(owner, index));
+                ItemStack[] contents = Arrays.copyOf(this.decodeRecords(), invSize);
+                if (isPaged())
+                    this.addNavigation(contents);
+                this.inv.setStorageContents(contents);
+            }
+            this.lastUse = System.currentTimeMillis();
+            return this.inv;
+        }
+
+        private void addNavigation(ItemStack[] contents) {
+            // the tag keeps items of players from being similar to the navigation items, so they never stack onto them.
+            ItemStack filler = createNavigationItem(Material.GRAY_STAINED_GLASS_PANE, "&8 ");
+            for (int slot = capacity; slot < contents.length; slot++) {
+                contents[slot] = filler.clone();
+            }
+            if (index > 0)
+                contents[previousPageSlot] = createNavigationItem(Material.ARROW, previousPageName);
+            if (index < pages.length - 1)
+                contents[nextPageSlot] = createNavigationItem(Material.ARROW, nextPageName);
+        }
+
+        private ItemStack[] decodeRecords() {
+            try {
+                return BinaryInventoryCodec.decodeItems(records);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not decode page " + (index + 1) + " of " + getOwnerString(), e);
+            }
+        }
+
+        /**
+         * @return the current storage items. They are copies if the page is not materialized.
+         */
+        private ItemStack[] getItems() {
+            if (this.inv == null)
+                return this.decodeRecords();
+            return Arrays.copyOf(this.inv.getStorageContents(), capacity);
+        }
+
+        /**
+         * @return a deep copy of the current storage items.
+         */
+        private ItemStack[] getItemsSnapshot() {
+            if (this.inv == null)
+                return this.decodeRecords(); // already a copy
+            ItemStack[] items = this.getItems();
+            for (int i = 0; i < items.length; i++) {
+                if (items[i] != null)
+                    items[i] = items[i].clone();
+            }
+            return items;
+        }
+
+        private void setItems(ItemStack[] items) {
+            if (this.inv == null) {
+                try {
+                    this.records = BinaryInventoryCodec.encodeItems(items);
+                    return;
+                } catch (IOException e) {
+                    // then the items are kept by the inventory.
+                    this.records = new byte[capacity][];
+                    this.materialize();
+                }
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                this.inv.setItem(slot, items[slot]);
+            }
+            this.records = null;
+        }
+
+        private boolean dematerializeIfIdle(long now, long idleMillis) {
+            if (this.inv == null)
+                return false;
+            if (!this.inv.getViewers().isEmpty()) {
+                this.lastUse = now;
+                return false;
+            }
+            if (now - this.lastUse < idleMillis)
+                return false;
+
+            if (this.records == null) {
+                try {
+                    this.records = BinaryInventoryCodec.encodeItems(this.getItems());
+                } catch (IOException e) {
+                    return false; // keep the inventory, the items are not lost.
+                }
+            }
+            this.inv = null;
+            return true;
+        }
     }
 }
@@ -0,0 +1,450 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Appends all BigInvs as records to a few large segment files in the pack directory.
+ * The location of the newest record of every owner is kept in memory and rebuilt by scanning the segments on startup.
+ * <p>
+ * A record consists of the owner's UUID, the payload length, the CRC32 of the payload and the BINARY payload.
+ * Records which got superseded stay in their segment until the compactor copies the live records of a segment
+ * with mostly superseded records to the end of the newest segment and deletes it.
+ * Player files which are still in the playerdata directory get imported on their first read.
+ */
+class BigInvPackStore implements BigInvStore {
+
+    private static final String directoryName = "pack";
+    private static final String segmentPrefix = "segment-";
+    private static final String segmentExtension = ".pack";
+    private static final String segmentSizeConfigName = "pack_segment_size";
+
+    private static final int headerLength = 8 + 8 + 4 + 8;
+    private static final double compactLiveRatio = 0.5;
+    private static final long compactIntervalMinutes = 10;
+
+    private final JavaPlugin plugin;
+    private final BigInvFileStore fileStore;
+    private final long segmentMaxBytes;
+    private final File directory;
+
+    private final Map<UUID, RecordLocation> index = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock(); // the write lock is needed to remove a segment
+    private final Object appendLock = new Object(); // guards appends, activeSegment and the byte counts of all segments
+    private Segment activeSegment;
+
+    private final ScheduledExecutorService compactor;
+    private final BigInvStats stats;
+
+    BigInvPackStore(@NotNull JavaPlugin plugin, @NotNull BigInvFileStore fileStore, @Nullable ConfigurationSection section, @NotNull BigInvStats stats) throws IOException {
+        this.plugin = plugin;
+        this.fileStore = fileStore;
+        this.stats = stats;
+        this.directory = new File(plugin.getDataFolder(), directoryName);
+
+        long segmentSizeMegabytes = 64;
+        if (section != null)
+            segmentSizeMegabytes = section.getLong(segmentSizeConfigName, segmentSizeMegabytes);
+        if (segmentSizeMegabytes < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, segmentSizeConfigName + " must be at least 1. Using 64 instead.");
+            segmentSizeMegabytes = 64;
+        }
+        this.segmentMaxBytes = segmentSizeMegabytes * 1024 * 1024;
+
+        Files.createDirectories(directory.toPath());
+        long start = System.currentTimeMillis();
+        this.loadSegments();
+        ConsoleMessage.debug(this.getClass(), plugin, "Indexed " + index.size() + " BigInvs in " + segments.size() + " segments in " + (System.currentTimeMillis() - start) + "ms");
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, plugin.getName() + "-Compactor"));
+        this.compactor.scheduleWithFixedDelay(this::compact, compactIntervalMinutes, compactIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    private File getSegmentFile(int id) {
+        return new File(directory, String.format("%s%06d%s", segmentPrefix, id, segmentExtension));
+    }
+
+    private void loadSegments() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(segmentPrefix) && name.endsWith(segmentExtension));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    ids.add(Integer.parseInt(name.substring(segmentPrefix.length(), name.length() - segmentExtension.length())));
+                } catch (NumberFormatException e) {
+                    ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Ignoring unknown file " + name + " in the pack directory.");
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        for (int i = 0; i < ids.size(); i++) {
+            Segment segment = new Segment(ids.get(i));
+            segments.put(segment.id, segment);
+            this.scanSegment(segment, i == ids.size() - 1);
+        }
+        activeSegment = ids.isEmpty() ? this.createSegment(1) : segments.get(ids.get(ids.size() - 1));
+    }
+
+    /**
+     * Indexes all records of the segment. Newer records (in later segments or later in a segment) supersede older ones.
+     * @param isLast true for the newest segment, whose incomplete record at the end (crash while appending) gets cut off.
+     */
+    private void scanSegment(Segment segment, boolean isLast) throws IOException {
+        long size = segment.channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        while (size - position >= headerLength) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            UUID ownerUUID = new UUID(header.getLong(), header.getLong());
+            int length = header.getInt();
+            long checksum = header.getLong();
+            if (length < 0 || size - position - headerLength < length)
+                break;
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, position + headerLength);
+            if (checksum(payload.array()) != checksum)
+                break;
+
+            this.putLocation(ownerUUID, new RecordLocation(segment.id, position, length));
+            position += headerLength + length;
+        }
+        segment.totalBytes = position;
+
+        if (position < size) {
+            if (isLast) {
+                ConsoleMessage.send(ConsoleErrorType.WARN, plugin, segment.file.getName() + " ended with an incomplete record which got removed.");
+                segment.channel.truncate(position);
+            } else {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, segment.file.getName() + " contains a corrupted record at " + position + ". The records after it are ignored.");
+            }
+        }
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = new Segment(id);
+        segments.put(id, segment);
+        ConsoleMessage.debug(this.getClass(), plugin, "Created " + segment.file.getName());
+        return segment;
+    }
+
+    /**
+     * Updates the index and the live byte counts. Must be called while holding the appendLock (or during startup).
+     */
+    private void putLocation(UUID ownerUUID, RecordLocation location) {
+        RecordLocation previous = index.put(ownerUUID, location);
+        if (previous != null) {
+            Segment previousSegment = segments.get(previous.segmentId);
+            if (previousSegment != null)
+                previousSegment.liveBytes -= headerLength + previous.length;
+        }
+        segments.get(location.segmentId).liveBytes += headerLength + location.length;
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("unexpected end of segment");
+        }
+    }
+
+    @Override
+    public @NotNull StoredBigInv read(@NotNull UUID ownerUUID) {
+        return this.read(ownerUUID, true);
+    }
+
+    /**
+     * Player files which were not imported yet are read where they are and a corrupt record is not copied.
+     */
+    @Override
+    public @NotNull StoredBigInv peek(@NotNull UUID ownerUUID) {
+        return this.read(ownerUUID, false);
+    }
+
+    private StoredBigInv read(UUID ownerUUID, boolean repair) {
+        if (!index.containsKey(ownerUUID))
+            return repair ? fileStore.importInto(ownerUUID, this, "the pack store") : fileStore.peek(ownerUUID);
+
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.READ, ownerUUID);
+        byte[] payload;
+        try {
+            payload = this.readPayload(ownerUUID);
+        } catch (IOException e) {
+            // an empty result would get written later and supersede the record, so nothing must be returned.
+            throw new IllegalStateException("could not read BigInv of " + ownerUUID + " from the pack store", e);
+        }
+
+        try {
+            StoredBigInv storedBigInv = StoredBigInv.fromSections(fileStore.decode(ownerUUID, payload));
+            sample.setSlots(storedBigInv.getSlots()).stop(payload.length);
+            return storedBigInv;
+        } catch (IOException | RuntimeException e) {
+            if (!repair) {
+                ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Could not read BigInv of " + ownerUUID + ". It gets copied aside on its next load.");
+                return StoredBigInv.empty();
+            }
+            File corruptFile = new File(directory, ownerUUID + ".corrupt");
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not read BigInv of " + ownerUUID + ". It gets copied to " + corruptFile.getName() + ". Printing stackTrace...");
+            e.printStackTrace();
+            try {
+                Files.write(corruptFile.toPath(), payload);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            return StoredBigInv.empty();
+        }
+    }
+
+    /**
+     * Reads the payload of the owner's newest record. Reads of different owners may run concurrently.
+     */
+    private byte[] readPayload(UUID ownerUUID) throws IOException {
+        segmentLock.readLock().lock();
+        try {
+            RecordLocation location = index.get(ownerUUID);
+            Segment segment = segments.get(location.segmentId);
+            ByteBuffer header = ByteBuffer.allocate(headerLength);
+            readFully(segment.channel, header, location.position);
+            header.position(8 + 8 + 4);
+            long checksum = header.getLong();
+
+            ByteBuffer payload = ByteBuffer.allocate(location.length);
+            readFully(segment.channel, payload, location.position + headerLength);
+            if (checksum(payload.array()) != checksum)
+                throw new IOException("checksum mismatch in " + segment.file.getName() + " at " + location.position);
+            return payload.array();
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the active segment and points the index to it. Must be called while holding the appendLock.
+     */
+    private void append(UUID ownerUUID, byte[] payload) throws IOException {
+        if (activeSegment.totalBytes > 0 && activeSegment.totalBytes + headerLength + payload.length > segmentMaxBytes) {
+            activeSegment.channel.force(false);
+            activeSegment = this.createSegment(activeSegment.id + 1);
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(headerLength + payload.length);
+        record.putLong(ownerUUID.getMostSignificantBits()).putLong(ownerUUID.getLeastSignificantBits());
+        record.putInt(payload.length).putLong(checksum(payload)).put(payload);
+        record.flip();
+
+        long position = activeSegment.totalBytes;
+        while (record.hasRemaining()) {
+            activeSegment.channel.write(record, position + record.position());
+        }
+        activeSegment.totalBytes += record.limit();
+        this.putLocation(ownerUUID, new RecordLocation(activeSegment.id, position, payload.length));
+    }
+
+    @Override
+    public void write(@NotNull UUID ownerUUID, @Nullable YmlInventory active, @NotNull YmlInventory backup) throws IOException {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.WRITE, ownerUUID).setSlots(StoredBigInv.getSlots(active, backup));
+        byte[] payload = fileStore.encode(ownerUUID, active, backup);
+        synchronized (appendLock) {
+            this.append(ownerUUID, payload);
+        }
+        sample.stop(payload.length);
+    }
+
+    /**
+     * Appends all records at once and forces them to disk.
+     */
+    @Override
+    public void writeAll(@NotNull Map<UUID, StoredBigInv> bigInvs) throws IOException {
+        Map<UUID, byte[]> payloads = new LinkedHashMap<>();
+        for (Map.Entry<UUID, StoredBigInv> entry : bigInvs.entrySet()) {
+            StoredBigInv storedBigInv = entry.getValue();
+            payloads.put(entry.getKey(), fileStore.encode(entry.getKey(), storedBigInv.getActiveOrNull(), storedBigInv.getBackup()));
+        }
+
+        synchronized (appendLock) {
+            for (Map.Entry<UUID, byte[]> entry : payloads.entrySet()) {
+                this.append(entry.getKey(), entry.getValue());
+            }
+            activeSegment.channel.force(false);
+        }
+    }
+
+    /**
+     * Copies the live records of segments which mostly consist of superseded records to the active segment
+     * and deletes those segments afterwards. Runs on the compactor thread.
+     */
+    private void compact() {
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (appendLock) {
+            for (Segment segment : segments.values()) {
+                if (segment != activeSegment && segment.liveBytes < segment.totalBytes * compactLiveRatio)
+                    candidates.add(segment);
+            }
+        }
+
+        for (Segment segment : candidates) {
+            try {
+                int moved = 0;
+                for (Map.Entry<UUID, RecordLocation> entry : index.entrySet()) {
+                    if (entry.getValue().segmentId != segment.id)
+                        continue;
+                    synchronized (appendLock) {
+                        // a newer record could have been written in the meantime.
+                        if (index.get(entry.getKey()) != entry.getValue())
+                            continue;
+                        this.append(entry.getKey(), this.readPayload(entry.getKey()));
+                        moved++;
+                    }
+                }
+                synchronized (appendLock) {
+                    activeSegment.channel.force(false);
+                }
+
+                segmentLock.writeLock().lock();
+                try {
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                    Files.delete(segment.file.toPath());
+                } finally {
+                    segmentLock.writeLock().unlock();
+                }
+                ConsoleMessage.debug(this.getClass(), plugin, "Compacted " + segment.file.getName() + " by moving " + moved + " live records");
+            } catch (IOException | RuntimeException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not compact " + segment.file.getName() + ". Printing stackTrace...");
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false, because all records get appended to the same segment.
+     */
+    @Override
+    public boolean supportsParallelWrites() {
+        return false;
+    }
+
+    /**
+     * @return false, records are always written as a whole.
+     */
+    @Override
+    public boolean canWriteDelta(@NotNull UUID ownerUUID) {
+        return false;
+    }
+
+    @Override
+    public void writeDelta(@NotNull UUID ownerUUID, int size, @NotNull Map<Integer, ItemStack> slots) throws IOException {
+        throw new IOException("the pack store does not support delta saving");
+    }
+
+    @Override
+    public @NotNull Set<UUID> listOwners() throws IOException {
+        Set<UUID> owners = fileStore.listOwners();
+        owners.addAll(index.keySet());
+        return owners;
+    }
+
+    @Override
+    public void release(@NotNull UUID ownerUUID) {}
+
+    @Override
+    public void close() {
+        compactor.shutdown(); // an interrupt would close the channel the compactor is using.
+        try {
+            if (!compactor.awaitTermination(10, TimeUnit.SECONDS))
+                ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "The pack compactor did not stop in time.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (appendLock) {
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.channel.force(false);
+                    segment.channel.close();
+                } catch (IOException e) {
+                    ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not close " + segment.file.getName() + ". Printing stackTrace...");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class Segment {
+
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long totalBytes;
+        private long liveBytes;
+
+        private Segment(int id) throws IOException {
+            this.id = id;
+            this.file = getSegmentFile(id);
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    private static class RecordLocation {
+
+        private final int segmentId;
+        private final long position;
+        private final int length;
+
+        private RecordLocation(int segmentId, long position, int length) {
+            this.segmentId = segmentId;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Describes the BigInvs which hold items matching a query of the search index.
+ */
+public class BigInvSearchResult {
+
+    private final int ownerCount;
+    private final Map<UUID, List<Integer>> slots;
+    private final boolean complete;
+
+    BigInvSearchResult(int ownerCount, @NotNull Map<UUID, List<Integer>> slots, boolean complete) {
+        this.ownerCount = ownerCount;
+        this.slots = slots;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the amount of all matching owners, which may be more than listed by {@link #getSlots()}.
+     */
+    public int getOwnerCount() {
+        return ownerCount;
+    }
+
+    /**
+     * Slots of the backup are negative: -1 is the first slot of the backup, -2 the second and so on.
+     * @return the matching slots of the first owners.
+     */
+    public @NotNull Map<UUID, List<Integer>> getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return false if the index is still being loaded or rebuilt, so some owners may be missing.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Describes one snapshot of a BigInv's history.
+ */
+public class BigInvSnapshot {
+
+    public enum Reason {
+        SAVE,
+        DEATH,
+        ROLLBACK,
+        BULK,
+    }
+
+    private final int index;
+    private final long time;
+    private final Reason reason;
+    private final int itemCount;
+
+    BigInvSnapshot(int index, long time, @NotNull Reason reason, int itemCount) {
+        this.index = index;
+        this.time = time;
+        this.reason = reason;
+        this.itemCount = itemCount;
+    }
+
+    /**
+     * @return the index used for rollbacks (1 is the newest snapshot).
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public @NotNull Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return the amount of non-empty slots in the active inventory and the backup.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stores all BigInvs as BINARY blobs in one SQLite database (using the driver shipped with the server).
+ * Player files which are still in the playerdata directory get imported on their first read.
+ */
+class BigInvSqlStore implements BigInvStore {
+
+    private static final String databaseName = "biginv.db";
+
+    private final JavaPlugin plugin;
+    private final BigInvFileStore fileStore;
+    private final BigInvStats stats;
+
+    private final Connection connection;
+    private final PreparedStatement selectStatement;
+    private final PreparedStatement upsertStatement;
+    private final PreparedStatement moveAsideStatement;
+    private final PreparedStatement deleteStatement;
+
+    BigInvSqlStore(@NotNull JavaPlugin plugin, @NotNull BigInvFileStore fileStore, @NotNull BigInvStats stats) throws SQLException {
+        this.plugin = plugin;
+        this.fileStore = fileStore;
+        this.stats = stats;
+
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("the SQLite driver is not available", e);
+        }
+        File database = new File(plugin.getDataFolder(), databaseName);
+        this.connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute("CREATE TABLE IF NOT EXISTS biginv (owner TEXT PRIMARY KEY NOT NULL, data BLOB NOT NULL)");
+            statement.execute("CREATE TABLE IF NOT EXISTS biginv_corrupt (owner TEXT PRIMARY KEY NOT NULL, data BLOB NOT NULL)");
+        }
+        this.selectStatement = connection.prepareStatement("SELECT data FROM biginv WHERE owner = ?");
+        this.upsertStatement = connection.prepareStatement("INSERT OR REPLACE INTO biginv (owner, data) VALUES (?, ?)");
+        this.moveAsideStatement = connection.prepareStatement("INSERT OR REPLACE INTO biginv_corrupt (owner, data) SELECT owner, data FROM biginv WHERE owner = ?");
+        this.deleteStatement = connection.prepareStatement("DELETE FROM biginv WHERE owner = ?");
+        ConsoleMessage.debug(this.getClass(), plugin, "Opened SQLite database " + database.getPath());
+    }
+
+    @Override
+    public @NotNull StoredBigInv read(@NotNull UUID ownerUUID) {
+        return this.read(ownerUUID, true);
+    }
+
+    /**
+     * Player files which were not imported yet are read where they are and a corrupt row stays in place.
+     */
+    @Override
+    public @NotNull StoredBigInv peek(@NotNull UUID ownerUUID) {
+        return this.read(ownerUUID, false);
+    }
+
+    private StoredBigInv read(UUID ownerUUID, boolean repair) {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.READ, ownerUUID);
+        byte[] data;
+        try {
+            data = this.select(ownerUUID);
+        } catch (SQLException e) {
+            // an empty result would get written back later, so the row must not be touched.
+            throw new IllegalStateException("could not read BigInv of " + ownerUUID + " from the database", e);
+        }
+
+        if (data == null)
+            return repair ? fileStore.importInto(ownerUUID, this, "the database") : fileStore.peek(ownerUUID);
+
+        try {
+            StoredBigInv storedBigInv = StoredBigInv.fromSections(fileStore.decode(ownerUUID, data));
+            sample.setSlots(storedBigInv.getSlots()).stop(data.length);
+            return storedBigInv;
+        } catch (IOException | RuntimeException e) {
+            if (!repair) {
+                ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Could not read BigInv of " + ownerUUID + ". It gets moved to the table biginv_corrupt on its next load.");
+                return StoredBigInv.empty();
+            }
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not read BigInv of " + ownerUUID + ". It gets moved to the table biginv_corrupt to prevent overwriting. Printing stackTrace...");
+            e.printStackTrace();
+            this.moveAside(ownerUUID);
+            return StoredBigInv.empty();
+        }
+    }
+
+    private synchronized byte[] select(UUID ownerUUID) throws SQLException {
+        selectStatement.setString(1, ownerUUID.toString());
+        try (ResultSet result = selectStatement.executeQuery()) {
+            return result.next() ? result.getBytes(1) : null;
+        }
+    }
+
+    private synchronized void moveAside(UUID ownerUUID) {
+        try {
+            connection.setAutoCommit(false);
+            moveAsideStatement.setString(1, ownerUUID.toString());
+            moveAsideStatement.executeUpdate();
+            deleteStatement.setString(1, ownerUUID.toString());
+            deleteStatement.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            this.rollback();
+            e.printStackTrace();
+        } finally {
+            this.resetAutoCommit();
+        }
+    }
+
+    @Override
+    public void write(@NotNull UUID ownerUUID, @Nullable YmlInventory active, @NotNull YmlInventory backup) throws IOException {
+        BigInvStats.Sample sample = stats.start(BigInvStats.Operation.WRITE, ownerUUID).setSlots(StoredBigInv.getSlots(active, backup));
+        byte[] data = fileStore.encode(ownerUUID, active, backup);
+        synchronized (this) {
+            try {
+                upsertStatement.setString(1, ownerUUID.toString());
+                upsertStatement.setBytes(2, data);
+                upsertStatement.executeUpdate();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+        sample.stop(data.length);
+    }
+
+    /**
+     * Writes all BigInvs in one transaction.
+     */
+    @Override
+    public void writeAll(@NotNull Map<UUID, StoredBigInv> bigInvs) throws IOException {
+        if (bigInvs.isEmpty())
+            return;
+
+        Map<UUID, byte[]> encoded = new LinkedHashMap<>();
+        for (Map.Entry<UUID, StoredBigInv> entry : bigInvs.entrySet()) {
+            StoredBigInv storedBigInv = entry.getValue();
+            encoded.put(entry.getKey(), fileStore.encode(entry.getKey(), storedBigInv.getActiveOrNull(), storedBigInv.getBackup()));
+        }
+
+        synchronized (this) {
+            try {
+                connection.setAutoCommit(false);
+                for (Map.Entry<UUID, byte[]> entry : encoded.entrySet()) {
+                    upsertStatement.setString(1, entry.getKey().toString());
+                    upsertStatement.setBytes(2, entry.getValue());
+                    upsertStatement.addBatch();
+                }
+                upsertStatement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                this.rollback();
+                throw new IOException(e);
+            } finally {
+                this.resetAutoCommit();
+            }
+        }
+    }
+
+    private void rollback() {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void resetAutoCommit() {
+        try {
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return false, because there is only one connection.
+     */
+    @Override
+    public boolean supportsParallelWrites() {
+        return false;
+    }
+
+    /**
+     * @return false, rows are always written as a whole.
+     */
+    @Override
+    public boolean canWriteDelta(@NotNull UUID ownerUUID) {
+        return false;
+    }
+
+    @Override
+    public void writeDelta(@NotNull UUID ownerUUID, int size, @NotNull Map<Integer, ItemStack> slots) throws IOException {
+        throw new IOException("the database does not support delta saving");
+    }
+
+    @Override
+    public @NotNull Set<UUID> listOwners() throws IOException {
+        Set<UUID> owners = fileStore.listOwners();
+        synchronized (this) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery("SELECT owner FROM biginv")) {
+                while (result.next()) {
+                    owners.add(UUID.fromString(result.getString(1)));
+                }
+            } catch (SQLException | IllegalArgumentException e) {
+                throw new IOException(e);
+            }
+        }
+        return owners;
+    }
+
+    @Override
+    public void release(@NotNull UUID ownerUUID) {}
+
+    @Override
+    public synchronized void close() {
+        try {
+            selectStatement.close();
+            upsertStatement.close();
+            moveAsideStatement.close();
+            deleteStatement.close();
+            connection.close();
+            ConsoleMessage.debug(this.getClass(), plugin, "Closed SQLite database");
+        } catch (SQLException e) {
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not close the SQLite database. Printing stackTrace...");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects latencies, sizes and counters of the load, save and file paths. Recording is lock free and may happen on any thread.
+ * <p>
+ * Summaries cover the time since the last reset (see /biginv stats). Additionally, a summary of every log interval
+ * gets appended to stats.log, which is moved to stats.log.old once it exceeds {@link #maxLogBytes}.
+ * Every {@link Sample} also emits a flight recorder event (see {@link BigInvEvent}).
+ */
+public class BigInvStats {
+
+    private static final String[] configNames = {"log_interval"};
+    private static final String logFileName = "stats.log";
+    private static final long maxLogBytes = 1024 * 1024;
+
+    public enum Operation {
+        LOAD("load", false),
+        SAVE("save", false),
+        RESTORE_BACKUP("restore backup", false),
+        CLEAR("clear", false),
+        READ("read", true),
+        WRITE("write", true),
+        WRITE_DELTA("write delta", true),
+        SERIALIZE("serialize", true),
+        DESERIALIZE("deserialize", true),
+        QUEUE_WAIT("I/O queue wait", false);
+
+        private final String name;
+        private final boolean hasBytes;
+
+        Operation(String name, boolean hasBytes) {
+            this.name = name;
+            this.hasBytes = hasBytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return true if the operation records the amount of bytes it read, wrote or (de)serialized.
+         */
+        public boolean hasBytes() {
+            return hasBytes;
+        }
+    }
+
+    private final JavaPlugin plugin;
+    private final long logIntervalSeconds;
+
+    private final Map<Operation, StatsHistogram> latencies = new EnumMap<>(Operation.class); // microseconds
+    private final Map<Operation, StatsHistogram> sizes = new EnumMap<>(Operation.class); // bytes
+    private final LongAdder skippedSaves = new LongAdder();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private volatile Baseline resetBaseline;
+
+    /**
+     * @param plugin the plugin
+     * @param section the config section of the stats options (may be null for defaults)
+     */
+    BigInvStats(@NotNull JavaPlugin plugin, @Nullable ConfigurationSection section) {
+        this.plugin = plugin;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new StatsHistogram());
+            if (operation.hasBytes())
+                sizes.put(operation, new StatsHistogram());
+        }
+        this.resetBaseline = new Baseline(this);
+
+        long logIntervalSeconds = 900;
+        if (section != null)
+            logIntervalSeconds = section.getLong(configNames[0], logIntervalSeconds);
+        if (logIntervalSeconds < 0) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "stats " + configNames[0] + " must not be negative. Using 0 instead.");
+            logIntervalSeconds = 0;
+        }
+        this.logIntervalSeconds = logIntervalSeconds;
+    }
+
+    /**
+     * Starts appending summaries to the log file if enabled.
+     */
+    void start() {
+        if (logIntervalSeconds == 0)
+            return;
+
+        new BukkitRunnable() {
+            private Baseline previous = new Baseline(BigInvStats.this);
+
+            @Override
+            public void run() {
+                Baseline current = new Baseline(BigInvStats.this);
+                appendToLog(current.since(previous));
+                previous = current;
+            }
+        }.runTaskTimerAsynchronously(plugin, logIntervalSeconds * 20, logIntervalSeconds * 20);
+        ConsoleMessage.debug(this.getClass(), plugin, "Appending stats to " + logFileName + " every " + logIntervalSeconds + "s");
+    }
+
+    /**
+     * Starts timing an operation and its flight recorder event. Call {@link Sample#stop()} or {@link Sample#stop(long)} when it is done.
+     * @param operation the operation
+     * @param ownerUUID the owner of the BigInv (null if unknown)
+     * @return the running sample
+     */
+    @NotNull
+    Sample start(@NotNull Operation operation, @Nullable UUID ownerUUID) {
+        return new Sample(operation, ownerUUID);
+    }
+
+    void record(@NotNull Operation operation, long nanos, long bytes) {
+        latencies.get(operation).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (bytes >= 0 && operation.hasBytes())
+            sizes.get(operation).record(bytes);
+    }
+
+    void recordSkippedSave() {
+        skippedSaves.increment();
+    }
+
+    void recordQueued() {
+        maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+    }
+
+    void recordDequeued() {
+        queueDepth.decrementAndGet();
+    }
+
+    /**
+     * @return the summary since the last reset
+     */
+    @NotNull
+    public Summary getSummary() {
+        return new Baseline(this).since(resetBaseline);
+    }
+
+    /**
+     * Starts a new period for {@link #getSummary()}. The log file is not affected.
+     */
+    public void reset() {
+        maxQueueDepth.set(queueDepth.get());
+        resetBaseline = new Baseline(this);
+    }
+
+    private void appendToLog(Summary summary) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()))
+                .append(" (last ").append(summary.getSeconds()).append("s)").append(System.lineSeparator());
+        for (Operation operation : Operation.values()) {
+            if (summary.getCount(operation) == 0)
+                continue;
+            builder.append("  ").append(operation.getName()).append(": ").append(summary.getCount(operation)).append("x")
+                    .append(", mean ").append(formatMillis(summary.getMeanMillis(operation)))
+                    .append(", p50 ").append(formatMillis(summary.getPercentileMillis(operation, 50)))
+                    .append(", p95 ").append(formatMillis(summary.getPercentileMillis(operation, 95)))
+                    .append(", p99 ").append(formatMillis(summary.getPercentileMillis(operation, 99)))
+                    .append(", max ").append(formatMillis(summary.getMaxMillis(operation)));
+            if (operation.hasBytes()) {
+                builder.append(", ").append(formatBytes(summary.getBytes(operation))).append(" total")
+                        .append(", p95 size ").append(formatBytes(summary.getPercentileBytes(operation, 95)));
+            }
+            builder.append(System.lineSeparator());
+        }
+        builder.append("  skipped saves: ").append(summary.getSkippedSaves())
+                .append(", I/O queue: ").append(summary.getQueueDepth()).append(" (max ").append(summary.getMaxQueueDepth()).append(")")
+                .append(System.lineSeparator());
+
+        File file = new File(plugin.getDataFolder(), logFileName);
+        try {
+            if (file.length() > maxLogBytes)
+                Files.move(file.toPath(), new File(plugin.getDataFolder(), logFileName + ".old").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.write(file.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Could not write " + logFileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param millis a duration in milliseconds
+     * @return the duration with two decimals (e.g. 1.25ms)
+     */
+    @NotNull
+    public static String formatMillis(double millis) {
+        return String.format(Locale.ROOT, "%.2fms", millis);
+    }
+
+    /**
+     * @param bytes an amount of bytes
+     * @return the amount in B, KB or MB
+     */
+    @NotNull
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + "B";
+        if (bytes < 1024 * 1024)
+            return String.format(Locale.ROOT, "%.1fKB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1fMB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * Times one operation.
+     */
+    class Sample {
+
+        private final Operation operation;
+        private final UUID ownerUUID;
+        private final BigInvEvent event;
+        private final long start;
+        private int slots;
+
+        private Sample(Operation operation, UUID ownerUUID) {
+            this.operation = operation;
+            this.ownerUUID = ownerUUID;
+            this.event = BigInvEvent.create(operation);
+            if (event != null)
+                event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * @param slots the slots which were loaded, saved, read or written
+         * @return this sample
+         */
+        @NotNull
+        Sample setSlots(int slots) {
+            this.slots = slots;
+            return this;
+        }
+
+        void stop() {
+            this.stop(-1);
+        }
+
+        /**
+         * @param bytes the amount of bytes the operation read, wrote or (de)serialized
+         */
+        void stop(long bytes) {
+            record(operation, System.nanoTime() - start, bytes);
+            if (event != null && event.shouldCommit()) {
+                event.owner = ownerUUID != null ? ownerUUID.toString() : null;
+                event.slots = slots;
+                event.bytes = Math.max(0, bytes);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * The state of all histograms and counters at one point in time.
+     */
+    private static class Baseline {
+
+        private final long time = System.currentTimeMillis();
+        private final Map<Operation, StatsHistogram.Snapshot> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, StatsHistogram.Snapshot> sizes = new EnumMap<>(Operation.class);
+        private final long skippedSaves;
+        private final int queueDepth;
+        private final int maxQueueDepth;
+
+        private Baseline(BigInvStats stats) {
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, stats.latencies.get(operation).snapshot());
+                if (operation.hasBytes())
+                    sizes.put(operation, stats.sizes.get(operation).snapshot());
+            }
+            this.skippedSaves = stats.skippedSaves.sum();
+            this.queueDepth = stats.queueDepth.get();
+            this.maxQueueDepth = stats.maxQueueDepth.get();
+        }
+
+        private Summary since(Baseline previous) {
+            Map<Operation, StatsHistogram.Snapshot> latencies = new EnumMap<>(Operation.class);
+            Map<Operation, StatsHistogram.Snapshot> sizes = new EnumMap<>(Operation.class);
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, this.latencies.get(operation).since(previous.latencies.get(operation)));
+                if (operation.hasBytes())
+                    sizes.put(operation, this.sizes.get(operation).since(previous.sizes.get(operation)));
+            }
+            return new Summary(Math.max(0, (time - previous.time) / 1000), latencies, sizes, skippedSaves - previous.skippedSaves, queueDepth, maxQueueDepth);
+        }
+    }
+
+    /**
+     * The stats of a period of time.
+     */
+    public static class Summary {
+
+        private final long seconds;
+        private final Map<Operation, StatsHistogram.Snapshot> latencies;
+        private final Map<Operation, StatsHistogram.Snapshot> sizes;
+        private final long skippedSaves;
+        private final int queueDepth;
+        private final int maxQueueDepth;
+
+        private Summary(long seconds, Map<Operation, StatsHistogram.Snapshot> latencies, Map<Operation, StatsHistogram.Snapshot> sizes,
+                        long skippedSaves, int queueDepth, int maxQueueDepth) {
+            this.seconds = seconds;
+            this.latencies = latencies;
+            this.sizes = sizes;
+            this.skippedSaves = skippedSaves;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+
+        public long getCount(@NotNull Operation operation) {
+            return latencies.get(operation).getCount();
+        }
+
+        public double getMeanMillis(@NotNull Operation operation) {
+            return latencies.get(operation).getMean() / 1000;
+        }
+
+        /**
+         * @param operation the operation
+         * @param percentile the percentile between 0 and 100
+         * @return the estimated percentile of the latency in milliseconds
+         */
+        public double getPercentileMillis(@NotNull Operation operation, double percentile) {
+            return latencies.get(operation).getPercentile(percentile) / 1000.0;
+        }
+
+        public double getMaxMillis(@NotNull Operation operation) {
+            return latencies.get(operation).getMax() / 1000.0;
+        }
+
+        /**
+         * @param operation the operation
+         * @return the total amount of bytes (0 if the operation does not record bytes)
+         */
+        public long getBytes(@NotNull Operation operation) {
+            return operation.hasBytes() ? sizes.get(operation).getSum() : 0;
+        }
+
+        /**
+         * @param operation the operation
+         * @param percentile the percentile between 0 and 100
+         * @return the estimated percentile of the amount of bytes per operation (0 if the operation does not record bytes)
+         */
+        public long getPercentileBytes(@NotNull Operation operation, double percentile) {
+            return operation.hasBytes() ? sizes.get(operation).getPercentile(percentile) : 0;
+        }
+
+        public long getSkippedSaves() {
+            return skippedSaves;
+        }
+
+        /**
+         * @return the amount of queued or running file operations when the summary was created
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return the maximum amount of queued or running file operations since the last reset
+         */
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+    }
+}
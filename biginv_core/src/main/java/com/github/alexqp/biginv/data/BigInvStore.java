@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConfigChecker;
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.dataHandler.LoadSaveException;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Persists the BigInvs of all players. All methods may be called from any thread,
+ * but the BigInvContainer never calls them concurrently for the same owner.
+ */
+interface BigInvStore {
+
+    String backendConfigName = "backend";
+
+    /**
+     * Creates the store configured by the storage section. Falls back to the file store if the configured one cannot be opened.
+     * @param plugin the plugin
+     * @param section the storage section (may be null for defaults)
+     * @param stats the stats to record reads and writes in
+     * @return the store
+     * @throws LoadSaveException if the playerdata directory could not be created
+     */
+    static BigInvStore create(@NotNull JavaPlugin plugin, @Nullable ConfigurationSection section, @NotNull BigInvStats stats) throws LoadSaveException {
+        BigInvFileStore fileStore = new BigInvFileStore(plugin, section, stats);
+        String backend = "FILE";
+        if (section != null)
+            backend = new ConfigChecker(plugin).checkString(section, backendConfigName, ConsoleErrorType.WARN, backend);
+
+        if ("SQLITE".equalsIgnoreCase(backend)) {
+            try {
+                return new BigInvSqlStore(plugin, fileStore, stats);
+            } catch (SQLException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not open the SQLite database. Using the file storage instead. Printing stackTrace...");
+                e.printStackTrace();
+            }
+        } else if ("PACK".equalsIgnoreCase(backend)) {
+            try {
+                return new BigInvPackStore(plugin, fileStore, section, stats);
+            } catch (IOException e) {
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not open the pack store. Using the file storage instead. Printing stackTrace...");
+                e.printStackTrace();
+            }
+        } else if (!"FILE".equalsIgnoreCase(backend)) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "Unknown storage backend " + backend + ". Using FILE instead.");
+        }
+        return fileStore;
+    }
+
+    /**
+     * Reads the stored BigInv of the given owner.
+     * @param ownerUUID the owner
+     * @return the stored data (empty if there is none)
+     */
+    @NotNull StoredBigInv read(@NotNull UUID ownerUUID);
+
+    /**
+     * Reads the stored BigInv of the given owner without changing anything, e.g. to index it while it is not loaded.
+     * Unlike {@link #read(UUID)}, files are neither converted, migrated nor imported, unreadable data is not moved aside
+     * and no state is kept for the owner.
+     * @param ownerUUID the owner
+     * @return the stored data (empty if there is none or it is unreadable)
+     */
+    @NotNull StoredBigInv peek(@NotNull UUID ownerUUID);
+
+    /**
+     * Writes the whole BigInv of the given owner.
+     * @param ownerUUID the owner
+     * @param active the active inventory or null if none should be stored
+     * @param backup the backup
+     * @throws IOException if the BigInv could not be written
+     */
+    void write(@NotNull UUID ownerUUID, @Nullable YmlInventory active, @NotNull YmlInventory backup) throws IOException;
+
+    /**
+     * Writes the BigInvs of several owners at once (on shutdown and for the saves of one autosave tick). Either all or none of them get written.
+     * @param bigInvs the BigInvs to write
+     * @throws IOException if the BigInvs could not be written
+     */
+    void writeAll(@NotNull Map<UUID, StoredBigInv> bigInvs) throws IOException;
+
+    /**
+     * @return true if {@link #write(UUID, YmlInventory, YmlInventory)} scales with concurrent calls for different owners,
+     * false if the BigInvs should rather be written by one {@link #writeAll(Map)}.
+     */
+    boolean supportsParallelWrites();
+
+    /**
+     * @param ownerUUID the owner
+     * @return true if changed slots of the owner can be written by {@link #writeDelta(UUID, int, Map)}.
+     */
+    boolean canWriteDelta(@NotNull UUID ownerUUID);
+
+    /**
+     * Writes the changed slots of the active inventory.
+     * @param ownerUUID the owner
+     * @param size the size of the active inventory
+     * @param slots the changed slots with their new items (null for empty slots)
+     * @throws IOException if the slots could not be written
+     */
+    void writeDelta(@NotNull UUID ownerUUID, int size, @NotNull Map<Integer, ItemStack> slots) throws IOException;
+
+    /**
+     * Lists all owners with a stored BigInv, including player files which were not imported yet.
+     * @return the owners
+     * @throws IOException if the owners could not be listed
+     */
+    @NotNull Set<UUID> listOwners() throws IOException;
+
+    /**
+     * Forgets any state kept for the owner. The next read restores it.
+     * @param ownerUUID the owner
+     */
+    void release(@NotNull UUID ownerUUID);
+
+    /**
+     * Releases all resources. Called after the last write on disable.
+     */
+    void close();
+}
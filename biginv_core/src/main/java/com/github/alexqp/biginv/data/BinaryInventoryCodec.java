@@ -0,0 +1,558 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact binary representation of named YmlInventories.
+ * <p>
+ * Layout: magic, format version, flags and a (optionally deflated) payload.
+ * The payload holds the sections, every section holds its slots as length-prefixed records (length 0 for empty slots).
+ * Items are stored as the same tree Bukkit's serialization creates for YAML, just without the text representation.
+ * <p>
+ * Format version 2 deduplicates items: the payload starts with a table of all distinct item records,
+ * the slots of the sections only refer to them by index (0 for empty slots, table index + 1 otherwise).
+ */
+public final class BinaryInventoryCodec {
+
+    private static final int magic = 0x42494E56; // "BINV"
+    private static final byte formatVersion = 1;
+    private static final byte formatVersionDeduplicated = 2;
+    private static final byte flagDeflate = 1;
+
+    // limits for lengths read from the data, so a corrupted length fails with an IOException instead of a huge allocation.
+    private static final int maxRecordLength = 1 << 24;
+    private static final int maxCount = 1 << 20;
+
+    private static final byte typeNull = 0;
+    private static final byte typeString = 1;
+    private static final byte typeInt = 2;
+    private static final byte typeLong = 3;
+    private static final byte typeDouble = 4;
+    private static final byte typeFloat = 5;
+    private static final byte typeBoolean = 6;
+    private static final byte typeShort = 7;
+    private static final byte typeByte = 8;
+    private static final byte typeList = 9;
+    private static final byte typeMap = 10;
+    private static final byte typeSerializable = 11;
+
+    private BinaryInventoryCodec() {}
+
+    /**
+     * Encodes the given sections.
+     * @param sections the inventories by their section name
+     * @param deflate if the payload should get compressed
+     * @return the encoded bytes
+     * @throws IOException if an item contains values which cannot be encoded
+     */
+    public static byte[] encode(@NotNull Map<String, YmlInventory> sections, boolean deflate) throws IOException {
+        return encode(sections, deflate, false);
+    }
+
+    /**
+     * Encodes the given sections.
+     * @param sections the inventories by their section name
+     * @param deflate if the payload should get compressed
+     * @param deduplicate if equal items should be stored only once
+     * @return the encoded bytes
+     * @throws IOException if an item contains values which cannot be encoded
+     */
+    public static byte[] encode(@NotNull Map<String, YmlInventory> sections, boolean deflate, boolean deduplicate) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(magic);
+        header.writeByte(deduplicate ? formatVersionDeduplicated : formatVersion);
+        header.writeByte(deflate ? flagDeflate : 0);
+        header.flush();
+
+        OutputStream payloadStream = deflate ? new DeflaterOutputStream(bytes) : bytes;
+        DataOutputStream out = new DataOutputStream(payloadStream);
+        ByteArrayOutputStream slotBuffer = new ByteArrayOutputStream();
+        if (deduplicate) {
+            writeDeduplicated(out, slotBuffer, sections);
+        } else {
+            writeVarInt(out, sections.size());
+            for (Map.Entry<String, YmlInventory> section : sections.entrySet()) {
+                writeString(out, section.getKey());
+                byte[][] records = toRecords(slotBuffer, section.getValue());
+                writeVarInt(out, records.length);
+                for (byte[] record : records) {
+                    writeRecord(out, record);
+                }
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeDeduplicated(DataOutputStream out, ByteArrayOutputStream slotBuffer, Map<String, YmlInventory> sections) throws IOException {
+        Map<ByteBuffer, Integer> items = new LinkedHashMap<>(); // ByteBuffers are equal by their contents
+        Map<String, int[]> references = new LinkedHashMap<>();
+        for (Map.Entry<String, YmlInventory> section : sections.entrySet()) {
+            byte[][] records = toRecords(slotBuffer, section.getValue());
+            int[] sectionReferences = new int[records.length];
+            for (int slot = 0; slot < records.length; slot++) {
+                if (records[slot] != null)
+                    sectionReferences[slot] = items.computeIfAbsent(ByteBuffer.wrap(records[slot]), key -> items.size() + 1);
+            }
+            references.put(section.getKey(), sectionReferences);
+        }
+
+        writeVarInt(out, items.size());
+        for (ByteBuffer item : items.keySet()) {
+            writeVarInt(out, item.remaining());
+            out.write(item.array(), item.arrayOffset() + item.position(), item.remaining());
+        }
+        writeVarInt(out, references.size());
+        for (Map.Entry<String, int[]> section : references.entrySet()) {
+            writeString(out, section.getKey());
+            writeVarInt(out, section.getValue().length);
+            for (int reference : section.getValue()) {
+                writeVarInt(out, reference);
+            }
+        }
+    }
+
+    private static Map<String, byte[][]> readDeduplicated(DataInputStream in) throws IOException {
+        byte[][] records = new byte[readLength(in, maxCount)][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = new byte[readLength(in, maxRecordLength)];
+            in.readFully(records[i]);
+        }
+
+        // slots of equal items share the same record, so decodeItems deserializes it only once.
+        int sectionCount = readLength(in, maxCount);
+        Map<String, byte[][]> sections = new LinkedHashMap<>();
+        for (int i = 0; i < sectionCount; i++) {
+            String name = readString(in);
+            byte[][] slots = new byte[readLength(in, maxCount)][];
+            for (int slot = 0; slot < slots.length; slot++) {
+                int reference = readVarInt(in);
+                if (reference == 0)
+                    continue;
+                if (reference < 0 || reference > records.length)
+                    throw new IOException("invalid item reference " + reference);
+                slots[slot] = records[reference - 1];
+            }
+            sections.put(name, slots);
+        }
+        return sections;
+    }
+
+    /**
+     * Encodes every item on its own, so single slots can be decoded or replaced without touching the others.
+     * @param items the items (null for empty slots)
+     * @return the records of the slots (null for empty slots)
+     * @throws IOException if an item contains values which cannot be encoded
+     */
+    public static byte[][] encodeItems(@NotNull ItemStack[] items) throws IOException {
+        ByteArrayOutputStream slotBuffer = new ByteArrayOutputStream();
+        byte[][] records = new byte[items.length][];
+        for (int slot = 0; slot < items.length; slot++) {
+            if (items[slot] != null)
+                records[slot] = serializeItem(slotBuffer, items[slot]);
+        }
+        return records;
+    }
+
+    /**
+     * Decodes records created by {@link #encodeItems(ItemStack[])} or {@link #decodeLazily(byte[])}.
+     * Records which are shared by several slots get deserialized once, the further slots get a copy.
+     * @param records the records (null for empty slots)
+     * @return the items (null for empty slots)
+     * @throws IOException if a record is corrupted
+     */
+    public static ItemStack[] decodeItems(@NotNull byte[][] records) throws IOException {
+        ItemStack[] items = new ItemStack[records.length];
+        Map<byte[], ItemStack> decoded = new IdentityHashMap<>();
+        for (int slot = 0; slot < records.length; slot++) {
+            if (records[slot] == null)
+                continue;
+
+            ItemStack item = decoded.get(records[slot]);
+            if (item != null) {
+                items[slot] = item.clone();
+                continue;
+            }
+            Object value = readValue(new DataInputStream(new ByteArrayInputStream(records[slot])));
+            if (value instanceof ItemStack) {
+                items[slot] = (ItemStack) value;
+                decoded.put(records[slot], items[slot]);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return the records of all slots of the inventory. Slots which are still encoded are not serialized again.
+     */
+    private static byte[][] toRecords(ByteArrayOutputStream slotBuffer, YmlInventory ymlInv) throws IOException {
+        byte[][] records = new byte[ymlInv.getSize()][];
+        for (int slot = 0; slot < records.length; slot++) {
+            records[slot] = ymlInv.getEncodedSlot(slot);
+            if (records[slot] == null) {
+                ItemStack item = ymlInv.getDecodedSlot(slot);
+                if (item != null)
+                    records[slot] = serializeItem(slotBuffer, item);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Encodes some changed slots of one section as a delta record.
+     * @param section the section name
+     * @param size the current size of the section
+     * @param slots the changed slots with their new items (null for empty slots)
+     * @return the encoded record
+     * @throws IOException if an item contains values which cannot be encoded
+     */
+    public static byte[] encodeDelta(@NotNull String section, int size, @NotNull Map<Integer, ItemStack> slots) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, section);
+        writeVarInt(out, size);
+        writeVarInt(out, slots.size());
+        ByteArrayOutputStream slotBuffer = new ByteArrayOutputStream();
+        for (Map.Entry<Integer, ItemStack> slot : slots.entrySet()) {
+            writeVarInt(out, slot.getKey());
+            writeSlot(out, slotBuffer, slot.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes some changed slots of one section as a delta record like {@link #encodeDelta(String, int, Map)}, but from their records.
+     * @param section the section name
+     * @param size the current size of the section
+     * @param slots the changed slots with their new records as given by {@link #encodeRecords(YmlInventory)} (null for empty slots)
+     * @return the encoded record
+     * @throws IOException if the record could not be written
+     */
+    static byte[] encodeDeltaRecords(@NotNull String section, int size, @NotNull Map<Integer, byte[]> slots) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, section);
+        writeVarInt(out, size);
+        writeVarInt(out, slots.size());
+        for (Map.Entry<Integer, byte[]> slot : slots.entrySet()) {
+            writeVarInt(out, slot.getKey());
+            writeRecord(out, slot.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Equal records always hold equal items, so inventories can be compared by their records without decoding any item.
+     * @param ymlInv the inventory
+     * @return the records of all slots (null for empty slots). Slots which are still encoded are not serialized again.
+     * @throws IOException if an item contains values which cannot be encoded
+     */
+    static byte[][] encodeRecords(@NotNull YmlInventory ymlInv) throws IOException {
+        return toRecords(new ByteArrayOutputStream(), ymlInv);
+    }
+
+    /**
+     * Applies a delta record created by {@link #encodeDelta(String, int, Map)} to the given sections.
+     * @param record the encoded record
+     * @param sections the sections which get modified
+     * @throws IOException if the record is corrupted
+     */
+    public static void applyDelta(byte[] record, @NotNull Map<String, YmlInventory> sections) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String section = readString(in);
+        int size = readLength(in, maxCount);
+        YmlInventory ymlInv = sections.get(section);
+
+        // the items stay encoded, only the records of the changed slots get replaced.
+        byte[][] records = new byte[size][];
+        ItemStack[] contents = new ItemStack[size];
+        if (ymlInv != null) {
+            for (int slot = 0; slot < Math.min(size, ymlInv.getSize()); slot++) {
+                records[slot] = ymlInv.getEncodedSlot(slot);
+                if (records[slot] == null)
+                    contents[slot] = ymlInv.getDecodedSlot(slot);
+            }
+        }
+
+        int count = readLength(in, maxCount);
+        for (int i = 0; i < count; i++) {
+            int slot = readVarInt(in);
+            byte[] slotRecord = readRecord(in);
+            if (slot < 0)
+                throw new IOException("invalid slot " + slot);
+            if (slot < size) {
+                records[slot] = slotRecord;
+                contents[slot] = null;
+            }
+        }
+        sections.put(section, new YmlInventory(records, contents));
+    }
+
+    /**
+     * Decodes sections which were encoded by {@link #encode(Map, boolean)}.
+     * @param data the encoded bytes
+     * @return the inventories by their section name
+     * @throws IOException if the data is corrupted or of an unknown format version
+     */
+    @NotNull
+    public static Map<String, YmlInventory> decode(byte[] data) throws IOException {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[][]> section : decodeRecords(data).entrySet()) {
+            sections.put(section.getKey(), new YmlInventory(decodeItems(section.getValue())));
+        }
+        return sections;
+    }
+
+    /**
+     * Decodes the structure of sections which were encoded by {@link #encode(Map, boolean)}, but keeps the items encoded.
+     * They get decoded on the first access to the contents of their inventory.
+     * Re-encoding such an inventory reuses the records of items which were not decoded.
+     * @param data the encoded bytes
+     * @return the inventories by their section name
+     * @throws IOException if the data is corrupted or of an unknown format version
+     */
+    @NotNull
+    public static Map<String, YmlInventory> decodeLazily(byte[] data) throws IOException {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[][]> section : decodeRecords(data).entrySet()) {
+            sections.put(section.getKey(), new YmlInventory(section.getValue(), new ItemStack[section.getValue().length]));
+        }
+        return sections;
+    }
+
+    private static Map<String, byte[][]> decodeRecords(byte[] data) throws IOException {
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+        if (header.readInt() != magic)
+            throw new IOException("data is not a BigInv binary inventory");
+        byte version = header.readByte();
+        if (version != formatVersion && version != formatVersionDeduplicated)
+            throw new IOException("unknown format version " + version);
+        byte flags = header.readByte();
+
+        InputStream payloadStream = new ByteArrayInputStream(data, 6, data.length - 6);
+        if ((flags & flagDeflate) != 0)
+            payloadStream = new InflaterInputStream(payloadStream);
+
+        DataInputStream in = new DataInputStream(payloadStream);
+        if (version == formatVersionDeduplicated)
+            return readDeduplicated(in);
+
+        int sectionCount = readLength(in, maxCount);
+        Map<String, byte[][]> sections = new LinkedHashMap<>();
+        for (int i = 0; i < sectionCount; i++) {
+            String name = readString(in);
+            byte[][] slots = new byte[readLength(in, maxCount)][];
+            for (int slot = 0; slot < slots.length; slot++) {
+                slots[slot] = readRecord(in);
+            }
+            sections.put(name, slots);
+        }
+        return sections;
+    }
+
+    private static void writeSlot(DataOutputStream out, ByteArrayOutputStream slotBuffer, ItemStack item) throws IOException {
+        writeRecord(out, item != null ? serializeItem(slotBuffer, item) : null);
+    }
+
+    private static byte[] serializeItem(ByteArrayOutputStream slotBuffer, ItemStack item) throws IOException {
+        slotBuffer.reset();
+        DataOutputStream slotOut = new DataOutputStream(slotBuffer);
+        writeValue(slotOut, item);
+        slotOut.flush();
+        return slotBuffer.toByteArray();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        if (record == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, record.length);
+        out.write(record);
+    }
+
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        int length = readLength(in, maxRecordLength);
+        if (length == 0)
+            return null;
+        byte[] record = new byte[length];
+        in.readFully(record);
+        return record;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(typeNull);
+        } else if (value instanceof String) {
+            out.writeByte(typeString);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(typeInt);
+            writeVarInt(out, (Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(typeLong);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(typeDouble);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(typeFloat);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(typeBoolean);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Short) {
+            out.writeByte(typeShort);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(typeByte);
+            out.writeByte((Byte) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(typeList);
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Map) {
+            out.writeByte(typeMap);
+            writeMap(out, (Map<?, ?>) value);
+        } else if (value instanceof ConfigurationSerializable) {
+            ConfigurationSerializable serializable = (ConfigurationSerializable) value;
+            out.writeByte(typeSerializable);
+            writeString(out, ConfigurationSerialization.getAlias(serializable.getClass()));
+            writeMap(out, serializable.serialize());
+        } else {
+            throw new IOException("cannot encode value of type " + value.getClass().getName());
+        }
+    }
+
+    private static void writeMap(DataOutputStream out, Map<?, ?> map) throws IOException {
+        writeVarInt(out, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, String.valueOf(entry.getKey()));
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case typeNull:
+                return null;
+            case typeString:
+                return readString(in);
+            case typeInt:
+                return readVarInt(in);
+            case typeLong:
+                return in.readLong();
+            case typeDouble:
+                return in.readDouble();
+            case typeFloat:
+                return in.readFloat();
+            case typeBoolean:
+                return in.readBoolean();
+            case typeShort:
+                return in.readShort();
+            case typeByte:
+                return in.readByte();
+            case typeList:
+                int size = readLength(in, maxCount);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            case typeMap:
+                return readMap(in, new LinkedHashMap<>());
+            case typeSerializable:
+                Map<String, Object> map = new LinkedHashMap<>();
+                map.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY, readString(in));
+                return ConfigurationSerialization.deserializeObject(readMap(in, map));
+            default:
+                throw new IOException("unknown value type " + type);
+        }
+    }
+
+    private static Map<String, Object> readMap(DataInputStream in, Map<String, Object> map) throws IOException {
+        int size = readLength(in, maxCount);
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readValue(in));
+        }
+        return map;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in, maxRecordLength)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("varint is too long");
+    }
+
+    /**
+     * Reads a length or count. The stream may be deflated, so the remaining bytes are unknown and the value gets checked against a limit.
+     * @param max the largest valid value
+     * @throws IOException if the value is negative or larger than max
+     */
+    private static int readLength(DataInputStream in, int max) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > max)
+            throw new IOException("invalid length " + length);
+        return length;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import org.bukkit.block.BlockState;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An operation which gets applied to all stored BigInvs by {@link BigInvContainer#startBulkOperation(BulkOperation, Runnable)}.
+ * Items get matched like by the search index, items in shulker boxes are matched one by one.
+ * The operation also keeps the progress of its run.
+ */
+public class BulkOperation {
+
+    public enum Type {
+        COUNT,
+        REMOVE,
+    }
+
+    private final Type type;
+    private final String query;
+    private final ItemQuery itemQuery;
+
+    private final long startTime = System.currentTimeMillis();
+    private volatile long endTime = 0;
+    private volatile boolean cancelled = false;
+    private volatile int total = -1;
+
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger matchedOwners = new AtomicInteger();
+    private final AtomicLong matchedAmount = new AtomicLong();
+
+    public BulkOperation(@NotNull Type type, @NotNull String query) {
+        this.type = type;
+        this.query = query;
+        this.itemQuery = ItemQuery.parse(query);
+    }
+
+    public @NotNull Type getType() {
+        return type;
+    }
+
+    public @NotNull String getQuery() {
+        return query;
+    }
+
+    @NotNull ItemQuery getItemQuery() {
+        return itemQuery;
+    }
+
+    /**
+     * @return true if the operation changes BigInvs, false if it only reads them.
+     */
+    public boolean isChanging() {
+        return type == Type.REMOVE;
+    }
+
+    /**
+     * @return the amount of BigInvs to process or -1 if they are still being listed.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    void setTotal(int total) {
+        this.total = total;
+    }
+
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    /**
+     * @return the amount of BigInvs which got written because of this operation.
+     */
+    public int getChanged() {
+        return changed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the amount of BigInvs holding matching items.
+     */
+    public int getMatchedOwners() {
+        return matchedOwners.get();
+    }
+
+    /**
+     * @return the summed up amount of all matching item stacks.
+     */
+    public long getMatchedAmount() {
+        return matchedAmount.get();
+    }
+
+    public long getElapsedMillis() {
+        return (this.isDone() ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    public boolean isDone() {
+        return endTime != 0;
+    }
+
+    void finish() {
+        this.endTime = System.currentTimeMillis();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    void addProcessed(boolean changed) {
+        processed.incrementAndGet();
+        if (changed)
+            this.changed.incrementAndGet();
+    }
+
+    void addFailed() {
+        processed.incrementAndGet();
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Applies the operation to one BigInv. May be called from any thread, but not concurrently for the same owner.
+     * @param active the active inventory or null if none is stored
+     * @param backup the backup
+     * @return true if the contents changed
+     */
+    boolean apply(@Nullable YmlInventory active, @NotNull YmlInventory backup) {
+        long[] amount = {0};
+        boolean changed = active != null && this.apply(active, false, amount);
+        changed |= this.apply(backup, true, amount);
+        if (amount[0] > 0) {
+            matchedOwners.incrementAndGet();
+            matchedAmount.addAndGet(amount[0]);
+        }
+        return changed;
+    }
+
+    /**
+     * @param isBackup if true, removed items do not leave empty slots
+     */
+    private boolean apply(YmlInventory ymlInv, boolean isBackup, long[] amount) {
+        ItemStack[] contents = ymlInv.getContentsClone();
+        boolean changed = false;
+        for (int slot = 0; slot < contents.length; slot++) {
+            if (contents[slot] == null)
+                continue;
+            ItemStack result = this.apply(contents[slot], amount);
+            if (result != contents[slot]) {
+                contents[slot] = result;
+                changed = true;
+            }
+        }
+        if (!changed)
+            return false;
+
+        if (isBackup) {
+            List<ItemStack> kept = new ArrayList<>();
+            for (ItemStack item : contents) {
+                if (item != null)
+                    kept.add(item);
+            }
+            contents = kept.toArray(new ItemStack[0]);
+        }
+        ymlInv.setContents(contents);
+        return true;
+    }
+
+    /**
+     * @return the given item if it did not change, otherwise the changed copy (or null if it got removed).
+     */
+    private ItemStack apply(ItemStack item, long[] amount) {
+        if (itemQuery.matches(item)) {
+            amount[0] += item.getAmount();
+            return type == Type.REMOVE ? null : item;
+        }
+        if (!item.hasItemMeta())
+            return item;
+
+        ItemMeta meta = item.getItemMeta();
+        if (!(meta instanceof BlockStateMeta) || !((BlockStateMeta) meta).hasBlockState())
+            return item;
+        BlockState state = ((BlockStateMeta) meta).getBlockState();
+        if (!(state instanceof ShulkerBox))
+            return item;
+
+        Inventory inv = ((ShulkerBox) state).getInventory();
+        boolean changed = false;
+        for (int slot = 0; slot < inv.getSize(); slot++) {
+            ItemStack content = inv.getItem(slot);
+            if (content != null && itemQuery.matches(content)) {
+                amount[0] += content.getAmount();
+                if (type == Type.REMOVE) {
+                    inv.setItem(slot, null);
+                    changed = true;
+                }
+            }
+        }
+        if (!changed)
+            return item;
+
+        ((BlockStateMeta) meta).setBlockState(state);
+        ItemStack result = item.clone();
+        result.setItemMeta(meta);
+        return result;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Runs a {@link BulkOperation} over many BigInvs without blocking the server thread.
+ * A coordinator thread hands the owners to the worker threads at no more than rateLimit per second.
+ * Stored BigInvs are processed on the workers, ordered with the other file operations of their owner.
+ * Loaded BigInvs are newer than their stored data, so they get processed on the server thread within a time budget per tick.
+ */
+class BulkOperationRunner extends BukkitRunnable {
+
+    private static final long tickBudgetNanos = 2000000;
+    private static final long progressLogMillis = 30000;
+
+    private final JavaPlugin plugin;
+    private final BulkOperation operation;
+    private final AsyncSaveExecutor saveExecutor;
+    private final Callable<Set<UUID>> owners;
+    private final Predicate<UUID> isLoaded;
+    private final Consumer<UUID> applyToStored;
+    private final Predicate<UUID> applyToLoaded;
+    private final int threads;
+    private final long intervalNanos;
+
+    private final ExecutorService workers;
+    private final Thread coordinator;
+    private final Queue<UUID> loadedOwners = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger(); // owners which were handed out but not processed yet
+    private long lastProgressLog = System.currentTimeMillis();
+    private Runnable onFinish;
+
+    /**
+     * @param plugin the plugin
+     * @param operation the operation
+     * @param saveExecutor the executor to order the file operations with (null if files are written synchronously)
+     * @param owners lists the owners to process
+     * @param isLoaded tests whether the BigInv of an owner is loaded
+     * @param applyToStored applies the operation to the stored BigInv of an owner
+     * @param applyToLoaded applies the operation to the loaded BigInv of an owner, returns false if it is not loaded
+     * @param threads the amount of worker threads
+     * @param rateLimit the maximum amount of owners per second (0 for no limit)
+     */
+    BulkOperationRunner(@NotNull JavaPlugin plugin, @NotNull BulkOperation operation, @Nullable AsyncSaveExecutor saveExecutor, @NotNull Callable<Set<UUID>> owners,
+                        @NotNull Predicate<UUID> isLoaded, @NotNull Consumer<UUID> applyToStored, @NotNull Predicate<UUID> applyToLoaded, int threads, int rateLimit) {
+        this.plugin = plugin;
+        this.operation = operation;
+        this.saveExecutor = saveExecutor;
+        this.owners = owners;
+        this.isLoaded = isLoaded;
+        this.applyToStored = applyToStored;
+        this.applyToLoaded = applyToLoaded;
+        this.threads = threads;
+        this.intervalNanos = rateLimit > 0 ? 1000000000L / rateLimit : 0;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> new Thread(runnable, plugin.getName() + "-Bulk-" + threadCount.incrementAndGet()));
+        this.coordinator = new Thread(this::coordinate, plugin.getName() + "-Bulk");
+    }
+
+    @NotNull BulkOperation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @param onFinish runs on the server thread after the last BigInv got processed
+     */
+    void start(@NotNull Runnable onFinish) {
+        this.onFinish = onFinish;
+        this.runTaskTimer(plugin, 1, 1);
+        coordinator.start();
+    }
+
+    /**
+     * Cancels the operation and waits until the workers are done. BigInvs which are being processed get finished.
+     * @param timeoutMillis the maximum time to wait
+     */
+    void stop(long timeoutMillis) {
+        operation.cancel();
+        coordinator.interrupt();
+        try {
+            coordinator.join(timeoutMillis);
+            if (!workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS))
+                ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "The bulk operation did not stop within " + timeoutMillis + "ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void coordinate() {
+        try {
+            Set<UUID> ownerUUIDs = owners.call();
+            operation.setTotal(ownerUUIDs.size());
+            ConsoleMessage.debug(this.getClass(), plugin, "Bulk operation got " + ownerUUIDs.size() + " BigInvs to process");
+
+            Semaphore inFlight = new Semaphore(threads * 4);
+            long next = System.nanoTime();
+            for (UUID ownerUUID : ownerUUIDs) {
+                if (operation.isCancelled())
+                    break;
+                if (intervalNanos > 0) {
+                    long now = System.nanoTime();
+                    if (next > now)
+                        TimeUnit.NANOSECONDS.sleep(next - now);
+                    next = Math.max(next, now) + intervalNanos;
+                }
+                inFlight.acquire();
+                outstanding.incrementAndGet();
+                this.submit(ownerUUID).whenComplete((result, throwable) -> inFlight.release());
+            }
+
+            while (outstanding.get() > 0) {
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            operation.cancel();
+        } catch (Exception e) {
+            operation.cancel();
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not list the BigInvs for the bulk operation. Printing stackTrace...");
+            e.printStackTrace();
+        } finally {
+            workers.shutdown();
+            operation.finish();
+            this.logProgress(operation.isCancelled() ? "Cancelled" : "Finished");
+            if (plugin.isEnabled())
+                Bukkit.getScheduler().runTask(plugin, onFinish);
+        }
+    }
+
+    private CompletableFuture<Void> submit(UUID ownerUUID) {
+        Runnable task = () -> this.process(ownerUUID);
+        if (saveExecutor != null)
+            return saveExecutor.submit(ownerUUID, task, workers);
+        return CompletableFuture.runAsync(task, workers);
+    }
+
+    private void process(UUID ownerUUID) {
+        boolean deferred = false;
+        try {
+            if (operation.isCancelled())
+                return;
+            if (isLoaded.test(ownerUUID)) {
+                deferred = true;
+                loadedOwners.add(ownerUUID);
+                return;
+            }
+            applyToStored.accept(ownerUUID);
+        } finally {
+            if (!deferred)
+                outstanding.decrementAndGet();
+        }
+    }
+
+    /**
+     * Processes the deferred loaded BigInvs (at least one per tick) and logs the progress regularly.
+     */
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        UUID ownerUUID;
+        while ((ownerUUID = loadedOwners.poll()) != null) {
+            if (operation.isCancelled() || applyToLoaded.test(ownerUUID)) {
+                outstanding.decrementAndGet();
+            } else {
+                this.submit(ownerUUID); // it got unloaded in the meantime, so the stored BigInv is current again.
+            }
+            if (System.nanoTime() - start >= tickBudgetNanos)
+                break;
+        }
+
+        if (operation.isDone()) {
+            this.cancel();
+        } else if (System.currentTimeMillis() - lastProgressLog >= progressLogMillis) {
+            lastProgressLog = System.currentTimeMillis();
+            this.logProgress("Running");
+        }
+    }
+
+    private void logProgress(String state) {
+        plugin.getLogger().info(state + " bulk operation " + operation.getType().name().toLowerCase(Locale.ROOT) + " " + operation.getQuery() + ": "
+                + operation.getProcessed() + "/" + operation.getTotal() + " BigInvs processed, " + operation.getChanged() + " changed, " + operation.getFailed() + " failed, "
+                + operation.getMatchedAmount() + " matching items in " + operation.getMatchedOwners() + " BigInvs (" + operation.getElapsedMillis() / 1000 + "s)");
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Matches the keys of the {@link ItemSearchIndex}. A query is "material:&lt;material&gt;" (exact),
+ * "name:&lt;text&gt;", "lore:&lt;text&gt;" or "pdc:&lt;key&gt;" (all containing the text).
+ * A query without a type matches the material if there is one with this name, the name otherwise.
+ */
+class ItemQuery {
+
+    private final String exactKey;
+    private final String prefix;
+    private final String text;
+
+    private ItemQuery(String exactKey, String prefix, String text) {
+        this.exactKey = exactKey;
+        this.prefix = prefix;
+        this.text = text;
+    }
+
+    static @NotNull ItemQuery parse(@NotNull String query) {
+        String[] keyTypes = ItemSearchIndex.keyTypes;
+        String type = null;
+        String value = query.trim();
+        int separator = value.indexOf(':');
+        if (separator > 0) {
+            String prefix = value.substring(0, separator).toLowerCase(Locale.ROOT);
+            if (Arrays.asList(keyTypes).contains(prefix)) {
+                type = prefix;
+                value = value.substring(separator + 1).trim();
+            }
+        }
+
+        if (type == null)
+            type = Material.matchMaterial(value) != null ? keyTypes[0] : keyTypes[1];
+        if (type.equals(keyTypes[0])) {
+            Material material = Material.matchMaterial(value);
+            String name = material != null ? material.name() : value.toUpperCase(Locale.ROOT);
+            return new ItemQuery(keyTypes[0] + ":" + name, null, null);
+        }
+        return new ItemQuery(null, type + ":", ItemSearchIndex.normalize(value));
+    }
+
+    /**
+     * @return the only key which matches or null if the query matches keys containing a text.
+     */
+    @Nullable String getExactKey() {
+        return exactKey;
+    }
+
+    boolean matches(@NotNull String key) {
+        if (exactKey != null)
+            return exactKey.equals(key);
+        return key.startsWith(prefix) && key.indexOf(text, prefix.length()) >= 0;
+    }
+
+    boolean matches(@NotNull String[] keys) {
+        for (String key : keys) {
+            if (this.matches(key))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param item the item
+     * @return true if the item itself matches (items in it are not checked).
+     */
+    boolean matches(@NotNull ItemStack item) {
+        return this.matches(ItemSearchIndex.getKeys(item, false));
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import org.bukkit.ChatColor;
+import org.bukkit.NamespacedKey;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Maps item keys to the owners holding such items, so items can be found without reading any stored BigInv.
+ * The keys of an item are its material, its display name, its lore lines and its persistent data keys
+ * (names and lore are stripped of colors and lower case). Items in shulker boxes count for the slot of the box.
+ * <p>
+ * The BigInvContainer updates the index after every write. Slots which are still encoded remember the hash of their record,
+ * so unchanged slots do not get decoded again. All methods may be called from any thread.
+ */
+class ItemSearchIndex {
+
+    static final String[] keyTypes = {"material", "name", "lore", "pdc"};
+    private static final int maxKeyLength = 256;
+    private static final int fileVersion = 1;
+
+    private final Map<UUID, OwnerEntry> owners = new HashMap<>();
+    private final Map<String, KeyOwners> keys = new HashMap<>(); // also used to share equal key strings
+    private volatile boolean complete = false;
+
+    /**
+     * @return false while the index is loaded or rebuilt.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * Replaces the indexed slots of the owner by the given contents.
+     * @param ownerUUID the owner
+     * @param active the active inventory or null if none is stored
+     * @param backup the backup
+     */
+    void update(@NotNull UUID ownerUUID, @Nullable YmlInventory active, @NotNull YmlInventory backup) {
+        OwnerEntry previous = this.getEntry(ownerUUID);
+        TreeMap<Integer, SlotKeys> slots = new TreeMap<>();
+        if (active != null)
+            addSlots(slots, active, false, previous);
+        addSlots(slots, backup, true, previous);
+        this.put(ownerUUID, slots);
+    }
+
+    /**
+     * Updates the changed slots of the owner's active inventory.
+     * @param ownerUUID the owner
+     * @param size the size of the active inventory
+     * @param changedSlots the changed slots with their new items (null for empty slots)
+     */
+    void updateSlots(@NotNull UUID ownerUUID, int size, @NotNull Map<Integer, ItemStack> changedSlots) {
+        OwnerEntry previous = this.getEntry(ownerUUID);
+        TreeMap<Integer, SlotKeys> slots = previous != null ? previous.toMap() : new TreeMap<>();
+        slots.tailMap(size).clear();
+        for (Map.Entry<Integer, ItemStack> entry : changedSlots.entrySet()) {
+            if (entry.getValue() == null) {
+                slots.remove(entry.getKey());
+            } else {
+                slots.put(entry.getKey(), new SlotKeys(getKeys(entry.getValue()), 0));
+            }
+        }
+        this.put(ownerUUID, slots);
+    }
+
+    /**
+     * Removes all owners which are not contained in the given set (e.g. after a rebuild).
+     * @param ownerUUIDs the owners to keep
+     */
+    synchronized void retainOwners(@NotNull Set<UUID> ownerUUIDs) {
+        for (UUID ownerUUID : new ArrayList<>(owners.keySet())) {
+            if (!ownerUUIDs.contains(ownerUUID))
+                this.put(ownerUUID, new TreeMap<>());
+        }
+    }
+
+    private synchronized OwnerEntry getEntry(UUID ownerUUID) {
+        return owners.get(ownerUUID);
+    }
+
+    private synchronized void put(UUID ownerUUID, TreeMap<Integer, SlotKeys> slots) {
+        OwnerEntry previous = owners.remove(ownerUUID);
+        if (previous != null) {
+            for (SlotKeys slotKeys : previous.slotKeys) {
+                for (String key : slotKeys.keys) {
+                    KeyOwners keyOwners = keys.get(key);
+                    if (keyOwners != null && keyOwners.owners.remove(ownerUUID) && keyOwners.owners.isEmpty())
+                        keys.remove(key);
+                }
+            }
+        }
+        if (slots.isEmpty())
+            return;
+
+        for (SlotKeys slotKeys : slots.values()) {
+            for (int i = 0; i < slotKeys.keys.length; i++) {
+                KeyOwners keyOwners = keys.computeIfAbsent(slotKeys.keys[i], KeyOwners::new);
+                keyOwners.owners.add(ownerUUID);
+                slotKeys.keys[i] = keyOwners.key;
+            }
+        }
+        owners.put(ownerUUID, new OwnerEntry(slots));
+    }
+
+    private static void addSlots(TreeMap<Integer, SlotKeys> slots, YmlInventory ymlInv, boolean isBackup, @Nullable OwnerEntry previous) {
+        for (int i = 0; i < ymlInv.getSize(); i++) {
+            int slot = isBackup ? -(i + 1) : i;
+            byte[] record = ymlInv.getEncodedSlot(i);
+            if (record == null) {
+                ItemStack item = ymlInv.getDecodedSlot(i);
+                if (item != null)
+                    slots.put(slot, new SlotKeys(getKeys(item), 0));
+                continue;
+            }
+
+            int hash = Arrays.hashCode(record);
+            SlotKeys known = previous != null ? previous.get(slot) : null;
+            if (known != null && known.recordHash != 0 && known.recordHash == hash) {
+                slots.put(slot, known);
+                continue;
+            }
+            try {
+                ItemStack item = BinaryInventoryCodec.decodeItems(new byte[][] {record})[0];
+                if (item != null)
+                    slots.put(slot, new SlotKeys(getKeys(item), hash));
+            } catch (IOException | RuntimeException ignored) {} // corrupt items are reported when the BigInv gets opened.
+        }
+    }
+
+    /**
+     * @param item the item
+     * @return the keys of the item and of the items in it (if it is a shulker box)
+     */
+    static String[] getKeys(@NotNull ItemStack item) {
+        return getKeys(item, true);
+    }
+
+    /**
+     * @param item the item
+     * @param withContents if true, the keys of the items in the item (if it is a shulker box) get added
+     * @return the keys of the item
+     */
+    static String[] getKeys(@NotNull ItemStack item, boolean withContents) {
+        Set<String> itemKeys = new LinkedHashSet<>();
+        addKeys(itemKeys, item, withContents);
+        return itemKeys.toArray(new String[0]);
+    }
+
+    private static void addKeys(Set<String> itemKeys, ItemStack item, boolean withContents) {
+        itemKeys.add(keyTypes[0] + ":" + item.getType().name());
+        if (!item.hasItemMeta())
+            return;
+
+        ItemMeta meta = item.getItemMeta();
+        if (meta.hasDisplayName())
+            addTextKey(itemKeys, keyTypes[1], meta.getDisplayName());
+        if (meta.hasLore()) {
+            for (String line : meta.getLore()) {
+                addTextKey(itemKeys, keyTypes[2], line);
+            }
+        }
+        for (NamespacedKey key : meta.getPersistentDataContainer().getKeys()) {
+            itemKeys.add(keyTypes[3] + ":" + key);
+        }
+
+        if (withContents && meta instanceof BlockStateMeta && ((BlockStateMeta) meta).hasBlockState()) {
+            BlockState state = ((BlockStateMeta) meta).getBlockState();
+            if (state instanceof ShulkerBox) {
+                for (ItemStack content : ((ShulkerBox) state).getInventory().getContents()) {
+                    if (content != null)
+                        addKeys(itemKeys, content, false);
+                }
+            }
+        }
+    }
+
+    private static void addTextKey(Set<String> itemKeys, String type, String text) {
+        String stripped = normalize(ChatColor.stripColor(text));
+        if (!stripped.isEmpty())
+            itemKeys.add(type + ":" + stripped);
+    }
+
+    static String normalize(String text) {
+        String normalized = text.trim().toLowerCase(Locale.ROOT);
+        return normalized.length() > maxKeyLength ? normalized.substring(0, maxKeyLength) : normalized;
+    }
+
+    /**
+     * Finds the owners holding items which match the query.
+     * @param query the query (see {@link ItemQuery#parse(String)})
+     * @param limit the maximum amount of owners whose slots are listed
+     * @return the result
+     */
+    synchronized @NotNull BigInvSearchResult find(@NotNull String query, int limit) {
+        ItemQuery itemQuery = ItemQuery.parse(query);
+        Set<UUID> matchingOwners = this.getMatchingOwners(itemQuery);
+        Map<UUID, List<Integer>> slots = new LinkedHashMap<>();
+        for (UUID ownerUUID : matchingOwners) {
+            if (slots.size() >= limit)
+                break;
+            slots.put(ownerUUID, owners.get(ownerUUID).getMatchingSlots(itemQuery));
+        }
+        return new BigInvSearchResult(matchingOwners.size(), slots, complete);
+    }
+
+    /**
+     * @param query the query
+     * @return all owners holding matching items or null if the index is not complete
+     */
+    synchronized @Nullable Set<UUID> findOwners(@NotNull ItemQuery query) {
+        return complete ? this.getMatchingOwners(query) : null;
+    }
+
+    private Set<UUID> getMatchingOwners(ItemQuery query) {
+        Set<UUID> matchingOwners = new LinkedHashSet<>();
+        if (query.getExactKey() != null) {
+            KeyOwners keyOwners = keys.get(query.getExactKey());
+            if (keyOwners != null)
+                matchingOwners.addAll(keyOwners.owners);
+        } else {
+            for (KeyOwners keyOwners : keys.values()) {
+                if (query.matches(keyOwners.key))
+                    matchingOwners.addAll(keyOwners.owners);
+            }
+        }
+        return matchingOwners;
+    }
+
+    synchronized int getOwnerCount() {
+        return owners.size();
+    }
+
+    /**
+     * Writes the index to the given file (replacing it atomically).
+     * @param file the file
+     * @throws IOException if the file could not be written
+     */
+    synchronized void save(@NotNull File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeInt(fileVersion);
+            Map<String, Integer> keyIds = new HashMap<>();
+            out.writeInt(keys.size());
+            for (String key : keys.keySet()) {
+                keyIds.put(key, keyIds.size());
+                out.writeUTF(key);
+            }
+
+            out.writeInt(owners.size());
+            for (Map.Entry<UUID, OwnerEntry> entry : owners.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                OwnerEntry ownerEntry = entry.getValue();
+                out.writeInt(ownerEntry.slots.length);
+                for (int i = 0; i < ownerEntry.slots.length; i++) {
+                    SlotKeys slotKeys = ownerEntry.slotKeys[i];
+                    out.writeInt(ownerEntry.slots[i]);
+                    out.writeInt(slotKeys.recordHash);
+                    out.writeInt(slotKeys.keys.length);
+                    for (String key : slotKeys.keys) {
+                        out.writeInt(keyIds.get(key));
+                    }
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the owners of the given file. Owners which got updated in the meantime keep their newer slots.
+     * @param file the file
+     * @return false if there is no file of this version
+     * @throws IOException if the file could not be read
+     */
+    boolean load(@NotNull File file) throws IOException {
+        if (!file.exists())
+            return false;
+
+        Map<UUID, TreeMap<Integer, SlotKeys>> loaded = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != fileVersion)
+                return false;
+            String[] keyTable = new String[in.readInt()];
+            for (int i = 0; i < keyTable.length; i++) {
+                keyTable[i] = in.readUTF();
+            }
+
+            int ownerCount = in.readInt();
+            for (int i = 0; i < ownerCount; i++) {
+                UUID ownerUUID = new UUID(in.readLong(), in.readLong());
+                TreeMap<Integer, SlotKeys> slots = new TreeMap<>();
+                int slotCount = in.readInt();
+                for (int j = 0; j < slotCount; j++) {
+                    int slot = in.readInt();
+                    int recordHash = in.readInt();
+                    String[] slotKeys = new String[in.readInt()];
+                    for (int k = 0; k < slotKeys.length; k++) {
+                        slotKeys[k] = keyTable[in.readInt()];
+                    }
+                    slots.put(slot, new SlotKeys(slotKeys, recordHash));
+                }
+                loaded.put(ownerUUID, slots);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("invalid key id", e);
+        }
+
+        synchronized (this) {
+            for (Map.Entry<UUID, TreeMap<Integer, SlotKeys>> entry : loaded.entrySet()) {
+                if (!owners.containsKey(entry.getKey()))
+                    this.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    private static class KeyOwners {
+
+        private final String key;
+        private final Set<UUID> owners = new HashSet<>();
+
+        private KeyOwners(String key) {
+            this.key = key;
+        }
+    }
+
+    private static class SlotKeys {
+
+        private final String[] keys;
+        private final int recordHash; // 0 if the slot was not indexed from a record
+
+        private SlotKeys(String[] keys, int recordHash) {
+            this.keys = keys;
+            this.recordHash = recordHash;
+        }
+
+    }
+
+    /**
+     * The indexed slots of one owner, sorted by slot. Never modified after creation.
+     */
+    private static class OwnerEntry {
+
+        private final int[] slots;
+        private final SlotKeys[] slotKeys;
+
+        private OwnerEntry(TreeMap<Integer, SlotKeys> slots) {
+            this.slots = new int[slots.size()];
+            this.slotKeys = new SlotKeys[slots.size()];
+            int i = 0;
+            for (Map.Entry<Integer, SlotKeys> entry : slots.entrySet()) {
+                this.slots[i] = entry.getKey();
+                this.slotKeys[i] = entry.getValue();
+                i++;
+            }
+        }
+
+        private SlotKeys get(int slot) {
+            int i = Arrays.binarySearch(slots, slot);
+            return i >= 0 ? slotKeys[i] : null;
+        }
+
+        private TreeMap<Integer, SlotKeys> toMap() {
+            TreeMap<Integer, SlotKeys> map = new TreeMap<>();
+            for (int i = 0; i < slots.length; i++) {
+                map.put(slots[i], slotKeys[i]);
+            }
+            return map;
+        }
+
+        private List<Integer> getMatchingSlots(ItemQuery query) {
+            List<Integer> matchingSlots = new ArrayList<>();
+            for (int i = 0; i < slots.length; i++) {
+                if (query.matches(slotKeys[i].keys))
+                    matchingSlots.add(slots[i]);
+            }
+            return matchingSlots;
+        }
+    }
+}
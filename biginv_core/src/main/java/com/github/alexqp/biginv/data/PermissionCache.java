@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Caches the results of permission checks per viewer, as inventory clicks and drags check them very often.
+ * Cached results expire after expireMillis and should be invalidated if a viewer's permissions may have changed.
+ * Only to be used on the server thread.
+ */
+class PermissionCache {
+
+    private final String[] permissions;
+    private long expireMillis;
+    private final Map<UUID, Entry> entries = new HashMap<>();
+
+    /**
+     * @param permissions the permissions which are cached (at most 32)
+     * @param expireMillis the time after which the permissions get checked again
+     */
+    PermissionCache(@NotNull String[] permissions, long expireMillis) {
+        if (permissions.length > Integer.SIZE)
+            throw new IllegalArgumentException("at most " + Integer.SIZE + " permissions can be cached.");
+        this.permissions = permissions.clone();
+        this.expireMillis = expireMillis;
+    }
+
+    /**
+     * @param viewer the player
+     * @param index the index of the permission given to the constructor
+     * @return true if the viewer has the permission
+     */
+    boolean hasPermission(@NotNull Player viewer, int index) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(viewer.getUniqueId());
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(viewer.getUniqueId(), entry);
+        }
+        if (entry.expires <= now) {
+            int granted = 0;
+            for (int i = 0; i < permissions.length; i++) {
+                if (viewer.hasPermission(permissions[i]))
+                    granted |= 1 << i;
+            }
+            entry.granted = granted;
+            entry.expires = now + expireMillis;
+        }
+        return (entry.granted & (1 << index)) != 0;
+    }
+
+    /**
+     * @param expireMillis the time after which the permissions get checked again (0 to check them on every call)
+     */
+    void setExpireMillis(long expireMillis) {
+        this.expireMillis = expireMillis;
+        entries.clear();
+    }
+
+    void invalidate(@NotNull UUID viewerUUID) {
+        entries.remove(viewerUUID);
+    }
+
+    private static class Entry {
+
+        private int granted;
+        private long expires;
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import com.github.alexqp.commons.config.ConfigChecker;
+import com.github.alexqp.commons.config.ConsoleErrorType;
+import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a history of snapshots of every BigInv in the history directory (sharded like the playerdata directory).
+ * <p>
+ * Every owner has one file of records: time, reason, type, payload length, payload and the CRC32 of the payload.
+ * A FULL record holds the active inventory and the backup, a DELTA record only the slots which changed
+ * since the previous snapshot. Every fullSnapshotEvery-th record is a FULL one to keep rollbacks cheap.
+ * A FULL record and its following DELTA records form a segment. Snapshots exceeding the retention get pruned by cutting off
+ * whole leading segments, so no snapshot has to be decoded again. Up to fullSnapshotEvery - 1 outdated snapshots may remain
+ * in the file until their segment can be cut off, they are not listed.
+ * <p>
+ * Snapshots are compared by the encoded records of their slots, so recording never decodes an item
+ * and only the records of the previous snapshot are kept in memory.
+ * <p>
+ * Recording happens on the thread which writes the owner's BigInv, reading for commands after awaiting it.
+ */
+class SnapshotHistory {
+
+    private static final String directoryName = "history";
+    private static final String fileExtension = ".hist";
+    private static final String[] configNames = {"enable", "max_snapshots", "max_age", "min_interval"};
+
+    private static final int fullSnapshotEvery = 10;
+    private static final byte typeFull = 0;
+    private static final byte typeDelta = 1;
+
+    private final JavaPlugin plugin;
+    private final File directory;
+    private final boolean enabled;
+    private final int maxSnapshots;
+    private final long maxAgeMillis;
+    private final long minIntervalMillis;
+
+    private final Map<UUID, Long> lastRecordTimes = new ConcurrentHashMap<>();
+    private final Map<UUID, HistoryState> states = new ConcurrentHashMap<>();
+
+    SnapshotHistory(@NotNull JavaPlugin plugin, @Nullable ConfigurationSection section) {
+        this.plugin = plugin;
+        this.directory = new File(plugin.getDataFolder(), directoryName);
+
+        boolean enabled = true;
+        int maxSnapshots = 20;
+        int maxAgeDays = 7;
+        int minIntervalSeconds = 300;
+        if (section != null) {
+            enabled = new ConfigChecker(plugin).checkBoolean(section, configNames[0], ConsoleErrorType.WARN, enabled);
+            maxSnapshots = section.getInt(configNames[1], maxSnapshots);
+            maxAgeDays = section.getInt(configNames[2], maxAgeDays);
+            minIntervalSeconds = section.getInt(configNames[3], minIntervalSeconds);
+        }
+        if (maxSnapshots < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "history " + configNames[1] + " must be at least 1. Using 1 instead.");
+            maxSnapshots = 1;
+        }
+        if (maxAgeDays < 1) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "history " + configNames[2] + " must be at least 1. Using 1 instead.");
+            maxAgeDays = 1;
+        }
+        this.enabled = enabled;
+        this.maxSnapshots = maxSnapshots;
+        this.maxAgeMillis = TimeUnit.DAYS.toMillis(maxAgeDays);
+        this.minIntervalMillis = Math.max(0, minIntervalSeconds) * 1000L;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    private File getFile(UUID ownerUUID) {
+        String name = ownerUUID.toString();
+        return new File(new File(new File(directory, name.substring(0, 2)), name.substring(2, 4)), name + fileExtension);
+    }
+
+    /**
+     * Decides on the server thread if a snapshot should be taken, so that no contents get copied for nothing.
+     * Saves are limited to one snapshot per min_interval, deaths and rollbacks are always recorded.
+     * @param ownerUUID the owner
+     * @param reason the reason of the snapshot
+     * @return true if the snapshot should be recorded
+     */
+    boolean shouldRecord(@NotNull UUID ownerUUID, @NotNull BigInvSnapshot.Reason reason) {
+        if (!enabled)
+            return false;
+
+        long now = System.currentTimeMillis();
+        if (reason == BigInvSnapshot.Reason.SAVE) {
+            Long lastRecordTime = lastRecordTimes.get(ownerUUID);
+            if (lastRecordTime != null && now - lastRecordTime < minIntervalMillis)
+                return false;
+        }
+        lastRecordTimes.put(ownerUUID, now);
+        return true;
+    }
+
+    /**
+     * Appends a snapshot to the owner's history. Must not be called concurrently for the same owner.
+     * @param ownerUUID the owner
+     * @param reason the reason
+     * @param active a copy of the active inventory
+     * @param backup a copy of the backup
+     */
+    void record(@NotNull UUID ownerUUID, @NotNull BigInvSnapshot.Reason reason, @NotNull YmlInventory active, @NotNull YmlInventory backup) {
+        try {
+            HistoryState state = states.get(ownerUUID);
+            if (state == null) {
+                state = this.loadState(ownerUUID);
+                states.put(ownerUUID, state);
+            }
+
+            long now = System.currentTimeMillis();
+            Map<String, byte[][]> sections = toRecords(StoredBigInv.toSections(active, backup));
+            boolean full = state.last == null || state.sinceFull + 1 >= fullSnapshotEvery;
+            byte[] payload = full ? BinaryInventoryCodec.encode(toEncodedSections(sections), true, true) : encodeDelta(state.last, sections);
+
+            File file = this.getFile(ownerUUID);
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), encodeRecord(now, reason, full ? typeFull : typeDelta, payload), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+            state.last = sections;
+            state.sinceFull = full ? 0 : state.sinceFull + 1;
+            state.addRecord(full, now, recordLength(payload));
+            this.prune(ownerUUID, state, now);
+        } catch (IOException | RuntimeException e) {
+            states.remove(ownerUUID);
+            ConsoleMessage.send(ConsoleErrorType.ERROR, plugin, "Could not record snapshot of " + ownerUUID + ". Printing stackTrace...");
+            e.printStackTrace();
+        }
+    }
+
+    private HistoryState loadState(UUID ownerUUID) throws IOException {
+        HistoryState state = new HistoryState();
+        List<SnapshotRecord> records = this.readRecords(ownerUUID);
+        if (records.isEmpty())
+            return state;
+
+        List<Map<String, YmlInventory>> snapshots = reconstruct(records);
+        state.last = toRecords(snapshots.get(snapshots.size() - 1));
+        for (SnapshotRecord record : records) {
+            state.addRecord(record.type == typeFull, record.time, recordLength(record.payload));
+        }
+        for (int i = records.size() - 1; i >= 0 && records.get(i).type != typeFull; i--) {
+            state.sinceFull++;
+        }
+        return state;
+    }
+
+    /**
+     * Cuts off the leading segments whose snapshots all exceed the retention. The newest snapshot is always kept.
+     */
+    private void prune(UUID ownerUUID, HistoryState state, long now) throws IOException {
+        int count = state.getCount();
+        int prunedRecords = 0;
+        long prunedBytes = 0;
+        for (Segment segment : state.segments) {
+            // the last segment holds the newest snapshot.
+            if (segment == state.segments.peekLast())
+                break;
+            boolean exceedsCount = count - prunedRecords - segment.records >= maxSnapshots;
+            boolean exceedsAge = now - segment.lastTime > maxAgeMillis;
+            if (!exceedsCount && !exceedsAge)
+                break;
+            prunedRecords += segment.records;
+            prunedBytes += segment.bytes;
+        }
+        if (prunedRecords == 0)
+            return;
+
+        Path target = this.getFile(ownerUUID).toPath();
+        byte[] data = Files.readAllBytes(target);
+        Path tmp = new File(target + ".tmp").toPath();
+        Files.write(tmp, Arrays.copyOfRange(data, (int) prunedBytes, data.length));
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (int pruned = 0; pruned < prunedRecords; ) {
+            pruned += state.segments.removeFirst().records;
+        }
+        ConsoleMessage.debug(this.getClass(), plugin, "Pruned " + prunedRecords + " snapshots of " + ownerUUID);
+    }
+
+    /**
+     * @return the index of the oldest record which is within the retention (records before may not be pruned yet).
+     */
+    private int getFirstRetained(List<SnapshotRecord> records, long now) {
+        int first = Math.max(0, records.size() - maxSnapshots);
+        while (first < records.size() - 1 && now - records.get(first).time > maxAgeMillis) {
+            first++;
+        }
+        return first;
+    }
+
+    /**
+     * @param ownerUUID the owner
+     * @return all snapshots of the owner, the newest first.
+     * @throws IOException if the history could not be read
+     */
+    @NotNull List<BigInvSnapshot> list(@NotNull UUID ownerUUID) throws IOException {
+        List<SnapshotRecord> records = this.readRecords(ownerUUID);
+        List<Map<String, YmlInventory>> snapshots = reconstruct(records);
+        int first = this.getFirstRetained(records, System.currentTimeMillis());
+        List<BigInvSnapshot> list = new ArrayList<>();
+        for (int i = records.size() - 1; i >= first; i--) {
+            int itemCount = 0;
+            for (byte[][] sectionRecords : toRecords(snapshots.get(i)).values()) {
+                for (byte[] record : sectionRecords) {
+                    if (record != null)
+                        itemCount++;
+                }
+            }
+            list.add(new BigInvSnapshot(records.size() - i, records.get(i).time, records.get(i).reason, itemCount));
+        }
+        return list;
+    }
+
+    /**
+     * @param ownerUUID the owner
+     * @param index the index of the snapshot as given by {@link #list(UUID)}
+     * @return the contents of the snapshot or null if there is no such snapshot
+     * @throws IOException if the history could not be read
+     */
+    @Nullable StoredBigInv get(@NotNull UUID ownerUUID, int index) throws IOException {
+        List<SnapshotRecord> records = this.readRecords(ownerUUID);
+        if (index < 1 || index > records.size() - this.getFirstRetained(records, System.currentTimeMillis()))
+            return null;
+        List<Map<String, YmlInventory>> snapshots = reconstruct(records.subList(0, records.size() - index + 1));
+        return StoredBigInv.fromSections(snapshots.get(snapshots.size() - 1));
+    }
+
+    /**
+     * Forgets the cached state of the owner. The next record restores it.
+     * @param ownerUUID the owner
+     */
+    void release(@NotNull UUID ownerUUID) {
+        states.remove(ownerUUID);
+        lastRecordTimes.remove(ownerUUID);
+    }
+
+    /**
+     * Reads all valid records. An incomplete record at the end (crash while appending) gets cut off.
+     */
+    private List<SnapshotRecord> readRecords(UUID ownerUUID) throws IOException {
+        File file = this.getFile(ownerUUID);
+        List<SnapshotRecord> records = new ArrayList<>();
+        if (!file.exists())
+            return records;
+
+        byte[] data = Files.readAllBytes(file.toPath());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int validLength = 0;
+        int headerLength = 8 + 1 + 1 + 4;
+        while (data.length - validLength >= headerLength) {
+            long time = in.readLong();
+            byte reason = in.readByte();
+            byte type = in.readByte();
+            int length = in.readInt();
+            if (length < 0 || data.length - validLength - headerLength < length + 8 || reason < 0 || reason >= BigInvSnapshot.Reason.values().length)
+                break;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            if (in.readLong() != checksum(payload))
+                break;
+            records.add(new SnapshotRecord(time, BigInvSnapshot.Reason.values()[reason], type, payload));
+            validLength += headerLength + length + 8;
+        }
+
+        if (validLength < data.length) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, plugin, "History of " + ownerUUID + " ended with an incomplete record which got removed.");
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @return the snapshots of the records, their items stay encoded until they are accessed.
+     */
+    private static List<Map<String, YmlInventory>> reconstruct(List<SnapshotRecord> records) throws IOException {
+        List<Map<String, YmlInventory>> snapshots = new ArrayList<>();
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        for (SnapshotRecord record : records) {
+            if (record.type == typeFull) {
+                sections = BinaryInventoryCodec.decodeLazily(record.payload);
+            } else {
+                sections = new LinkedHashMap<>(sections); // applying a delta replaces the YmlInventories, so older snapshots stay untouched.
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.payload));
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] delta = new byte[in.readInt()];
+                    in.readFully(delta);
+                    BinaryInventoryCodec.applyDelta(delta, sections);
+                }
+            }
+            snapshots.add(sections);
+        }
+        return snapshots;
+    }
+
+    private static Map<String, byte[][]> toRecords(Map<String, YmlInventory> sections) throws IOException {
+        Map<String, byte[][]> records = new LinkedHashMap<>();
+        for (Map.Entry<String, YmlInventory> section : sections.entrySet()) {
+            records.put(section.getKey(), BinaryInventoryCodec.encodeRecords(section.getValue()));
+        }
+        return records;
+    }
+
+    private static Map<String, YmlInventory> toEncodedSections(Map<String, byte[][]> records) {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[][]> section : records.entrySet()) {
+            sections.put(section.getKey(), new YmlInventory(section.getValue(), new ItemStack[section.getValue().length]));
+        }
+        return sections;
+    }
+
+    private static byte[] encodeDelta(Map<String, byte[][]> previous, Map<String, byte[][]> current) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(current.size());
+        for (Map.Entry<String, byte[][]> section : current.entrySet()) {
+            byte[][] previousRecords = previous.getOrDefault(section.getKey(), new byte[0][]);
+            byte[][] records = section.getValue();
+
+            Map<Integer, byte[]> changedSlots = new LinkedHashMap<>();
+            for (int slot = 0; slot < records.length; slot++) {
+                if (!Arrays.equals(slot < previousRecords.length ? previousRecords[slot] : null, records[slot]))
+                    changedSlots.put(slot, records[slot]);
+            }
+            byte[] delta = BinaryInventoryCodec.encodeDeltaRecords(section.getKey(), records.length, changedSlots);
+            out.writeInt(delta.length);
+            out.write(delta);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int recordLength(byte[] payload) {
+        return 8 + 1 + 1 + 4 + payload.length + 8;
+    }
+
+    private static byte[] encodeRecord(long time, BigInvSnapshot.Reason reason, byte type, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 22);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(time);
+        out.writeByte(reason.ordinal());
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeLong(checksum(payload));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static class HistoryState {
+
+        private Map<String, byte[][]> last; // the slot records of the newest snapshot
+        private int sinceFull;
+        private final Deque<Segment> segments = new ArrayDeque<>();
+
+        private void addRecord(boolean full, long time, int bytes) {
+            Segment segment = segments.peekLast();
+            if (full || segment == null) {
+                segment = new Segment();
+                segments.addLast(segment);
+            }
+            segment.records++;
+            segment.bytes += bytes;
+            segment.lastTime = time;
+        }
+
+        private int getCount() {
+            int count = 0;
+            for (Segment segment : segments) {
+                count += segment.records;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A FULL record and the DELTA records following it, which only depend on records of the same segment.
+     */
+    private static class Segment {
+
+        private int records;
+        private long bytes;
+        private long lastTime;
+    }
+
+    private static class SnapshotRecord {
+
+        private final long time;
+        private final BigInvSnapshot.Reason reason;
+        private final byte type;
+        private final byte[] payload;
+
+        private SnapshotRecord(long time, BigInvSnapshot.Reason reason, byte type, byte[] payload) {
+            this.time = time;
+            this.reason = reason;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+}
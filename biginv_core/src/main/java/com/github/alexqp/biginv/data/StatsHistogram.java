@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.github.alexqp.biginv.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of non-negative values (e.g. microseconds or bytes).
+ * Every power of two is split into four buckets, so percentiles are accurate to about 25%.
+ */
+class StatsHistogram {
+
+    private static final int subBuckets = 4;
+    private static final int bucketCount = subBuckets + 61 * subBuckets;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(bucketCount);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(getBucket(value));
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    private static int getBucket(long value) {
+        if (value < subBuckets)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value); // at least 2
+        int subBucket = (int) (value >>> (exponent - 2)) & (subBuckets - 1);
+        return Math.min(bucketCount - 1, subBuckets + (exponent - 2) * subBuckets + subBucket);
+    }
+
+    private static long getUpperBound(int bucket) {
+        if (bucket < subBuckets)
+            return bucket;
+        int shift = (bucket - subBuckets) / subBuckets;
+        int subBucket = (bucket - subBuckets) % subBuckets;
+        return ((long) (subBuckets + subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * @return a copy of the current values. Values recorded in the meantime may be partially included.
+     */
+    @NotNull
+    Snapshot snapshot() {
+        long[] counts = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, sum.sum(), max.get());
+    }
+
+    static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getSum() {
+            return sum;
+        }
+
+        double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile the percentile between 0 and 100
+         * @return the upper bound of the bucket holding the percentile (never more than the maximum)
+         */
+        long getPercentile(double percentile) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(max, getUpperBound(i));
+            }
+            return max;
+        }
+
+        /**
+         * @param previous an older snapshot of the same histogram
+         * @return the values recorded since the older snapshot. The maximum is estimated by the highest bucket.
+         */
+        @NotNull
+        Snapshot since(@NotNull Snapshot previous) {
+            long[] counts = new long[bucketCount];
+            long max = 0;
+            for (int i = 0; i < bucketCount; i++) {
+                counts[i] = Math.max(0, this.counts[i] - previous.counts[i]);
+                if (counts[i] > 0)
+                    max = Math.min(this.max, getUpperBound(i));
+            }
+            return new Snapshot(counts, Math.max(0, sum - previous.sum), max);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2019-2024 Alexander Schmid
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package com.github.alexqp.biginv.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The stored data of one BigInv as it was read from disk.
+ * It can be created by any thread and gets applied to a BigInvHolder on the server thread.
+ */
+class StoredBigInv {
+
+    private final YmlInventory active;
+    private final YmlInventory backup;
+    private final boolean hasActive;
+
+    StoredBigInv(@NotNull YmlInventory active, @NotNull YmlInventory backup, boolean hasActive) {
+        this.active = active;
+        this.backup = backup;
+        this.hasActive = hasActive;
+    }
+
+    /**
+     * @return a StoredBigInv without any data.
+     */
+    static StoredBigInv empty() {
+        return new StoredBigInv(new YmlInventory(), new YmlInventory(), false);
+    }
+
+    /**
+     * @param sections the sections as decoded by the BinaryInventoryCodec
+     * @return the StoredBigInv of the sections
+     */
+    static StoredBigInv fromSections(@NotNull Map<String, YmlInventory> sections) {
+        YmlInventory ymlInv = sections.get(BigInvFileStore.activeInvName);
+        YmlInventory backupYmlInv = sections.getOrDefault(BigInvFileStore.backupInvName, new YmlInventory());
+        return new StoredBigInv(ymlInv != null ? ymlInv : new YmlInventory(), backupYmlInv, ymlInv != null);
+    }
+
+    /**
+     * @param active the active inventory or null if none should be stored
+     * @param backup the backup
+     * @return the sections to be encoded by the BinaryInventoryCodec
+     */
+    static Map<String, YmlInventory> toSections(@Nullable YmlInventory active, @NotNull YmlInventory backup) {
+        Map<String, YmlInventory> sections = new LinkedHashMap<>();
+        if (active != null)
+            sections.put(BigInvFileStore.activeInvName, active);
+        sections.put(BigInvFileStore.backupInvName, backup);
+        return sections;
+    }
+
+    /**
+     * @param active the active inventory or null if none is stored
+     * @param backup the backup
+     * @return the amount of slots of both inventories
+     */
+    static int getSlots(@Nullable YmlInventory active, @NotNull YmlInventory backup) {
+        return (active != null ? active.getSize() : 0) + backup.getSize();
+    }
+
+    /**
+     * @return the amount of slots of the stored inventories
+     */
+    int getSlots() {
+        return getSlots(this.getActiveOrNull(), backup);
+    }
+
+    /**
+     * @return the active inventory or null if none was stored.
+     */
+    @Nullable YmlInventory getActiveOrNull() {
+        return hasActive ? active : null;
+    }
+
+    @NotNull YmlInventory getActive() {
+        return active;
+    }
+
+    @NotNull YmlInventory getBackup() {
+        return backup;
+    }
+
+    /**
+     * @return false if no active inventory was stored yet.
+     */
+    boolean hasActive() {
+        return hasActive;
+    }
+}
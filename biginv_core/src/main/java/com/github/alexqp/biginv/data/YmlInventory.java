@@ -26,6 +26,7 @@ import org.bukkit.configuration.serialization.SerializableAs;
 import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
 import java.util.*;
 
 @SuppressWarnings("WeakerAccess")
@@ -35,6 +36,7 @@ public class YmlInventory implements ConfigurationSerializableCheckable {
     private static final String[] configNames = {"contents"};
 
     private ItemStack[] contents;
+    private byte[][] records; // slots which are still encoded by the BinaryInventoryCodec, null if all slots are decoded
 
     public YmlInventory() {
         this(new ItemStack[0]);
@@ -49,10 +51,87 @@ public class YmlInventory implements ConfigurationSerializableCheckable {
         this.setContents(contents);
     }
 
+    /**
+     * Creates an inventory whose items get decoded on the first access to its contents.
+     * @param records the encoded slots (null for slots which are given by contents)
+     * @param contents the decoded slots, of the same length as records
+     */
+    YmlInventory(byte[][] records, ItemStack[] contents) {
+        if (records.length != contents.length)
+            throw new IllegalArgumentException("records and contents must have the same length.");
+        this.contents = contents;
+        this.records = records;
+    }
+
+    private void decodeRecords() {
+        if (records == null)
+            return;
+        try {
+            ItemStack[] decoded = BinaryInventoryCodec.decodeItems(records);
+            for (int slot = 0; slot < records.length; slot++) {
+                if (records[slot] != null)
+                    contents[slot] = decoded[slot];
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not decode stored items", e);
+        }
+        records = null;
+    }
+
     public ItemStack[] getContentsClone() {
+        this.decodeRecords();
         return contents.clone();
     }
 
+    /**
+     * @return the amount of slots, without decoding them.
+     */
+    int getSize() {
+        return contents.length;
+    }
+
+    /**
+     * @param slot the slot
+     * @return the record of the slot if it was not decoded yet, null otherwise.
+     */
+    byte[] getEncodedSlot(int slot) {
+        return records != null ? records[slot] : null;
+    }
+
+    /**
+     * @param slot the slot
+     * @return the item of the slot, only valid if {@link #getEncodedSlot(int)} returned null.
+     */
+    ItemStack getDecodedSlot(int slot) {
+        return contents[slot];
+    }
+
+    /**
+     * @return the records of all slots if none of them was decoded yet, null otherwise.
+     */
+    byte[][] getEncodedContents() {
+        if (records == null)
+            return null;
+        for (int slot = 0; slot < records.length; slot++) {
+            if (records[slot] == null && contents[slot] != null)
+                return null;
+        }
+        return records.clone();
+    }
+
+    /**
+     * @return a deep copy of this YmlInventory which is safe to be serialized by another thread.
+     */
+    public YmlInventory deepClone() {
+        ItemStack[] contents = this.contents.clone();
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] != null)
+                contents[i] = contents[i].clone();
+        }
+        // records are never modified, so they can be shared.
+        return records != null ? new YmlInventory(records.clone(), contents) : new YmlInventory(contents);
+    }
+
     public ItemStack[] clearContents() {
         ItemStack[] contents = this.getContentsClone();
         this.contents = new ItemStack[0];
@@ -69,10 +148,12 @@ public class YmlInventory implements ConfigurationSerializableCheckable {
      */
     public void setContents(ItemStack[] contents) {
         this.contents = contents.clone();
+        this.records = null;
     }
 
     @Override
     public @NotNull Map<String, Object> serialize() {
+        this.decodeRecords();
         Map<String, Object> map = new HashMap<>();
         map.put(configNames[0], contents);
         return map;
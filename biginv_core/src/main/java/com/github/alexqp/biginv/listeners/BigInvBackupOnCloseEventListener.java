@@ -23,15 +23,33 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
 
 public class BigInvBackupOnCloseEventListener implements Listener {
 
+    private final JavaPlugin plugin;
     private final BigInvHandler handler;
+    private final long delayTicks;
 
-    public BigInvBackupOnCloseEventListener(BigInvHandler handler) {
+    private final Map<UUID, BukkitTask> pendingFlushes = new HashMap<>();
+
+    /**
+     * @param plugin the plugin
+     * @param handler the handler
+     * @param delayTicks the delay after the first close before the BigInv gets saved. All closes within this delay result in one save. 0 saves on every close.
+     */
+    public BigInvBackupOnCloseEventListener(JavaPlugin plugin, BigInvHandler handler, long delayTicks) {
+        this.plugin = plugin;
         this.handler = Objects.requireNonNull(handler, "BigInvHandler must not be null");
+        this.delayTicks = delayTicks;
     }
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
@@ -39,10 +57,33 @@ public class BigInvBackupOnCloseEventListener implements Listener {
         if (e.getInventory().getHolder() instanceof BigInvHolder) {
 
             BigInvHolder holder = (BigInvHolder) e.getInventory().getHolder();
-            if (holder.isChanged()) {
-                handler.saveInventory(holder.getOwner(), false);
-                holder.setChanged(false);
+            if (!holder.isChanged())
+                return;
+
+            if (delayTicks <= 0) {
+                this.flush(holder);
+            } else if (!pendingFlushes.containsKey(holder.getOwner().getUniqueId())) {
+                pendingFlushes.put(holder.getOwner().getUniqueId(), new BukkitRunnable() {
+                    @Override
+                    public void run() {
+                        pendingFlushes.remove(holder.getOwner().getUniqueId());
+                        flush(holder);
+                    }
+                }.runTaskLater(plugin, delayTicks));
             }
         }
     }
+
+    // the quit itself saves the BigInv immediately.
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent e) {
+        BukkitTask task = pendingFlushes.remove(e.getPlayer().getUniqueId());
+        if (task != null)
+            task.cancel();
+    }
+
+    private void flush(BigInvHolder holder) {
+        if (holder.isChanged())
+            handler.saveInventory(holder);
+    }
 }
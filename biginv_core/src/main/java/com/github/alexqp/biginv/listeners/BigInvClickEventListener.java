@@ -20,13 +20,16 @@ package com.github.alexqp.biginv.listeners;
 
 import com.github.alexqp.biginv.data.BigInvHolder;
 import com.github.alexqp.commons.messages.ConsoleMessage;
+import com.github.alexqp.commons.messages.Debugable;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.inventory.InventoryType;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.scheduler.BukkitRunnable;
 
@@ -34,19 +37,22 @@ public class BigInvClickEventListener implements Listener {
 
     private final JavaPlugin plugin;
     private final BigInvHandler handler;
+    private final boolean debug; // debug messages are only built if needed, as clicks are very frequent
 
     public BigInvClickEventListener(JavaPlugin plugin, BigInvHandler handler) {
         this.plugin = plugin;
         this.handler = handler;
+        this.debug = plugin instanceof Debugable && ((Debugable) plugin).getDebug();
     }
 
     private boolean getCancelForEvents(Player clicker, BigInvHolder holder) {
         if (holder.getCanChange(clicker)) {
-            holder.setChanged(true);
-            ConsoleMessage.debug(this.getClass(), plugin, "Granted " + ConsoleMessage.getPlayerString(clicker) + " changing of biginv from " + ConsoleMessage.getPlayerString(holder.getOwner()));
+            if (debug)
+                ConsoleMessage.debug(this.getClass(), plugin, "Granted " + ConsoleMessage.getPlayerString(clicker) + " changing of biginv from " + holder.getOwnerString());
             return false;
         } else {
-            ConsoleMessage.debug(this.getClass(), plugin, "Prevented " + ConsoleMessage.getPlayerString(clicker) + " changing of biginv from " + ConsoleMessage.getPlayerString(holder.getOwner()));
+            if (debug)
+                ConsoleMessage.debug(this.getClass(), plugin, "Prevented " + ConsoleMessage.getPlayerString(clicker) + " changing of biginv from " + holder.getOwnerString());
             return true;
         }
     }
@@ -70,17 +76,58 @@ public class BigInvClickEventListener implements Listener {
             }.runTask(plugin);
         }
 
+        boolean navigationSlot = e.getClickedInventory() != null && (e.getClickedInventory().getHolder() instanceof BigInvHolder)
+                && ((BigInvHolder) e.getClickedInventory().getHolder()).isNavigationSlot(e.getClickedInventory(), e.getSlot());
+
+        // navigation item outside the navigation row (only possible by forging one)?
+        if (!navigationSlot && e.getView().getTopInventory().getHolder() instanceof BigInvHolder) {
+            if (BigInvHolder.isNavigationItem(e.getCurrentItem())) {
+                e.setCancelled(true);
+                e.setCurrentItem(null);
+                return;
+            }
+            if (BigInvHolder.isNavigationItem(e.getCursor())) {
+                e.setCancelled(true);
+                clicker.setItemOnCursor(null);
+                return;
+            }
+        }
+
+        // navigation of paged BigInvs?
+        if (navigationSlot) {
+            e.setCancelled(true);
+            Inventory page = ((BigInvHolder) e.getClickedInventory().getHolder()).getNavigationTarget(e.getClickedInventory(), e.getSlot());
+            if (page != null) {
+                new BukkitRunnable() {
+                    @Override
+                    public void run() {
+                        clicker.openInventory(page);
+                    }
+                }.runTask(plugin);
+            }
+        }
+
         // prevent changing?
-        if (e.getClickedInventory() != null && (e.getClickedInventory().getHolder() instanceof BigInvHolder)) {
+        else if (e.getClickedInventory() != null && (e.getClickedInventory().getHolder() instanceof BigInvHolder)) {
             BigInvHolder holder = (BigInvHolder) e.getClickedInventory().getHolder();
             e.setCancelled(this.getCancelForEvents(clicker, holder));
+            if (!e.isCancelled()) {
+                // collecting to the cursor may take items from any slot.
+                if (e.getAction().equals(InventoryAction.COLLECT_TO_CURSOR)) {
+                    holder.setChanged(true);
+                } else {
+                    holder.setSlotChanged(e.getClickedInventory(), e.getSlot());
+                }
+            }
         }
 
-        // shift clicks on bottom inventory
-        else if ((e.getClick().equals(ClickType.SHIFT_LEFT) || e.getClick().equals(ClickType.SHIFT_RIGHT))
+        // shift clicks or collecting to the cursor on bottom inventory (may change any slot of the BigInv)
+        else if ((e.getClick().equals(ClickType.SHIFT_LEFT) || e.getClick().equals(ClickType.SHIFT_RIGHT) || e.getAction().equals(InventoryAction.COLLECT_TO_CURSOR))
                     && e.getView().getTopInventory().getHolder() instanceof BigInvHolder) {
             BigInvHolder holder = (BigInvHolder) e.getView().getTopInventory().getHolder();
             e.setCancelled(this.getCancelForEvents(clicker, holder));
+            if (!e.isCancelled())
+                holder.setChanged(true);
         }
     }
 
@@ -93,8 +140,26 @@ public class BigInvClickEventListener implements Listener {
         Player clicker = (Player) e.getWhoClicked();
 
         if (e.getView().getTopInventory().getHolder() instanceof BigInvHolder) {
-            BigInvHolder holder = (BigInvHolder) e.getView().getTopInventory().getHolder();
+            if (BigInvHolder.isNavigationItem(e.getOldCursor())) {
+                e.setCancelled(true); // it gets removed by the next click.
+                return;
+            }
+
+            Inventory top = e.getView().getTopInventory();
+            BigInvHolder holder = (BigInvHolder) top.getHolder();
             e.setCancelled(this.getCancelForEvents(clicker, holder));
+            if (!e.isCancelled()) {
+                // raw slots of the top inventory are equal to its slot indexes.
+                for (int rawSlot : e.getRawSlots()) {
+                    if (holder.isNavigationSlot(top, rawSlot)) {
+                        e.setCancelled(true);
+                        return;
+                    }
+                }
+                for (int rawSlot : e.getRawSlots()) {
+                    holder.setSlotChanged(top, rawSlot);
+                }
+            }
         }
     }
 }
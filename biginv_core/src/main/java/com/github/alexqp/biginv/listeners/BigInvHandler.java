@@ -18,17 +18,22 @@
 
 package com.github.alexqp.biginv.listeners;
 
+import com.github.alexqp.biginv.data.BigInvHolder;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.List;
+import java.util.UUID;
 
 
 public interface BigInvHandler {
 
+    void prefetchInventory(UUID ownerUUID); // may be called async, loadInventory uses the result if still valid.
     BigInvHandlerReturnType loadInventory(Player owner);
     BigInvHandlerReturnType saveInventory(Player owner);
     BigInvHandlerReturnType saveInventory(Player owner, boolean closeInv); // closeInv == false also prevents unloading!
+    void saveInventory(BigInvHolder holder); // saves the changes without unloading, also for holders of offline players.
+    BigInvHandlerReturnType updateSize(Player owner); // resizes the loaded BigInv to the current size permission, the overflow goes into the backup.
     BigInvHandlerReturnType openInventory(Player owner, Player viewer);
     BigInvHandlerReturnType restoreBackup(Player owner, Player viewer);
 
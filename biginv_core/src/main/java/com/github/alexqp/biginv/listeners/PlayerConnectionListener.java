@@ -18,14 +18,21 @@
 
 package com.github.alexqp.biginv.listeners;
 
+import com.github.alexqp.biginv.data.BigInvHolder;
 import com.github.alexqp.commons.config.ConsoleErrorType;
 import com.github.alexqp.commons.messages.ConsoleMessage;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
 
 public class PlayerConnectionListener implements Listener {
 
@@ -39,6 +46,14 @@ public class PlayerConnectionListener implements Listener {
         this.neededBackupMsg = ChatColor.translateAlternateColorCodes('&', rawNeededBackupMsg);
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(AsyncPlayerPreLoginEvent e) {
+        if (e.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED)
+            return;
+
+        handler.prefetchInventory(e.getUniqueId());
+    }
+
     @EventHandler
     public void onConnect(PlayerJoinEvent e) {
         ConsoleMessage.debug(this.getClass(), plugin, "Initiating loading of BigInv for " + ConsoleMessage.getPlayerString(e.getPlayer()) + "...");
@@ -47,9 +62,38 @@ public class PlayerConnectionListener implements Listener {
         }
     }
 
+    /**
+     * Regularly applies changed size permissions of online players to their loaded BigInvs.
+     * @param periodTicks the period in ticks
+     */
+    public void startSizeUpdates(long periodTicks) {
+        new BukkitRunnable() {
+            @Override
+            public void run() {
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    updateSize(player);
+                }
+            }
+        }.runTaskTimer(plugin, periodTicks, periodTicks);
+    }
+
+    private void updateSize(Player player) {
+        if (handler.updateSize(player).equals(BigInvHandler.BigInvHandlerReturnType.NEEDED_BACKUP)) {
+            player.sendMessage(neededBackupMsg);
+        }
+    }
+
     @EventHandler
     public void onDisconnect(PlayerQuitEvent e) {
         ConsoleMessage.debug(this.getClass(), plugin, "Initiating saving of BigInv for " + ConsoleMessage.getPlayerString(e.getPlayer()) + "...");
         handler.saveInventory(e.getPlayer());
+        BigInvHolder.invalidatePermissions(e.getPlayer().getUniqueId());
+    }
+
+    @EventHandler
+    public void onWorldChange(PlayerChangedWorldEvent e) {
+        // permission plugins may grant different permissions per world.
+        BigInvHolder.invalidatePermissions(e.getPlayer().getUniqueId());
+        this.updateSize(e.getPlayer());
     }
 }
@@ -88,6 +88,20 @@ public class BigInv extends JavaPlugin implements Debugable {
     }
 
     private final String saveOnInvCloseOptionConfigName = "save_on_inventory_close";
+    private final String saveOnInvCloseDelayConfigName = "save_on_inventory_close_delay";
+    private final String asyncSavingOptionConfigName = "async_saving";
+    private final String inventoryIdleTimeoutConfigName = "inventory_idle_timeout";
+    private final String sizeUpdateIntervalConfigName = "size_update_interval";
+    private final String permissionCacheTimeConfigName = "permission_cache_time";
+    private final String storageSectionConfigName = "storage";
+    private final String shutdownSectionConfigName = "shutdown";
+    private final String offlineCacheSectionConfigName = "offline_cache";
+    private final String historySectionConfigName = "history";
+    private final String[] pagesSectionConfigNames = {"pages", "max_pages", "title", "previous", "next"};
+    private final String autosaveSectionConfigName = "autosave";
+    private final String searchIndexSectionConfigName = "search_index";
+    private final String bulkSectionConfigName = "bulk_operations";
+    private final String statsSectionConfigName = "stats";
     private final String[] messagesSectionConfigNames = {"messages", "backup_needed_login", "logoutClose"};
 
     private BigInvContainer invContainer;
@@ -102,7 +116,39 @@ public class BigInv extends JavaPlugin implements Debugable {
         ConfigChecker configChecker = new ConfigChecker(this);
 
         BigInvHolder.invTitle = configChecker.checkString(this.getConfig(), "inventory_title", ConsoleErrorType.WARN, "BigInv (%player%)");
-        invContainer = new BigInvContainer(this);
+        ConfigurationSection pagesSection = configChecker.checkConfigSection(this.getConfig(), pagesSectionConfigNames[0], ConsoleErrorType.WARN);
+        if (pagesSection != null) {
+            int maxPages = pagesSection.getInt(pagesSectionConfigNames[1], BigInvHolder.maxPages);
+            if (maxPages < 1) {
+                ConsoleMessage.send(ConsoleErrorType.WARN, this, pagesSectionConfigNames[1] + " must be at least 1. Using 1 instead.");
+                maxPages = 1;
+            }
+            BigInvHolder.maxPages = maxPages;
+            BigInvHolder.pageTitle = configChecker.checkString(pagesSection, pagesSectionConfigNames[2], ConsoleErrorType.WARN, "BigInv (%player%) %page%/%pages%");
+            BigInvHolder.previousPageName = configChecker.checkString(pagesSection, pagesSectionConfigNames[3], ConsoleErrorType.WARN, "&6Previous page");
+            BigInvHolder.nextPageName = configChecker.checkString(pagesSection, pagesSectionConfigNames[4], ConsoleErrorType.WARN, "&6Next page");
+        }
+        long permissionCacheSeconds = this.getConfig().getLong(permissionCacheTimeConfigName, 5);
+        if (permissionCacheSeconds < 0) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, this, permissionCacheTimeConfigName + " must not be negative. Using 0 instead.");
+            permissionCacheSeconds = 0;
+        }
+        BigInvHolder.setPermissionCacheTime(permissionCacheSeconds * 1000);
+        long inventoryIdleSeconds = this.getConfig().getLong(inventoryIdleTimeoutConfigName, 60);
+        if (inventoryIdleSeconds < 0) {
+            ConsoleMessage.send(ConsoleErrorType.WARN, this, inventoryIdleTimeoutConfigName + " must not be negative. Using 0 instead.");
+            inventoryIdleSeconds = 0;
+        }
+        // sections added by updates are missing in older configs, their options fall back to the defaults.
+        invContainer = new BigInvContainer(this, configChecker.checkBoolean(this.getConfig(), asyncSavingOptionConfigName, ConsoleErrorType.WARN, true), inventoryIdleSeconds,
+                configChecker.checkConfigSection(this.getConfig(), storageSectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), shutdownSectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), offlineCacheSectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), historySectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), autosaveSectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), searchIndexSectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), bulkSectionConfigName, ConsoleErrorType.WARN),
+                configChecker.checkConfigSection(this.getConfig(), statsSectionConfigName, ConsoleErrorType.WARN));
 
         String neededBackupMsg = "&4Your old BigInv was to big to fit all items in the new one. Use /biginv backup to restore all left items in your player inventory.";
         String forceClose = "&6BigInv has been closed because the owner left the server.";
@@ -115,6 +161,10 @@ public class BigInv extends JavaPlugin implements Debugable {
         }
 
         PlayerConnectionListener connectionListener = new PlayerConnectionListener(this, invContainer, neededBackupMsg);
+        long sizeUpdateSeconds = this.getConfig().getLong(sizeUpdateIntervalConfigName, 10);
+        if (sizeUpdateSeconds > 0) {
+            connectionListener.startSizeUpdates(sizeUpdateSeconds * 20);
+        }
         BigInvClickEventListener invClickEventListener = new BigInvClickEventListener(this, invContainer);
         BigInvForceCloseEventListener invForceCloseEventListener = new BigInvForceCloseEventListener(forceClose);
 
@@ -125,13 +175,19 @@ public class BigInv extends JavaPlugin implements Debugable {
         Bukkit.getPluginManager().registerEvents(new PlayerDeathListener(invContainer), this);
 
         if (configChecker.checkBoolean(this.getConfig(), saveOnInvCloseOptionConfigName, ConsoleErrorType.WARN, true)) {
-            Bukkit.getPluginManager().registerEvents(new BigInvBackupOnCloseEventListener(invContainer), this);
+            long delayTicks = this.getConfig().getLong(saveOnInvCloseDelayConfigName, 100);
+            if (delayTicks < 0) {
+                ConsoleMessage.send(ConsoleErrorType.WARN, this, saveOnInvCloseDelayConfigName + " must not be negative. Saving on every close instead.");
+                delayTicks = 0;
+            }
+            Bukkit.getPluginManager().registerEvents(new BigInvBackupOnCloseEventListener(this, invContainer, delayTicks), this);
         }
     }
 
     @Override
     public void onDisable() {
         invContainer.saveInventories();
+        invContainer.shutdown();
     }
 
     private void updateChecker() {